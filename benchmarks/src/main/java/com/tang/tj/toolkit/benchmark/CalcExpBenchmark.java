@@ -0,0 +1,50 @@
+package com.tang.tj.toolkit.benchmark;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 表达式计算: 1、10、100 个变量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CalcExpBenchmark {
+
+    @Param({"1", "10", "100"})
+    int variableCount;
+
+    ExpressionCalc.Exp exp;
+
+    Map<String, Double> variables;
+
+    @Setup
+    public void setUp() {
+        // 每5项有一项为常量，项数按变量个数换算
+        int terms = variableCount + variableCount / 4;
+        exp = ExpressionCalc.parseExp(Formulas.generate(terms, 0));
+        variables = Formulas.variables(terms);
+    }
+
+    @Benchmark
+    public double calcExp() {
+        return ExpressionCalc.calcExp(exp, variables);
+    }
+
+}
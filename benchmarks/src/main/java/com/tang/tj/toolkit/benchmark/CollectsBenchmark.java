@@ -0,0 +1,86 @@
+package com.tang.tj.toolkit.benchmark;
+
+import com.tang.tj.toolkit.util.Collects;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集合工具: 分组、转 Map、映射
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectsBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    int size;
+
+    List<Item> items;
+
+    @Setup
+    public void setUp() {
+        items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // 平均每组约10条
+            items.add(new Item(i, "g" + (i % Math.max(1, size / 10)), i * 0.5d));
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<Double>> group() {
+        return Collects.group(items, Item::getGroup, Item::getValue);
+    }
+
+    @Benchmark
+    public Map<Integer, Item> collect2Map() {
+        return Collects.collect2Map(items, Item::getId);
+    }
+
+    @Benchmark
+    public List<Double> mapping() {
+        return Collects.mapping(items, Item::getValue);
+    }
+
+    static final class Item {
+
+        private final int id;
+        private final String group;
+        private final double value;
+
+        Item(int id, String group, double value) {
+            this.id = id;
+            this.group = group;
+            this.value = value;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        String getGroup() {
+            return group;
+        }
+
+        double getValue() {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.tang.tj.toolkit.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 生成基准测试用表达式及变量
+ */
+final class Formulas {
+
+    private static final char[] OPTS = {'+', '-', '*', '/'};
+
+    private Formulas() {
+    }
+
+    /**
+     * 生成表达式，变量为 m1 ~ m{terms}，每5项有一项为常量
+     * @param terms 项数
+     * @param depth 括号嵌套层数
+     */
+    static String generate(int terms, int depth) {
+        StringBuilder formula = new StringBuilder(terms * 6 + depth * 2);
+        for (int i = 0; i < depth; i++) {
+            formula.append('(');
+        }
+        int open = depth;
+        for (int i = 1; i <= terms; i++) {
+            if (i > 1) {
+                formula.append(' ').append(OPTS[i % OPTS.length]).append(' ');
+            }
+            if (i % 5 == 0) {
+                formula.append("1.5");
+            } else {
+                formula.append('m').append(i);
+            }
+            if (i > 1 && open > 0) {
+                formula.append(')');
+                open--;
+            }
+        }
+        for (; open > 0; open--) {
+            formula.append(')');
+        }
+        return formula.toString();
+    }
+
+    /**
+     * 变量 m1 ~ m{terms} 的值
+     */
+    static Map<String, Double> variables(int terms) {
+        Map<String, Double> variables = new HashMap<>();
+        for (int i = 1; i <= terms; i++) {
+            variables.put("m" + i, i + 0.25d);
+        }
+        return variables;
+    }
+
+}
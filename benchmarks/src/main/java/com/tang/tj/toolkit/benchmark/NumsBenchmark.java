@@ -0,0 +1,63 @@
+package com.tang.tj.toolkit.benchmark;
+
+import com.tang.tj.toolkit.util.Nums;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数值工具: 数值字符串判断、转 double、double 格式化
+ * 输入含整数、小数、科学计数法及非数值
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NumsBenchmark {
+
+    @Param({"12345", "-3.1415926", "1.5e10", "abc"})
+    String text;
+
+    double value;
+
+    final StringBuilder sb = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        value = Nums.number2Double(text, 123456.789012d);
+    }
+
+    @Benchmark
+    public boolean isParsable() {
+        return Nums.isParsable(text);
+    }
+
+    @Benchmark
+    public double number2Double() {
+        return Nums.number2Double(text, 0d);
+    }
+
+    @Benchmark
+    public String double2Str() {
+        return Nums.double2Str(value, 2);
+    }
+
+    @Benchmark
+    public StringBuilder double2StrBuilder() {
+        sb.setLength(0);
+        return Nums.double2Str(value, 2, sb);
+    }
+
+}
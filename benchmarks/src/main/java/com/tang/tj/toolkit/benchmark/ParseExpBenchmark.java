@@ -0,0 +1,60 @@
+package com.tang.tj.toolkit.benchmark;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 表达式解析: 不同项数、括号嵌套层数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseExpBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int terms;
+
+    @Param({"0", "10", "100"})
+    int depth;
+
+    String formula;
+
+    Map<String, Double> variables;
+
+    @Setup
+    public void setUp() {
+        formula = Formulas.generate(terms, depth);
+        variables = Formulas.variables(terms);
+    }
+
+    @Benchmark
+    public ExpressionCalc.Exp parseExp() {
+        return ExpressionCalc.parseExp(formula);
+    }
+
+    /**
+     * parseExp(String, Map) 会向 Map 写入映射后的变量，每次复制一份变量 Map(复制开销计入结果)
+     */
+    @Benchmark
+    public ExpressionCalc.Exp parseExpWithVariables() {
+        return ExpressionCalc.parseExp(formula, new HashMap<>(variables));
+    }
+
+}
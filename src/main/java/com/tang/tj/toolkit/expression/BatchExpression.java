@@ -0,0 +1,988 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 列式批量计算表达式
+ * 每个变量一列 double[]，按块(每块 {@link #BLOCK_SIZE} 行)逐个运算符对整列计算，循环体简单可被 JIT 向量化
+ * 被除数为0的元素单独使用 dividendZeroCalc 计算并逐个记录指标，变量列不存在时使用 nonVarValueProvider 的值(每次批量计算每个变量取一次，记录一次指标)
+ * 函数的参数整列计算后逐行调用；if、coalesce 的非首个参数按块只计算有行选中的参数，块内未选中的行不调用 dividendZeroCalc、自定义函数，
+ * 参数中的变量列不存在时在计算前取值(同一线程)，取值异常在有行选中该参数时才抛出，结果与 {@link ExpressionCalc#calcExp} 一致；
+ * coalesce 的变量参数列不存在时为 NaN
+ * 实例不可变，可多线程共用；计算用的操作值栈、中间结果列等临时空间每个线程一份，各次计算共用
+ */
+public final class BatchExpression {
+
+    /** 每块行数，中间结果列保持在 CPU 缓存内 */
+    static final int BLOCK_SIZE = 1024;
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    private static final byte SCALAR = 0;
+    private static final byte COLUMN = 1;
+    private static final byte TEMP = 2;
+
+    /** 每个线程一份计算临时空间，各次计算共用 */
+    private static final ThreadLocal<Scratch> SCRATCHES = ThreadLocal.withInitial(Scratch::new);
+
+    private final VarSlots slots;
+
+    /** 后序节点 1.常量值  2.二元操作符表达式  3.变量值  5.函数调用 */
+    private final byte[] types;
+    private final double[] values;
+    private final int[] varSlots;
+    private final String[] varNames;
+    private final char[] opts;
+    private final ExpressionFunctions.Definition[] functions;
+    /** 函数参数个数 */
+    private final int[] argcs;
+    /** coalesce 的变量参数(最后一个除外)，列不存在时为 NaN */
+    private final boolean[] optional;
+
+    /** if、coalesce 非首个参数的第一个节点对应参数的最后一个节点，其他节点为 -1 */
+    private final int[] lazyEnds;
+    /** lazyEnds 对应的函数节点下标 */
+    private final int[] lazyFunctions;
+    /** lazyEnds 对应的参数下标 */
+    private final int[] lazyArgs;
+    /** 是否在 if、coalesce 的非首个参数中，变量取值异常延迟抛出 */
+    private final boolean[] lazy;
+    /** if、coalesce 非首个参数最大嵌套层数 */
+    private final int maxLazyDepth;
+
+    /** 计算过程操作值栈最大深度 */
+    private final int maxDepth;
+
+    /** 计算指标计时缓存，每次批量调用计一次 */
+    private final ExpressionMetrics.Site site;
+
+    private BatchExpression(VarSlots slots, List<Exp> nodes) {
+        int size = nodes.size();
+        this.slots = slots;
+        this.site = ExpressionMetrics.site(nodes.get(size - 1).getSegment());
+        this.types = new byte[size];
+        this.values = new double[size];
+        this.varSlots = new int[size];
+        this.varNames = new String[size];
+        this.opts = new char[size];
+        this.functions = new ExpressionFunctions.Definition[size];
+        this.argcs = new int[size];
+        this.optional = new boolean[size];
+        this.lazyEnds = new int[size];
+        this.lazyFunctions = new int[size];
+        this.lazyArgs = new int[size];
+        this.lazy = new boolean[size];
+        Arrays.fill(lazyEnds, -1);
+        // 操作值栈中各值的节点下标及其子树第一个节点下标(后序子树节点连续)
+        int[] nodeIdxs = new int[size];
+        int[] begins = new int[size];
+        int depth = 0, max = 0;
+        for (int i = 0; i < size; i++) {
+            Exp node = nodes.get(i);
+            types[i] = (byte) node.type;
+            if (node.type == 1) {
+                values[i] = node.value;
+                begins[depth] = i;
+                nodeIdxs[depth++] = i;
+            } else if (node.type == 3) {
+                varSlots[i] = slots.slotOf(node.varName);
+                varNames[i] = node.varName;
+                begins[depth] = i;
+                nodeIdxs[depth++] = i;
+            } else if (node.type == 2) {
+                if (!ExpressionCalc.isOperator(node.opt)) {
+                    throw new IllegalArgumentException("未知的运算符:" + node.opt);
+                }
+                opts[i] = node.opt;
+                depth--;
+                nodeIdxs[depth - 1] = i;
+            } else if (node.type == 5) {
+                int argc = node.values.length;
+                functions[i] = node.function;
+                argcs[i] = argc;
+                depth -= argc;
+                if (node.function.kind == ExpressionFunctions.COALESCE) {
+                    for (int k = 0; k < argc - 1; k++) {
+                        optional[nodeIdxs[depth + k]] = types[nodeIdxs[depth + k]] == 3;
+                    }
+                }
+                if (node.function.isLazy()) {
+                    for (int k = 1; k < argc; k++) {
+                        int begin = begins[depth + k];
+                        lazyEnds[begin] = nodeIdxs[depth + k];
+                        lazyFunctions[begin] = i;
+                        lazyArgs[begin] = k;
+                        Arrays.fill(lazy, begin, nodeIdxs[depth + k] + 1, true);
+                    }
+                }
+                nodeIdxs[depth++] = i;
+            } else {
+                throw new IllegalArgumentException("未知的表达式类型:" + node.type);
+            }
+            max = Math.max(max, depth);
+        }
+        this.maxDepth = max;
+        // 非首个参数的区间互相嵌套或不相交，按区间端点计算最大嵌套层数
+        int lazyDepth = 0, maxLazy = 0;
+        int[] ends = new int[size];
+        for (int i = 0; i < size; i++) {
+            while (lazyDepth > 0 && ends[lazyDepth - 1] < i) {
+                lazyDepth--;
+            }
+            if (lazyEnds[i] >= 0) {
+                ends[lazyDepth++] = lazyEnds[i];
+                maxLazy = Math.max(maxLazy, lazyDepth);
+            }
+        }
+        this.maxLazyDepth = maxLazy;
+    }
+
+    public static BatchExpression of(Exp exp) {
+        return of(exp, VarSlots.of(exp));
+    }
+
+    /**
+     * @param slots 变量列槽位布局，布局中不存在的变量视为变量列不存在
+     */
+    public static BatchExpression of(Exp exp, VarSlots slots) {
+        return new BatchExpression(slots, ExpressionCompiler.postOrder(exp));
+    }
+
+    public VarSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * 按变量名取列计算，结果行数为 result.length
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param result 计算结果，不能是变量列
+     */
+    public void calc(Map<String, double[]> columns, double[] result) {
+        calc(columns, result, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public void calc(Map<String, double[]> columns, double[] result,
+                     Function<String, Double> nonVarValueProvider,
+                     BiFunction<Double, Double, Double> dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = site.timer();
+        long start = timer == null ? 0 : System.nanoTime();
+        Scratch scratch = Scratch.acquire();
+        try {
+            double[][] bound = scratch.bound(slots.size());
+            Missing missing = bind(columns, bound, scratch.resolved, nonVarValueProvider, scratch.missing(types.length));
+            calc(bound, missing, result, 0, result.length, dividendZeroCalc, scratch);
+        } finally {
+            scratch.release();
+        }
+        if (timer != null) {
+            timer.evaluated(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 只计算选中的行，未选中行的结果不变，如 {@link BatchFilter} 过滤后计算
+     * 无选中行的块跳过，块内只计算首个至最后一个选中行之间的行
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param selection 选中行位图，第 row 行为 selection[row >>> 6] 的第 (row & 63) 位
+     * @param result 计算结果，行数为 result.length，不能是变量列
+     */
+    public void calc(Map<String, double[]> columns, long[] selection, double[] result) {
+        calc(columns, selection, result, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public void calc(Map<String, double[]> columns, long[] selection, double[] result,
+                     Function<String, Double> nonVarValueProvider,
+                     BiFunction<Double, Double, Double> dividendZeroCalc) {
+        int rows = result.length;
+        if (selection.length < (rows + 63) >>> 6) {
+            throw new IllegalArgumentException(String.format("选中行位图长度%d小于%d行", selection.length, rows));
+        }
+        ExpressionMetrics.Timer timer = site.timer();
+        long start = timer == null ? 0 : System.nanoTime();
+        Scratch scratch = Scratch.acquire();
+        try {
+            calc(columns, selection, result, nonVarValueProvider, dividendZeroCalc, scratch);
+        } finally {
+            scratch.release();
+        }
+        if (timer != null) {
+            timer.evaluated(System.nanoTime() - start);
+        }
+    }
+
+    private void calc(Map<String, double[]> columns, long[] selection, double[] result,
+                      Function<String, Double> nonVarValueProvider,
+                      BiFunction<Double, Double, Double> dividendZeroCalc, Scratch scratch) {
+        int rows = result.length;
+        double[][] bound = scratch.bound(slots.size());
+        Missing missing = bind(columns, bound, scratch.resolved, nonVarValueProvider, scratch.missing(types.length));
+        double[] block = scratch.block;
+        for (int from = 0; from < rows; from += BLOCK_SIZE) {
+            int to = Math.min(rows, from + BLOCK_SIZE);
+            int first = nextSelected(selection, from, to);
+            if (first == to) {
+                continue;
+            }
+            int last = previousSelected(selection, from, to);
+            int selected = BatchFilter.count(selection, first, last + 1);
+            if (selected == last + 1 - first) {
+                calc(bound, missing, result, 0, first, last + 1, dividendZeroCalc, scratch);
+                continue;
+            }
+            if (block == null) {
+                block = scratch.block = new double[BLOCK_SIZE];
+            }
+            calc(bound, missing, block, first, first, last + 1, dividendZeroCalc, scratch);
+            for (int w = first >>> 6; w <= last >>> 6; w++) {
+                long bits = selection[w];
+                while (bits != 0) {
+                    int row = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (row >= first && row <= last) {
+                        result[row] = block[row - first];
+                    }
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * [from, to) 中第一个选中行，没有返回 to
+     */
+    private static int nextSelected(long[] selection, int from, int to) {
+        for (int w = from >>> 6; w << 6 < to; w++) {
+            long bits = selection[w];
+            if (bits != 0) {
+                return Math.min(to, (w << 6) + Long.numberOfTrailingZeros(bits));
+            }
+        }
+        return to;
+    }
+
+    /**
+     * [from, to) 中最后一个选中行，调用前已确认有选中行；from 按64对齐
+     */
+    private static int previousSelected(long[] selection, int from, int to) {
+        int w = (to - 1) >>> 6;
+        // 最后一个字中超出 to 的位不计
+        long bits = selection[w] & (-1L >>> (63 - ((to - 1) & 63)));
+        while (bits == 0 && w > from >>> 6) {
+            bits = selection[--w];
+        }
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /**
+     * 按变量名取列，写入槽位
+     * @param bound 变量列，下标为槽位
+     * @return 变量列不存在时的变量值；列为 null 时为0
+     */
+    Missing bind(Map<String, double[]> columns, double[][] bound,
+                 Function<String, Double> nonVarValueProvider) {
+        return bind(columns, bound, new HashMap<>(), nonVarValueProvider, new Missing(types.length));
+    }
+
+    /**
+     * @param resolved 已取过的变量值
+     * @param missing 写入变量列不存在时的变量值
+     */
+    private Missing bind(Map<String, double[]> columns, double[][] bound, Map<String, Double> resolved,
+                         Function<String, Double> nonVarValueProvider, Missing missing) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != 3) {
+                continue;
+            }
+            double[] column = varSlots[i] < 0 ? null : columns.get(varNames[i]);
+            if (column != null) {
+                bound[varSlots[i]] = column;
+            } else if (varSlots[i] >= 0 && columns.containsKey(varNames[i])) {
+                missing.values[i] = 0d;
+            } else {
+                resolve(i, missing, resolved, nonVarValueProvider);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 按槽位取列计算，结果行数为 result.length
+     * @param columns 变量列，下标为槽位，列为 null 时变量不存在
+     * @param result 计算结果，不能是变量列
+     */
+    public void calc(double[][] columns, double[] result) {
+        calc(columns, result, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public void calc(double[][] columns, double[] result,
+                     Function<String, Double> nonVarValueProvider,
+                     BiFunction<Double, Double, Double> dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = site.timer();
+        long start = timer == null ? 0 : System.nanoTime();
+        Scratch scratch = Scratch.acquire();
+        try {
+            Missing missing = missing(columns, scratch.resolved, nonVarValueProvider, scratch.missing(types.length));
+            calc(columns, missing, result, 0, result.length, dividendZeroCalc, scratch);
+        } finally {
+            scratch.release();
+        }
+        if (timer != null) {
+            timer.evaluated(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 变量列不存在时的变量值
+     * @param resolved 已取过的变量值，多个表达式可共用
+     */
+    Missing missing(double[][] columns, Map<String, Double> resolved,
+                    Function<String, Double> nonVarValueProvider) {
+        return missing(columns, resolved, nonVarValueProvider, new Missing(types.length));
+    }
+
+    private Missing missing(double[][] columns, Map<String, Double> resolved,
+                            Function<String, Double> nonVarValueProvider, Missing missing) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == 3 && (varSlots[i] < 0 || columns[varSlots[i]] == null)) {
+                resolve(i, missing, resolved, nonVarValueProvider);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 节点 i 的变量取值，if、coalesce 非首个参数中的变量取值异常时暂存
+     */
+    private void resolve(int i, Missing missing, Map<String, Double> resolved,
+                         Function<String, Double> nonVarValueProvider) {
+        if (optional[i]) {
+            missing.values[i] = Double.NaN;
+        } else if (!lazy[i]) {
+            missing.values[i] = resolve(varNames[i], resolved, nonVarValueProvider);
+        } else {
+            try {
+                missing.values[i] = resolve(varNames[i], resolved, nonVarValueProvider);
+            } catch (RuntimeException e) {
+                missing.fail(i, e);
+            }
+        }
+    }
+
+    /**
+     * 不存在的变量列取值，同一变量只取一次
+     */
+    private static double resolve(String varName, Map<String, Double> resolved,
+                                  Function<String, Double> nonVarValueProvider) {
+        Double value = resolved.get(varName);
+        if (value == null) {
+            ExpressionMetrics.recordMissingVariable(varName);
+            value = Objs.ifNull(nonVarValueProvider.apply(varName), 0d);
+            resolved.put(varName, value);
+        }
+        return value;
+    }
+
+    /**
+     * 计算 [fromRow, toRow) 行，结果写入 result 相同下标
+     * @param missing 变量列不存在时的变量值，下标为节点下标
+     * @param scratch 计算用临时空间，同一线程可重复使用
+     */
+    void calc(double[][] columns, Missing missing, double[] result, int fromRow, int toRow,
+              BiFunction<Double, Double, Double> dividendZeroCalc, Scratch scratch) {
+        calc(columns, missing, result, 0, fromRow, toRow, dividendZeroCalc, scratch);
+    }
+
+    /**
+     * 计算 [fromRow, toRow) 行，第 row 行结果写入 result[row - resultOffset]，可按块复用较短的结果列
+     */
+    void calc(double[][] columns, Missing missing, double[] result, int resultOffset, int fromRow, int toRow,
+              BiFunction<Double, Double, Double> dividendZeroCalc, Scratch scratch) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == 3 && varSlots[i] >= 0 && columns[varSlots[i]] != null
+                    && columns[varSlots[i]].length < toRow) {
+                throw new IllegalArgumentException(String.format("变量[%s]列长度%d小于%d",
+                        varNames[i], columns[varSlots[i]].length, toRow));
+            }
+        }
+        scratch.ensureDepth(maxDepth, maxLazyDepth);
+        // 操作值栈
+        byte[] kinds = scratch.kinds;
+        double[] scalars = scratch.scalars;
+        double[][] arrays = scratch.arrays;
+        int[] offsets = scratch.offsets;
+        // 空闲中间结果列
+        Deque<double[]> temps = scratch.temps;
+        // if、coalesce 非首个参数的选中行，按嵌套层
+        boolean[][] masks = scratch.masks;
+        int[] maskEnds = scratch.maskEnds;
+
+        int last = types.length - 1;
+        for (int from = fromRow; from < toRow; from += BLOCK_SIZE) {
+            int len = Math.min(BLOCK_SIZE, toRow - from);
+            int top = -1;
+            int maskTop = -1;
+            for (int i = 0; i <= last; i++) {
+                while (maskTop >= 0 && maskEnds[maskTop] < i) {
+                    maskTop--;
+                }
+                if (lazyEnds[i] >= 0) {
+                    boolean[] parent = maskTop < 0 ? null : masks[maskTop];
+                    int selected = select(i, top, len, parent, masks[maskTop + 1], scratch);
+                    if (selected == 0) {
+                        // 块内没有行选中该参数，跳过参数的计算，函数不会取该值
+                        top++;
+                        kinds[top] = SCALAR;
+                        scalars[top] = Double.NaN;
+                        i = lazyEnds[i];
+                        continue;
+                    }
+                    if (selected < len || parent != null) {
+                        maskEnds[++maskTop] = lazyEnds[i];
+                    }
+                }
+                boolean[] mask = maskTop < 0 ? null : masks[maskTop];
+                if (types[i] == 1) {
+                    top++;
+                    kinds[top] = SCALAR;
+                    scalars[top] = values[i];
+                    continue;
+                }
+                if (types[i] == 3) {
+                    top++;
+                    double[] column = varSlots[i] < 0 ? null : columns[varSlots[i]];
+                    if (column == null) {
+                        kinds[top] = SCALAR;
+                        scalars[top] = missing.value(i);
+                    } else {
+                        kinds[top] = COLUMN;
+                        arrays[top] = column;
+                        offsets[top] = from;
+                    }
+                    continue;
+                }
+                if (types[i] == 5) {
+                    top -= argcs[i] - 1;
+                    calcFunction(i, top, i == last ? result : null, from - resultOffset, len, mask, scratch);
+                    continue;
+                }
+                int l = top - 1, r = top;
+                top = l;
+                if (kinds[l] == SCALAR && kinds[r] == SCALAR) {
+                    scalars[l] = calc(opts[i], scalars[l], scalars[r], dividendZeroCalc);
+                    continue;
+                }
+                // 结果列: 最后一步直接写入结果，否则复用中间结果列
+                double[] dest;
+                int destOffset;
+                if (i == last) {
+                    dest = result;
+                    destOffset = from - resultOffset;
+                } else if (kinds[l] == TEMP) {
+                    dest = arrays[l];
+                    destOffset = 0;
+                } else if (kinds[r] == TEMP) {
+                    dest = arrays[r];
+                    destOffset = 0;
+                } else {
+                    dest = temps.isEmpty() ? new double[BLOCK_SIZE] : temps.pop();
+                    destOffset = 0;
+                }
+                if (kinds[l] == SCALAR) {
+                    calc(opts[i], scalars[l], arrays[r], offsets[r], dest, destOffset, len, mask, dividendZeroCalc);
+                } else if (kinds[r] == SCALAR) {
+                    calc(opts[i], arrays[l], offsets[l], scalars[r], dest, destOffset, len, mask, dividendZeroCalc);
+                } else {
+                    calc(opts[i], arrays[l], offsets[l], arrays[r], offsets[r], dest, destOffset, len, mask, dividendZeroCalc);
+                }
+                if (kinds[l] == TEMP && arrays[l] != dest) {
+                    temps.push(arrays[l]);
+                }
+                if (kinds[r] == TEMP && arrays[r] != dest) {
+                    temps.push(arrays[r]);
+                }
+                kinds[l] = TEMP;
+                arrays[l] = dest;
+                offsets[l] = destOffset;
+            }
+            // 表达式为常量或单个变量
+            if (types[last] == 1 || types[last] == 3 || kinds[0] == SCALAR) {
+                if (kinds[0] == SCALAR) {
+                    Arrays.fill(result, from - resultOffset, from - resultOffset + len, scalars[0]);
+                } else {
+                    System.arraycopy(arrays[0], offsets[0], result, from - resultOffset, len);
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算块内选中节点 begin 所在参数的行: if 第二个参数为条件非0的行、第三个参数为条件为0的行，
+     * coalesce 第 k 个参数为之前参数都是 NaN 的行；结果同 {@link ExpressionFunctions.Definition#apply(double[], int, int)}
+     * @param top 操作值栈顶，之前的参数在栈顶
+     * @param parent 外层参数的选中行，没有为 null
+     * @param mask 选中行
+     * @return 选中行数
+     */
+    private int select(int begin, int top, int len, boolean[] parent, boolean[] mask, Scratch scratch) {
+        int k = lazyArgs[begin];
+        int base = top - k + 1;
+        boolean isIf = functions[lazyFunctions[begin]].kind == ExpressionFunctions.IF;
+        int selected = 0;
+        for (int row = 0; row < len; row++) {
+            boolean select = parent == null || parent[row];
+            if (select && isIf) {
+                select = (value(base, row, scratch) != 0) == (k == 1);
+            } else if (select) {
+                for (int v = base; v < base + k && select; v++) {
+                    double value = value(v, row, scratch);
+                    select = value != value;
+                }
+            }
+            mask[row] = select;
+            selected += select ? 1 : 0;
+        }
+        return selected;
+    }
+
+    /**
+     * 操作值栈 v 在块内第 row 行的值
+     */
+    private static double value(int v, int row, Scratch scratch) {
+        return scratch.kinds[v] == SCALAR ? scratch.scalars[v] : scratch.arrays[v][scratch.offsets[v] + row];
+    }
+
+    /**
+     * 计算函数，参数为操作值栈 [base, base + argc)，结果放在 base
+     * @param result 最后一步的结果列，否则为 null
+     * @param mask 选中行，未选中的行结果为 NaN 不调用函数；为 null 时全部选中
+     */
+    private void calcFunction(int i, int base, double[] result, int resultFrom, int len, boolean[] mask,
+                              Scratch scratch) {
+        ExpressionFunctions.Definition function = functions[i];
+        int argc = argcs[i];
+        byte[] kinds = scratch.kinds;
+        double[] scalars = scratch.scalars;
+        double[][] arrays = scratch.arrays;
+        int[] offsets = scratch.offsets;
+        boolean scalar = true;
+        double[] dest = result;
+        int destOffset = resultFrom;
+        for (int k = base; k < base + argc; k++) {
+            scalar &= kinds[k] == SCALAR;
+            if (dest == null && kinds[k] == TEMP) {
+                dest = arrays[k];
+                destOffset = 0;
+            }
+        }
+        if (scalar) {
+            scalars[base] = function.apply(scalars, base, argc);
+            return;
+        }
+        if (dest == null) {
+            dest = scratch.temps.isEmpty() ? new double[BLOCK_SIZE] : scratch.temps.pop();
+            destOffset = 0;
+        }
+        if (scratch.args.length < argc) {
+            scratch.args = new double[argc];
+        }
+        double[] args = scratch.args;
+        for (int row = 0; row < len; row++) {
+            if (mask != null && !mask[row]) {
+                dest[destOffset + row] = Double.NaN;
+                continue;
+            }
+            for (int k = 0; k < argc; k++) {
+                int v = base + k;
+                args[k] = kinds[v] == SCALAR ? scalars[v] : arrays[v][offsets[v] + row];
+            }
+            dest[destOffset + row] = function.apply(args, 0, argc);
+        }
+        for (int k = base; k < base + argc; k++) {
+            if (kinds[k] == TEMP && arrays[k] != dest) {
+                scratch.temps.push(arrays[k]);
+            }
+        }
+        kinds[base] = TEMP;
+        arrays[base] = dest;
+        offsets[base] = destOffset;
+    }
+
+    private static double calc(char opt, double left, double right,
+                               BiFunction<Double, Double, Double> dividendZeroCalc) {
+        switch (opt) {
+            case '+': return left + right;
+            case '-': return left - right;
+            case '*': return left * right;
+            case '/':
+                if (right == 0) {
+                    ExpressionMetrics.recordDividedByZero();
+                    return Objs.ifNull(dividendZeroCalc.apply(left, right), 0d);
+                }
+                return left / right;
+            default:
+                return ExpressionCalc.predicate(opt, left, right);
+        }
+    }
+
+    /**
+     * @param mask 选中行，未选中的行不调用 dividendZeroCalc；为 null 时全部选中
+     */
+    private static void calc(char opt, double[] left, int lo, double[] right, int ro,
+                             double[] dest, int d, int len, boolean[] mask,
+                             BiFunction<Double, Double, Double> dividendZeroCalc) {
+        switch (opt) {
+            case '+':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] + right[ro + i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] - right[ro + i];
+                }
+                break;
+            case '*':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] * right[ro + i];
+                }
+                break;
+            case '/':
+                if (countZero(right, ro, len) == 0) {
+                    for (int i = 0; i < len; i++) {
+                        dest[d + i] = left[lo + i] / right[ro + i];
+                    }
+                    break;
+                }
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = mask != null && !mask[i] ? 0d : calc('/', left[lo + i], right[ro + i], dividendZeroCalc);
+                }
+                break;
+            default:
+                predicate(opt, left, lo, right, ro, dest, d, len);
+        }
+    }
+
+    private static void calc(char opt, double[] left, int lo, double right,
+                             double[] dest, int d, int len, boolean[] mask,
+                             BiFunction<Double, Double, Double> dividendZeroCalc) {
+        switch (opt) {
+            case '+':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] + right;
+                }
+                break;
+            case '-':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] - right;
+                }
+                break;
+            case '*':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] * right;
+                }
+                break;
+            case '/':
+                if (right != 0) {
+                    for (int i = 0; i < len; i++) {
+                        dest[d + i] = left[lo + i] / right;
+                    }
+                    break;
+                }
+                for (int i = 0; i < len; i++) {
+                    if (mask != null && !mask[i]) {
+                        dest[d + i] = 0d;
+                        continue;
+                    }
+                    ExpressionMetrics.recordDividedByZero();
+                    dest[d + i] = Objs.ifNull(dividendZeroCalc.apply(left[lo + i], right), 0d);
+                }
+                break;
+            default:
+                predicate(opt, left, lo, right, dest, d, len);
+        }
+    }
+
+    private static void calc(char opt, double left, double[] right, int ro,
+                             double[] dest, int d, int len, boolean[] mask,
+                             BiFunction<Double, Double, Double> dividendZeroCalc) {
+        switch (opt) {
+            case '+':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left + right[ro + i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left - right[ro + i];
+                }
+                break;
+            case '*':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left * right[ro + i];
+                }
+                break;
+            case '/':
+                if (countZero(right, ro, len) == 0) {
+                    for (int i = 0; i < len; i++) {
+                        dest[d + i] = left / right[ro + i];
+                    }
+                    break;
+                }
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = mask != null && !mask[i] ? 0d : calc('/', left, right[ro + i], dividendZeroCalc);
+                }
+                break;
+            default:
+                // 常量在左侧时交换两侧，比较方向反转
+                predicate(swapped(opt), right, ro, left, dest, d, len);
+        }
+    }
+
+    /**
+     * 比较、逻辑运算，结果1或0，无分支便于向量化
+     */
+    private static void predicate(char opt, double[] left, int lo, double[] right, int ro,
+                                  double[] dest, int d, int len) {
+        switch (opt) {
+            case '>':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] > right[ro + i] ? 1d : 0d;
+                }
+                break;
+            case 'G':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] >= right[ro + i] ? 1d : 0d;
+                }
+                break;
+            case '<':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] < right[ro + i] ? 1d : 0d;
+                }
+                break;
+            case 'L':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] <= right[ro + i] ? 1d : 0d;
+                }
+                break;
+            case '=':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] == right[ro + i] ? 1d : 0d;
+                }
+                break;
+            case '!':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] != right[ro + i] ? 1d : 0d;
+                }
+                break;
+            case '&':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] != 0 & right[ro + i] != 0 ? 1d : 0d;
+                }
+                break;
+            default:
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] != 0 | right[ro + i] != 0 ? 1d : 0d;
+                }
+        }
+    }
+
+    private static void predicate(char opt, double[] left, int lo, double right,
+                                  double[] dest, int d, int len) {
+        switch (opt) {
+            case '>':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] > right ? 1d : 0d;
+                }
+                break;
+            case 'G':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] >= right ? 1d : 0d;
+                }
+                break;
+            case '<':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] < right ? 1d : 0d;
+                }
+                break;
+            case 'L':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] <= right ? 1d : 0d;
+                }
+                break;
+            case '=':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] == right ? 1d : 0d;
+                }
+                break;
+            case '!':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] != right ? 1d : 0d;
+                }
+                break;
+            case '&':
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] != 0 & right != 0 ? 1d : 0d;
+                }
+                break;
+            default:
+                for (int i = 0; i < len; i++) {
+                    dest[d + i] = left[lo + i] != 0 | right != 0 ? 1d : 0d;
+                }
+        }
+    }
+
+    /**
+     * 交换两侧后的运算符
+     */
+    private static char swapped(char opt) {
+        switch (opt) {
+            case '>': return '<';
+            case 'G': return 'L';
+            case '<': return '>';
+            case 'L': return 'G';
+            default: return opt;
+        }
+    }
+
+    /**
+     * 0值个数，无分支便于向量化
+     */
+    private static int countZero(double[] column, int offset, int len) {
+        int count = 0;
+        for (int i = 0; i < len; i++) {
+            count += column[offset + i] == 0 ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * 计算用临时空间: 操作值栈及空闲中间结果列，非线程安全，每个线程一份
+     */
+    static final class Scratch {
+
+        /** 是否正在使用，计算中回调再计算时当前线程的临时空间已被占用 */
+        private boolean inUse;
+        /** 单个表达式计算时的变量列、已取过的变量值、变量列不存在时的变量值及部分选中块的结果 */
+        private double[][] bound = new double[0][];
+        final Map<String, Double> resolved = new HashMap<>();
+        private Missing missing;
+        private double[] block;
+
+        byte[] kinds = new byte[0];
+        double[] scalars = new double[0];
+        double[][] arrays = new double[0][];
+        int[] offsets = new int[0];
+        final Deque<double[]> temps = new ArrayDeque<>();
+        /** 函数一行的参数 */
+        double[] args = new double[0];
+        /** if、coalesce 非首个参数的选中行及参数最后一个节点，按嵌套层 */
+        boolean[][] masks = new boolean[0][];
+        int[] maskEnds = new int[0];
+
+        void ensureDepth(int depth, int lazyDepth) {
+            if (kinds.length < depth) {
+                kinds = new byte[depth];
+                scalars = new double[depth];
+                arrays = new double[depth][];
+                offsets = new int[depth];
+            }
+            if (maskEnds.length < lazyDepth) {
+                boolean[][] grown = Arrays.copyOf(masks, lazyDepth);
+                for (int i = masks.length; i < lazyDepth; i++) {
+                    grown[i] = new boolean[BLOCK_SIZE];
+                }
+                masks = grown;
+                maskEnds = new int[lazyDepth];
+            }
+        }
+
+        /**
+         * 当前线程的临时空间，已被占用时(如 dividendZeroCalc 中再计算)新建；用后 {@link #release()}
+         */
+        static Scratch acquire() {
+            Scratch scratch = SCRATCHES.get();
+            if (scratch.inUse) {
+                scratch = new Scratch();
+            }
+            scratch.inUse = true;
+            return scratch;
+        }
+
+        /**
+         * 释放占用，不再引用调用方的变量列
+         */
+        void release() {
+            Arrays.fill(bound, null);
+            resolved.clear();
+            inUse = false;
+        }
+
+        double[][] bound(int size) {
+            if (bound.length < size) {
+                bound = new double[size][];
+            }
+            return bound;
+        }
+
+        Missing missing(int size) {
+            if (missing == null || missing.values.length < size) {
+                missing = new Missing(size);
+            } else {
+                missing.clear();
+            }
+            return missing;
+        }
+    }
+
+    /**
+     * 变量列不存在时的变量值，下标为节点下标；计算前在调用线程取值，计算时只读，可多线程共用
+     */
+    static final class Missing {
+
+        final double[] values;
+
+        /** if、coalesce 非首个参数中的变量取值异常，有行选中该参数时抛出；没有为 null */
+        private RuntimeException[] errors;
+
+        Missing(int size) {
+            this.values = new double[size];
+        }
+
+        /**
+         * 清除取值异常，复用时变量值重新写入
+         */
+        void clear() {
+            if (errors != null) {
+                Arrays.fill(errors, null);
+            }
+        }
+
+        void fail(int node, RuntimeException error) {
+            if (errors == null) {
+                errors = new RuntimeException[values.length];
+            }
+            errors[node] = error;
+        }
+
+        double value(int node) {
+            if (errors != null && errors[node] != null) {
+                throw errors[node];
+            }
+            return values[node];
+        }
+    }
+
+}
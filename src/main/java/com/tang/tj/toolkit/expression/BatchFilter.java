@@ -0,0 +1,121 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 列式批量过滤
+ * 按 {@link BatchExpression} 逐块计算条件表达式(如 margin > 0.2 and revenue > 1000000)，结果非0的行选中，
+ * 选中行写入位图 long[]: 第 row 行为 selection[row >>> 6] 的第 (row & 63) 位，置位无分支
+ * 位图可传给 {@link BatchExpression#calc(Map, long[], double[])} 只计算选中的行
+ * 被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致
+ * 实例不可变，可多线程共用
+ */
+public final class BatchFilter {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    private final BatchExpression predicate;
+
+    private BatchFilter(BatchExpression predicate) {
+        this.predicate = predicate;
+    }
+
+    public static BatchFilter of(Exp exp) {
+        return new BatchFilter(BatchExpression.of(exp));
+    }
+
+    /**
+     * @param slots 变量列槽位布局，布局中不存在的变量视为变量列不存在
+     */
+    public static BatchFilter of(Exp exp, VarSlots slots) {
+        return new BatchFilter(BatchExpression.of(exp, slots));
+    }
+
+    public VarSlots getSlots() {
+        return predicate.getSlots();
+    }
+
+    /**
+     * 过滤前 rows 行
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @return 选中行位图，长度为 (rows + 63) / 64
+     */
+    public long[] select(Map<String, double[]> columns, int rows) {
+        return select(columns, rows, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public long[] select(Map<String, double[]> columns, int rows,
+                         Function<String, Double> nonVarValueProvider,
+                         BiFunction<Double, Double, Double> dividendZeroCalc) {
+        double[][] bound = new double[predicate.getSlots().size()][];
+        BatchExpression.Missing missing = predicate.bind(columns, bound, nonVarValueProvider);
+        long[] selection = new long[(rows + 63) >>> 6];
+        BatchExpression.Scratch scratch = new BatchExpression.Scratch();
+        double[] block = new double[BatchExpression.BLOCK_SIZE];
+        for (int from = 0; from < rows; from += BatchExpression.BLOCK_SIZE) {
+            int to = Math.min(rows, from + BatchExpression.BLOCK_SIZE);
+            predicate.calc(bound, missing, block, from, from, to, dividendZeroCalc, scratch);
+            // 块大小为64的倍数，每块从位图新的一个字开始
+            for (int base = 0; base < to - from; base += 64) {
+                int len = Math.min(64, to - from - base);
+                long bits = 0;
+                for (int i = 0; i < len; i++) {
+                    bits |= (block[base + i] != 0 ? 1L : 0L) << i;
+                }
+                selection[(from + base) >>> 6] = bits;
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * 选中行数
+     */
+    public static int count(long[] selection) {
+        int count = 0;
+        for (long bits : selection) {
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * [fromRow, toRow) 中选中行数
+     */
+    static int count(long[] selection, int fromRow, int toRow) {
+        if (fromRow >= toRow) {
+            return 0;
+        }
+        int first = fromRow >>> 6, last = (toRow - 1) >>> 6;
+        long firstMask = -1L << fromRow, lastMask = -1L >>> (63 - ((toRow - 1) & 63));
+        if (first == last) {
+            return Long.bitCount(selection[first] & firstMask & lastMask);
+        }
+        int count = Long.bitCount(selection[first] & firstMask) + Long.bitCount(selection[last] & lastMask);
+        for (int w = first + 1; w < last; w++) {
+            count += Long.bitCount(selection[w]);
+        }
+        return count;
+    }
+
+    /**
+     * 第 row 行是否选中
+     */
+    public static boolean isSelected(long[] selection, int row) {
+        return (selection[row >>> 6] & 1L << row) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchFilter{slots=" + predicate.getSlots() + '}';
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 绑定变量槽位的表达式
+ * 绑定时将变量名一次性解析为 {@link VarSlots} 槽位并编译为 {@link StackExpression} 指令，
+ * 计算时按槽位读取 double[]，无 Map 查找、无装箱、无递归，无层数限制
+ * 函数 if、coalesce 只计算需要的参数，见 {@link ExpressionFunctions}
+ * 计算结果、被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致
+ */
+public final class BoundExpression {
+
+    private static final DoubleBinaryOperator DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final ToDoubleFunction<String> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    private final StackExpression program;
+
+    /** 计算指标计时缓存 */
+    private final ExpressionMetrics.Site site;
+
+    private BoundExpression(StackExpression program, String source) {
+        this.program = program;
+        this.site = ExpressionMetrics.site(source);
+    }
+
+    /**
+     * 绑定表达式变量，按变量首次出现顺序分配槽位
+     */
+    public static BoundExpression bind(Exp exp) {
+        return bind(exp, VarSlots.of(exp));
+    }
+
+    /**
+     * 按指定槽位布局绑定表达式变量，多个表达式可共用同一布局
+     * 布局中不存在的变量视为变量不存在
+     */
+    public static BoundExpression bind(Exp exp, VarSlots slots) {
+        return new BoundExpression(StackExpression.compile(exp, slots), exp.getSegment());
+    }
+
+    /**
+     * 变量槽位布局
+     */
+    public VarSlots getSlots() {
+        return program.getSlots();
+    }
+
+    /**
+     * 计算所需最大栈深度
+     */
+    public int getMaxStackDepth() {
+        return program.getMaxStackDepth();
+    }
+
+    /**
+     * 计算表达式，全部变量存在，被除数等于0时结果为0，使用线程复用的操作数栈，无对象分配
+     * @param row 变量值，下标为槽位
+     */
+    public double calc(double[] row) {
+        return calcUnboxed(row, null, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 计算表达式，使用线程复用的操作数栈及回调适配，无对象分配
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(double[] row, long[] presentMask,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = site.timer();
+        long start = timer == null ? 0 : System.nanoTime();
+        double value = program.calc(row, presentMask, nonVarValueProvider, dividendZeroCalc);
+        if (timer != null) {
+            timer.evaluated(System.nanoTime() - start);
+        }
+        return value;
+    }
+
+    /**
+     * 原始类型回调计算，变量不存在、被除数为0时不装箱，使用线程复用的操作数栈，无对象分配
+     * 与 {@link #calc(double[], long[], Function, BiFunction)} 不同名，避免 lambda 参数重载二义
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calcUnboxed(double[] row, long[] presentMask,
+                              ToDoubleFunction<String> nonVarValueProvider,
+                              DoubleBinaryOperator dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = site.timer();
+        long start = timer == null ? 0 : System.nanoTime();
+        double value = program.calcUnboxed(row, presentMask, nonVarValueProvider, dividendZeroCalc);
+        if (timer != null) {
+            timer.evaluated(System.nanoTime() - start);
+        }
+        return value;
+    }
+
+    /**
+     * 同 {@link #calcUnboxed(double[], long[], ToDoubleFunction, DoubleBinaryOperator)}，操作数栈由调用方传入
+     * @param stack 操作数栈，长度不小于 {@link #getMaxStackDepth()}
+     */
+    public double calcUnboxed(double[] row, long[] presentMask,
+                              ToDoubleFunction<String> nonVarValueProvider,
+                              DoubleBinaryOperator dividendZeroCalc,
+                              double[] stack) {
+        ExpressionMetrics.Timer timer = site.timer();
+        long start = timer == null ? 0 : System.nanoTime();
+        double value = program.calcUnboxed(row, presentMask, nonVarValueProvider, dividendZeroCalc, stack);
+        if (timer != null) {
+            timer.evaluated(System.nanoTime() - start);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.util.Objs;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 编译后的表达式
+ * 由 {@link ExpressionCalc.Exp} 生成字节码类，计算时无节点类型判断、无递归，整个公式可被 JIT 内联
+ * 变量按在表达式中首次出现的顺序编号，计算入参 double[] 下标即变量编号，见 {@link #getVarNames()}
+ * 计算结果、被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致
+ */
+public abstract class CompiledExpression {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 变量名，下标为变量编号 */
+    private final String[] varNames;
+
+    /** 计算指标计时缓存，编译后设置表达式字符串 */
+    volatile ExpressionMetrics.Site site = ExpressionMetrics.site(null);
+
+    protected CompiledExpression(String[] varNames) {
+        this.varNames = varNames;
+    }
+
+    /**
+     * 编译表达式
+     * 函数 min、max、abs 生成字节码；含 round、if、coalesce 或自定义函数，以及超出单方法字节码限制时
+     * 返回按后缀指令解释执行的实现(同 {@link StackExpression})，结果一致但没有编译的性能优势
+     * @param exp 解析后的表达式
+     * @return 编译后的表达式
+     */
+    public static CompiledExpression compile(ExpressionCalc.Exp exp) {
+        return ExpressionCompiler.compile(exp);
+    }
+
+    /**
+     * 计算表达式
+     * @param vars 变量值，下标为变量编号
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    protected abstract double calcVars(double[] vars, BiFunction<Double, Double, Double> dividendZeroCalc);
+
+    /**
+     * 除法，被除数等于0时使用 dividendZeroCalc 计算
+     */
+    protected static double div(double left, double right, BiFunction<Double, Double, Double> dividendZeroCalc) {
+        if (right == 0) {
+            ExpressionMetrics.recordDividedByZero();
+            return Objs.ifNull(dividendZeroCalc.apply(left, right), 0d);
+        }
+        return left / right;
+    }
+
+    /**
+     * 比较、逻辑运算，结果1或0，见 {@link ExpressionCalc#isPredicate(char)}
+     */
+    protected static double predicate(double left, double right, char opt) {
+        return ExpressionCalc.predicate(opt, left, right);
+    }
+
+    /**
+     * 传入变量值计算表达式，被除数等于0时结果为0
+     * @param vars 变量值，下标为变量编号
+     */
+    public double calc(double[] vars) {
+        return calc(vars, DIVIDEND_ZERO);
+    }
+
+    public double calc(double[] vars, BiFunction<Double, Double, Double> dividendZeroCalc) {
+        if (vars.length < varNames.length) {
+            throw new IllegalArgumentException(String.format("表达式变量个数为%d，传入%d个", varNames.length, vars.length));
+        }
+        ExpressionMetrics.Timer timer = site.timer();
+        if (timer == null) {
+            return calcVars(vars, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = calcVars(vars, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    public double calc(Map<String, Double> variableMap) {
+        return calc(variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public double calc(Map<String, Double> variableMap, Function<String, Double> nonVarValueProvider) {
+        return calc(variableMap, nonVarValueProvider, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 传入变量计算表达式，每个变量只取一次值
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = site.timer();
+        if (timer == null) {
+            return calcMap(variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = calcMap(variableMap, nonVarValueProvider, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * 按变量 Map 计算，不计指标
+     */
+    double calcMap(Map<String, Double> variableMap,
+                   Function<String, Double> nonVarValueProvider,
+                   BiFunction<Double, Double, Double> dividendZeroCalc) {
+        double[] vars = new double[varNames.length];
+        for (int i = 0; i < varNames.length; i++) {
+            Double value = variableMap.get(varNames[i]);
+            if (value == null && !variableMap.containsKey(varNames[i])) {
+                ExpressionMetrics.recordMissingVariable(varNames[i]);
+                value = nonVarValueProvider.apply(varNames[i]);
+            }
+            vars[i] = Objs.ifNull(value, 0d);
+        }
+        return calcVars(vars, dividendZeroCalc);
+    }
+
+    /**
+     * 表达式变量名，下标为变量编号
+     */
+    public String[] getVarNames() {
+        return varNames.clone();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{varNames=" + Arrays.toString(varNames) + '}';
+    }
+
+}
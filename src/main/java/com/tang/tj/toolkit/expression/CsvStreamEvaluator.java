@@ -0,0 +1,390 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Nums;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 分隔符文本文件流式计算
+ * 使用 FileChannel.map 按窗口映射输入文件，直接从字节解析数值(不为每个单元格创建 String)，
+ * 首行为表头，按列名绑定表达式变量，每 chunkRows 行列式计算一次全部表达式({@link BatchExpression})，
+ * 结果按行写入输出通道，首行为结果列名；占用内存只与窗口大小、chunkRows 有关，与文件大小无关
+ * 不支持引号包裹的字段；空字段值为0，表头中不存在的变量使用 nonVarValueProvider 的值(每个变量只取一次)
+ * 结果为 NaN、无穷大时写出 NaN、Infinity、-Infinity
+ * 实例不可变，可多线程共用
+ */
+public final class CsvStreamEvaluator {
+
+    /** 默认每次计算行数 */
+    public static final int DEFAULT_CHUNK_ROWS = 4 * BatchExpression.BLOCK_SIZE;
+
+    /** 默认输入文件映射窗口字节数，单行不能超过窗口 */
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 << 10;
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 结果列名 */
+    private final String[] names;
+
+    private final VarSlots slots;
+
+    private final BatchExpression[] exps;
+
+    private final byte delimiter;
+
+    /** 结果最多小数位数，同 {@link Nums#double2Str} */
+    private final int scale;
+
+    private final int chunkRows;
+
+    private final int windowSize;
+
+    private CsvStreamEvaluator(Map<String, Exp> formulas, char delimiter, int scale, int chunkRows, int windowSize) {
+        if (delimiter > 0x7F || delimiter == '\n' || delimiter == '\r') {
+            throw new IllegalArgumentException("分隔符需为换行以外的 ASCII 字符");
+        }
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("chunkRows需大于0");
+        }
+        this.names = formulas.keySet().toArray(new String[0]);
+        this.slots = VarSlots.of(formulas.values().toArray(new Exp[0]));
+        this.exps = new BatchExpression[names.length];
+        for (int i = 0; i < names.length; i++) {
+            exps[i] = BatchExpression.of(formulas.get(names[i]), slots);
+        }
+        this.delimiter = (byte) delimiter;
+        this.scale = scale;
+        this.chunkRows = chunkRows;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * 逗号分隔，结果最多6位小数
+     * @param formulas 结果列名 -> 表达式，按迭代顺序输出
+     */
+    public static CsvStreamEvaluator of(Map<String, Exp> formulas) {
+        return of(formulas, ',', 6, DEFAULT_CHUNK_ROWS);
+    }
+
+    /**
+     * @param formulas 结果列名 -> 表达式，按迭代顺序输出
+     * @param delimiter 输入、输出字段分隔符
+     * @param scale 结果最多小数位数
+     * @param chunkRows 每次计算行数
+     */
+    public static CsvStreamEvaluator of(Map<String, Exp> formulas, char delimiter, int scale, int chunkRows) {
+        return new CsvStreamEvaluator(new LinkedHashMap<>(formulas), delimiter, scale, chunkRows, DEFAULT_WINDOW_SIZE);
+    }
+
+    static CsvStreamEvaluator of(Map<String, Exp> formulas, char delimiter, int scale, int chunkRows, int windowSize) {
+        return new CsvStreamEvaluator(new LinkedHashMap<>(formulas), delimiter, scale, chunkRows, windowSize);
+    }
+
+    public long evaluate(Path input, WritableByteChannel output) throws IOException {
+        return evaluate(input, output, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 计算输入文件每一行，结果写入 output
+     * @param nonVarValueProvider 表达式变量不在表头时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @return 数据行数(不含表头)
+     */
+    public long evaluate(Path input, WritableByteChannel output,
+                         Function<String, Double> nonVarValueProvider,
+                         BiFunction<Double, Double, Double> dividendZeroCalc) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            Run run = new Run(output, nonVarValueProvider, dividendZeroCalc);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(windowSize, size - position);
+                boolean last = position + length == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = run.lines(buffer, (int) length, last);
+                if (consumed == 0 && !last) {
+                    throw new IllegalArgumentException(String.format("第%d行超过%d字节", run.lineNo + 1, windowSize));
+                }
+                position += consumed;
+            }
+            return run.finish();
+        }
+    }
+
+    /**
+     * 一次计算过程的状态
+     */
+    private final class Run {
+
+        final WritableByteChannel output;
+
+        final Function<String, Double> nonVarValueProvider;
+
+        final BiFunction<Double, Double, Double> dividendZeroCalc;
+
+        /** 一个结果值的最大字节数，输出缓冲剩余空间不足时先写出 */
+        final int maxValueLength = Nums.maxDoubleStrLength(scale);
+
+        final ByteBuffer out = ByteBuffer.allocate(Math.max(OUTPUT_BUFFER_SIZE, maxValueLength));
+
+        final BatchExpression.Scratch scratch = new BatchExpression.Scratch();
+
+        /** 输入列对应的变量槽位，-1 不是表达式变量 */
+        int[] fieldSlots;
+
+        /** 变量列，下标为槽位，表头中不存在的变量为 null */
+        double[][] columns;
+
+        /** 每个表达式变量列不存在时的变量值 */
+        BatchExpression.Missing[] missing;
+
+        /** 每个表达式当前块的计算结果 */
+        double[][] results;
+
+        /** 当前块已读行数 */
+        int chunkSize;
+
+        /** 已读行数，含表头 */
+        long lineNo;
+
+        long rows;
+
+        /** 字段字节 */
+        byte[] bytes = new byte[64];
+
+        Run(WritableByteChannel output, Function<String, Double> nonVarValueProvider,
+            BiFunction<Double, Double, Double> dividendZeroCalc) {
+            this.output = output;
+            this.nonVarValueProvider = nonVarValueProvider;
+            this.dividendZeroCalc = dividendZeroCalc;
+        }
+
+        /**
+         * 处理窗口内的完整行
+         * @param last 是否文件最后一个窗口，最后一行可无换行符
+         * @return 已处理字节数
+         */
+        int lines(ByteBuffer buffer, int length, boolean last) throws IOException {
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                if (lineEnd == length && !last) {
+                    break;
+                }
+                int end = lineEnd;
+                if (end > lineStart && buffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                lineNo++;
+                if (end > lineStart) {
+                    if (fieldSlots == null) {
+                        header(buffer, lineStart, end);
+                    } else {
+                        row(buffer, lineStart, end);
+                    }
+                }
+                lineStart = Math.min(lineEnd + 1, length);
+            }
+            return lineStart;
+        }
+
+        void header(ByteBuffer buffer, int from, int to) throws IOException {
+            List<String> fields = new ArrayList<>();
+            for (int start = from; ; ) {
+                int end = fieldEnd(buffer, start, to);
+                byte[] bytes = new byte[end - start];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = buffer.get(start + i);
+                }
+                fields.add(new String(bytes, StandardCharsets.UTF_8).trim());
+                if (end == to) {
+                    break;
+                }
+                start = end + 1;
+            }
+            fieldSlots = new int[fields.size()];
+            columns = new double[slots.size()][];
+            for (int i = 0; i < fieldSlots.length; i++) {
+                int slot = slots.slotOf(fields.get(i));
+                // 重复列名取第一列
+                fieldSlots[i] = slot >= 0 && columns[slot] == null ? slot : -1;
+                if (fieldSlots[i] >= 0) {
+                    columns[slot] = new double[chunkRows];
+                }
+            }
+            Map<String, Double> resolved = new HashMap<>();
+            missing = new BatchExpression.Missing[exps.length];
+            for (int i = 0; i < exps.length; i++) {
+                missing[i] = exps[i].missing(columns, resolved, nonVarValueProvider);
+            }
+            results = new double[exps.length][chunkRows];
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    put(delimiter);
+                }
+                write(names[i]);
+            }
+            put((byte) '\n');
+        }
+
+        void row(ByteBuffer buffer, int from, int to) throws IOException {
+            int field = 0;
+            for (int start = from; ; field++) {
+                int end = fieldEnd(buffer, start, to);
+                if (field < fieldSlots.length && fieldSlots[field] >= 0) {
+                    columns[fieldSlots[field]][chunkSize] = parse(buffer, start, end, field);
+                }
+                if (end == to) {
+                    break;
+                }
+                start = end + 1;
+            }
+            if (field + 1 < fieldSlots.length) {
+                throw new IllegalArgumentException(String.format("第%d行字段数%d小于表头字段数%d",
+                        lineNo, field + 1, fieldSlots.length));
+            }
+            if (++chunkSize == chunkRows) {
+                flushChunk();
+            }
+        }
+
+        int fieldEnd(ByteBuffer buffer, int from, int to) {
+            int end = from;
+            while (end < to && buffer.get(end) != delimiter) {
+                end++;
+            }
+            return end;
+        }
+
+        /**
+         * 从字节解析数值(见 {@link Nums#parseDouble(byte[], int, int, double)})，
+         * 不是十进制数(NaN、Infinity 等)时转 String 解析；空字段为0
+         */
+        double parse(ByteBuffer buffer, int from, int to, int field) {
+            while (from < to && buffer.get(from) == ' ') {
+                from++;
+            }
+            while (to > from && buffer.get(to - 1) == ' ') {
+                to--;
+            }
+            if (from == to) {
+                return 0d;
+            }
+            int length = to - from;
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            double value = Nums.parseDouble(bytes, 0, length, Double.NaN);
+            if (value == value) {
+                return value;
+            }
+            String text = new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("第%d行第%d列[%s]不是数值", lineNo, field + 1, text), e);
+            }
+        }
+
+        /**
+         * 计算当前块并写出结果
+         */
+        void flushChunk() throws IOException {
+            if (chunkSize == 0) {
+                return;
+            }
+            for (int i = 0; i < exps.length; i++) {
+                exps[i].calc(columns, missing[i], results[i], 0, chunkSize, dividendZeroCalc, scratch);
+            }
+            for (int row = 0; row < chunkSize; row++) {
+                for (int i = 0; i < exps.length; i++) {
+                    if (i > 0) {
+                        put(delimiter);
+                    }
+                    double value = results[i][row];
+                    if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        write(Double.toString(value));
+                        continue;
+                    }
+                    if (out.remaining() < maxValueLength) {
+                        drain();
+                    }
+                    Nums.double2Str(value, scale, out);
+                }
+                put((byte) '\n');
+            }
+            rows += chunkSize;
+            chunkSize = 0;
+        }
+
+        long finish() throws IOException {
+            if (fieldSlots == null) {
+                throw new IllegalArgumentException("输入文件没有表头");
+            }
+            flushChunk();
+            drain();
+            return rows;
+        }
+
+        void write(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; ) {
+                if (!out.hasRemaining()) {
+                    drain();
+                }
+                int len = Math.min(out.remaining(), bytes.length - i);
+                out.put(bytes, i, len);
+                i += len;
+            }
+        }
+
+        void put(byte b) throws IOException {
+            if (!out.hasRemaining()) {
+                drain();
+            }
+            out.put(b);
+        }
+
+        void drain() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                output.write(out);
+            }
+            out.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CsvStreamEvaluator" + Arrays.toString(names);
+    }
+
+}
@@ -0,0 +1,503 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Nums;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 定点小数表达式
+ * 按固定小数位数计算，值为乘以 10^scale 后的 long(如 scale 为4时 12.3456 存为 123456)，加减精确，
+ * 乘除结果按舍入方式保留 scale 位小数，与每步使用 BigDecimal 计算(乘法 setScale、除法 divide(divisor, scale, roundingMode))结果一致
+ * 常量按表达式原文转为小数(0.1、-50% 无二进制误差)，变量值按 {@link BigDecimal#valueOf(double)} 转为小数后舍入到 scale 位
+ * 运算溢出 long 时从溢出的指令起改用 BigDecimal 继续计算，结果不变
+ * 比较按小数精确比较，比较、逻辑运算结果为 1 或 0
+ * 函数支持 min、max、abs 及 if(只计算选中的分支)，其他函数抛出 IllegalArgumentException
+ * 被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致，dividendZeroCalc 的参数、结果按 double 转换
+ * 构建后不可变，可多线程共用
+ */
+public final class DecimalExpression {
+
+    /** 最大小数位数 */
+    public static final int MAX_SCALE = 18;
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 溢出标记，计算中不使用该值 */
+    private static final long OVERFLOW = Long.MIN_VALUE;
+
+    /** 不超过15位有效数字的 double 可直接转换 */
+    private static final double MAX_EXACT = 1e15;
+
+    private final VarSlots slots;
+
+    /** 指令，同 {@link StackExpression} */
+    private final byte[] codes;
+
+    /** 常量指令为常量值乘以 10^scale，变量指令为槽位，跳转指令为跳转目标，函数调用为 函数类别 << 8 | 参数个数 */
+    private final long[] operands;
+
+    /** 常量指令对应常量，其他指令为 null */
+    private final BigDecimal[] constants;
+
+    /** 变量指令对应变量名，其他指令为 null */
+    private final String[] varNames;
+
+    private final int maxStackDepth;
+
+    private final int scale;
+
+    private final RoundingMode roundingMode;
+
+    /** 10^scale */
+    private final long unit;
+
+    private DecimalExpression(Exp exp, int scale, RoundingMode roundingMode) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("scale需在0到" + MAX_SCALE + "之间");
+        }
+        this.scale = scale;
+        this.roundingMode = roundingMode;
+        this.unit = (long) Math.pow(10, scale);
+        this.slots = VarSlots.of(exp);
+        int size = 0;
+        for (Exp node : ExpressionCompiler.postOrder(exp)) {
+            // if 编译为两条跳转指令
+            size += node.type == 5 && node.function.kind == ExpressionFunctions.IF ? 2 : 1;
+        }
+        this.codes = new byte[size];
+        this.operands = new long[size];
+        this.constants = new BigDecimal[size];
+        this.varNames = new String[size];
+        int pc = 0, depth = 0, maxDepth = 0;
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(exp));
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            Exp node = frame.node;
+            if (node.type == 1) {
+                codes[pc] = StackExpression.CONST;
+                constants[pc] = constant(node).setScale(scale, roundingMode);
+                operands[pc] = unscaled(constants[pc]);
+                pc++;
+                depth++;
+            } else if (node.type == 3) {
+                codes[pc] = StackExpression.VAR;
+                operands[pc] = slots.slotOf(node.varName);
+                varNames[pc++] = node.varName;
+                depth++;
+            } else if (node.type == 2) {
+                if (frame.next < 2) {
+                    frames.push(new Frame(node.values[frame.next++]));
+                    continue;
+                }
+                codes[pc++] = StackExpression.opCode(node.opt);
+                depth--;
+            } else if (node.type == 5) {
+                int kind = node.function.kind, next = frame.next++;
+                if (kind == ExpressionFunctions.IF) {
+                    // cond JUMP_IF_ZERO(else) a JUMP(end) else: b end:
+                    if (next == 1) {
+                        frame.jump = pc;
+                        codes[pc++] = StackExpression.JUMP_IF_ZERO;
+                        depth--;
+                    } else if (next == 2) {
+                        operands[frame.jump] = pc + 1;
+                        frame.jump = pc;
+                        codes[pc++] = StackExpression.JUMP;
+                        depth--;
+                    } else if (next == 3) {
+                        operands[frame.jump] = pc;
+                        frames.pop();
+                        continue;
+                    }
+                    frames.push(new Frame(node.values[next]));
+                    continue;
+                }
+                if (kind != ExpressionFunctions.MIN && kind != ExpressionFunctions.MAX && kind != ExpressionFunctions.ABS) {
+                    throw new IllegalArgumentException("定点小数计算不支持函数:" + node.function);
+                }
+                if (next < node.values.length) {
+                    frames.push(new Frame(node.values[next]));
+                    continue;
+                }
+                codes[pc] = StackExpression.CALL;
+                operands[pc++] = (long) kind << 8 | node.values.length;
+                depth -= node.values.length - 1;
+            } else {
+                throw new IllegalArgumentException("未知的表达式类型:" + node.type);
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            frames.pop();
+        }
+        this.maxStackDepth = maxDepth;
+    }
+
+    /**
+     * @param scale 小数位数，0 ~ {@link #MAX_SCALE}
+     * @param roundingMode 乘除、常量及变量值超过 scale 位小数时的舍入方式，{@link RoundingMode#UNNECESSARY} 时需舍入则抛出 ArithmeticException
+     */
+    public static DecimalExpression compile(Exp exp, int scale, RoundingMode roundingMode) {
+        return new DecimalExpression(exp, scale, roundingMode);
+    }
+
+    /**
+     * 常量原文为数值或百分比时按原文转换，否则(如优化后折叠的常量)按 {@link BigDecimal#valueOf(double)}
+     */
+    private static BigDecimal constant(Exp node) {
+        String text = node.getSegment();
+        if (text != null && Nums.isParsable(text)) {
+            return new BigDecimal(text);
+        }
+        if (text != null && text.length() > 1 && text.charAt(text.length() - 1) == '%'
+                && Nums.isParsable(text.substring(0, text.length() - 1))) {
+            return new BigDecimal(text.substring(0, text.length() - 1)).movePointLeft(2);
+        }
+        return BigDecimal.valueOf(node.value);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public RoundingMode getRoundingMode() {
+        return roundingMode;
+    }
+
+    public VarSlots getSlots() {
+        return slots;
+    }
+
+    public BigDecimal calc(Map<String, Double> variableMap) {
+        return calc(variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public BigDecimal calc(Map<String, Double> variableMap, Function<String, Double> nonVarValueProvider) {
+        return calc(variableMap, nonVarValueProvider, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 计算表达式
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @return 结果，小数位数为 scale
+     */
+    public BigDecimal calc(Map<String, Double> variableMap,
+                          Function<String, Double> nonVarValueProvider,
+                          BiFunction<Double, Double, Double> dividendZeroCalc) {
+        double[] row = slots.newRow();
+        long[] presentMask = slots.newPresentMask();
+        slots.fill(variableMap, row, presentMask);
+
+        long[] stack = new long[maxStackDepth];
+        int sp = -1;
+        for (int pc = 0; pc < codes.length; pc++) {
+            long value;
+            switch (codes[pc]) {
+                case StackExpression.CONST:
+                    stack[++sp] = operands[pc];
+                    continue;
+                case StackExpression.VAR:
+                    double var = variable(pc, row, presentMask, nonVarValueProvider);
+                    value = unscaled(var);
+                    if (value == OVERFLOW) {
+                        return calcDecimal(pc + 1, stack, sp, decimal(var), row, presentMask,
+                                nonVarValueProvider, dividendZeroCalc);
+                    }
+                    stack[++sp] = value;
+                    continue;
+                case StackExpression.ADD:
+                    value = add(stack[sp - 1], stack[sp]);
+                    break;
+                case StackExpression.SUB:
+                    value = add(stack[sp - 1], -stack[sp]);
+                    break;
+                case StackExpression.MUL:
+                    value = multiply(stack[sp - 1], stack[sp]);
+                    break;
+                case StackExpression.DIV:
+                    if (stack[sp] == 0) {
+                        ExpressionMetrics.recordDividedByZero();
+                        double result = dividendZero(dividendZeroCalc, (double) stack[sp - 1] / unit);
+                        value = unscaled(result);
+                        if (value == OVERFLOW) {
+                            return calcDecimal(pc + 1, stack, sp - 2, decimal(result), row, presentMask,
+                                    nonVarValueProvider, dividendZeroCalc);
+                        }
+                    } else {
+                        value = divide(stack[sp - 1], stack[sp]);
+                    }
+                    break;
+                case StackExpression.JUMP_IF_ZERO:
+                    if (stack[sp--] == 0) {
+                        pc = (int) operands[pc] - 1;
+                    }
+                    continue;
+                case StackExpression.JUMP:
+                    pc = (int) operands[pc] - 1;
+                    continue;
+                case StackExpression.CALL:
+                    // 值为 scale 位定点小数，比较 long 即比较小数；OVERFLOW 不在栈中，取反不溢出
+                    int argc = (int) operands[pc] & 0xFF;
+                    sp -= argc - 1;
+                    value = stack[sp];
+                    for (int i = 1; i < argc; i++) {
+                        value = (operands[pc] >>> 8) == ExpressionFunctions.MIN
+                                ? Math.min(value, stack[sp + i]) : Math.max(value, stack[sp + i]);
+                    }
+                    stack[sp] = (operands[pc] >>> 8) == ExpressionFunctions.ABS ? Math.abs(value) : value;
+                    continue;
+                default:
+                    value = predicate(codes[pc], Long.compare(stack[sp - 1], stack[sp]),
+                            stack[sp - 1] != 0, stack[sp] != 0) ? unit : 0;
+            }
+            if (value == OVERFLOW) {
+                // 操作数仍在栈中，本条指令起按 BigDecimal 计算
+                return calcDecimal(pc, stack, sp, null, row, presentMask, nonVarValueProvider, dividendZeroCalc);
+            }
+            stack[--sp] = value;
+        }
+        return BigDecimal.valueOf(stack[0], scale);
+    }
+
+    /**
+     * 从第 pc 条指令起按 BigDecimal 计算
+     * @param unscaledStack 之前的计算结果
+     * @param sp unscaledStack 栈顶
+     * @param top 之后入栈的值，没有为 null
+     */
+    private BigDecimal calcDecimal(int pc, long[] unscaledStack, int sp, BigDecimal top,
+                                   double[] row, long[] presentMask,
+                                   Function<String, Double> nonVarValueProvider,
+                                   BiFunction<Double, Double, Double> dividendZeroCalc) {
+        BigDecimal[] stack = new BigDecimal[maxStackDepth];
+        for (int i = 0; i <= sp; i++) {
+            stack[i] = BigDecimal.valueOf(unscaledStack[i], scale);
+        }
+        if (top != null) {
+            stack[++sp] = top;
+        }
+        for (; pc < codes.length; pc++) {
+            switch (codes[pc]) {
+                case StackExpression.CONST:
+                    stack[++sp] = constants[pc];
+                    break;
+                case StackExpression.VAR:
+                    stack[++sp] = decimal(variable(pc, row, presentMask, nonVarValueProvider));
+                    break;
+                case StackExpression.ADD:
+                    sp--;
+                    stack[sp] = stack[sp].add(stack[sp + 1]);
+                    break;
+                case StackExpression.SUB:
+                    sp--;
+                    stack[sp] = stack[sp].subtract(stack[sp + 1]);
+                    break;
+                case StackExpression.MUL:
+                    sp--;
+                    stack[sp] = stack[sp].multiply(stack[sp + 1]).setScale(scale, roundingMode);
+                    break;
+                case StackExpression.DIV:
+                    sp--;
+                    if (stack[sp + 1].signum() == 0) {
+                        ExpressionMetrics.recordDividedByZero();
+                        stack[sp] = decimal(dividendZero(dividendZeroCalc, stack[sp].doubleValue()));
+                    } else {
+                        stack[sp] = stack[sp].divide(stack[sp + 1], scale, roundingMode);
+                    }
+                    break;
+                case StackExpression.JUMP_IF_ZERO:
+                    if (stack[sp--].signum() == 0) {
+                        pc = (int) operands[pc] - 1;
+                    }
+                    break;
+                case StackExpression.JUMP:
+                    pc = (int) operands[pc] - 1;
+                    break;
+                case StackExpression.CALL:
+                    int argc = (int) operands[pc] & 0xFF;
+                    sp -= argc - 1;
+                    BigDecimal value = stack[sp];
+                    for (int i = 1; i < argc; i++) {
+                        int compare = value.compareTo(stack[sp + i]);
+                        if ((operands[pc] >>> 8) == ExpressionFunctions.MIN ? compare > 0 : compare < 0) {
+                            value = stack[sp + i];
+                        }
+                    }
+                    stack[sp] = (operands[pc] >>> 8) == ExpressionFunctions.ABS ? value.abs() : value;
+                    break;
+                default:
+                    sp--;
+                    boolean result = predicate(codes[pc], stack[sp].compareTo(stack[sp + 1]),
+                            stack[sp].signum() != 0, stack[sp + 1].signum() != 0);
+                    stack[sp] = BigDecimal.valueOf(result ? unit : 0, scale);
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * 比较、逻辑运算，按小数精确比较
+     * @param compare 左值与右值的比较结果
+     * @param left 左值是否非0
+     * @param right 右值是否非0
+     */
+    private static boolean predicate(byte code, int compare, boolean left, boolean right) {
+        switch (code) {
+            case StackExpression.GT: return compare > 0;
+            case StackExpression.GE: return compare >= 0;
+            case StackExpression.LT: return compare < 0;
+            case StackExpression.LE: return compare <= 0;
+            case StackExpression.EQ: return compare == 0;
+            case StackExpression.NE: return compare != 0;
+            case StackExpression.AND: return left && right;
+            default: return left || right;
+        }
+    }
+
+    private double variable(int pc, double[] row, long[] presentMask, Function<String, Double> nonVarValueProvider) {
+        int slot = (int) operands[pc];
+        if (!VarSlots.isPresent(presentMask, slot)) {
+            ExpressionMetrics.recordMissingVariable(varNames[pc]);
+            return Objs.ifNull(nonVarValueProvider.apply(varNames[pc]), 0d);
+        }
+        return row[slot];
+    }
+
+    private static double dividendZero(BiFunction<Double, Double, Double> dividendZeroCalc, double left) {
+        return Objs.ifNull(dividendZeroCalc.apply(left, 0d), 0d);
+    }
+
+    private BigDecimal decimal(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("定点小数计算不支持的值:" + value);
+        }
+        return BigDecimal.valueOf(value).setScale(scale, roundingMode);
+    }
+
+    /**
+     * double 按 {@link BigDecimal#valueOf(double)} 转为 scale 位小数的 long，超出 long 返回 OVERFLOW
+     * 乘以 10^scale 后不超过15位有效数字且转回 double 不变时即为该十进制数，无需 BigDecimal
+     */
+    private long unscaled(double value) {
+        double scaled = value * unit;
+        if (Math.abs(scaled) < MAX_EXACT) {
+            long nearest = Math.round(scaled);
+            if (nearest / (double) unit == value) {
+                return nearest;
+            }
+        }
+        return unscaled(decimal(value));
+    }
+
+    private static long unscaled(BigDecimal decimal) {
+        if (decimal.unscaledValue().bitLength() > 63) {
+            return OVERFLOW;
+        }
+        return decimal.unscaledValue().longValue();
+    }
+
+    private static long add(long left, long right) {
+        long sum = left + right;
+        // 同号相加结果变号为溢出
+        if (((left ^ sum) & (right ^ sum)) < 0 || sum == OVERFLOW) {
+            return OVERFLOW;
+        }
+        return sum;
+    }
+
+    private long multiply(long left, long right) {
+        long product = left * right;
+        if (Math.multiplyHigh(left, right) != (product >> 63) || product == OVERFLOW) {
+            return OVERFLOW;
+        }
+        return divide(product, unit, roundingMode);
+    }
+
+    private long divide(long left, long right) {
+        long dividend = left * unit;
+        if (Math.multiplyHigh(left, unit) != (dividend >> 63) || dividend == OVERFLOW) {
+            return OVERFLOW;
+        }
+        return divide(dividend, right, roundingMode);
+    }
+
+    /**
+     * dividend / divisor 按舍入方式取整，同 BigDecimal 舍入规则
+     */
+    static long divide(long dividend, long divisor, RoundingMode roundingMode) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+        // 精确商的符号
+        long sign = (dividend ^ divisor) < 0 ? -1 : 1;
+        switch (roundingMode) {
+            case DOWN:
+                return quotient;
+            case UP:
+                return quotient + sign;
+            case CEILING:
+                return sign > 0 ? quotient + 1 : quotient;
+            case FLOOR:
+                return sign < 0 ? quotient - 1 : quotient;
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary");
+            default:
+                long rest = Math.abs(remainder);
+                int half = Long.compare(rest, Math.abs(divisor) - rest);
+                if (half > 0 || (half == 0 && (roundingMode == RoundingMode.HALF_UP
+                        || (roundingMode == RoundingMode.HALF_EVEN && (quotient & 1) != 0)))) {
+                    return quotient + sign;
+                }
+                return quotient;
+        }
+    }
+
+    /**
+     * 指令条数
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "DecimalExpression{" +
+                "size=" + codes.length +
+                ", scale=" + scale +
+                ", roundingMode=" + roundingMode +
+                '}';
+    }
+
+    /**
+     * 展开中的节点
+     */
+    private static final class Frame {
+
+        final Exp node;
+
+        /** 下一个子节点(参数)下标 */
+        int next;
+
+        /** if 待回填的跳转指令下标 */
+        int jump;
+
+        Frame(Exp node) {
+            this.node = node;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 不可变表达式
+ * 解析后只保留原始表达式和后缀指令(见 {@link StackExpression})，不持有可修改的 Exp 树，全部字段 final，
+ * 可安全发布给多个线程并发计算，无需加锁或复制
+ * 解析不修改调用方的任何数据(不同于 {@link ExpressionCalc#parseExp(String, Map)} 会写入映射后的变量)，
+ * 忽略大小写解析时变量名即调用方变量名，计算时直接使用调用方变量 Map
+ * 计算结果、被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致，无层数限制
+ */
+public final class Expression {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 原始表达式 */
+    private final String source;
+
+    private final StackExpression program;
+
+    private final ExpressionMetrics.Site site;
+
+    /** 变量名，按首次出现顺序 */
+    private final Set<String> varNames;
+
+    private Expression(String source, StackExpression program) {
+        this.source = source;
+        this.program = program;
+        this.site = ExpressionMetrics.site(source);
+        VarSlots slots = program.getSlots();
+        String[] names = new String[slots.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = slots.nameOf(i);
+        }
+        this.varNames = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(names)));
+    }
+
+    /**
+     * 同 {@link ExpressionCalc#parseExp(String)} 解析
+     */
+    public static Expression parse(String exp) {
+        return new Expression(exp, StackExpression.compile(ExpressionCalc.parseExp(exp)));
+    }
+
+    /**
+     * 忽略变量名大小写解析，变量名可包含特殊字符，同 {@link VariableDictionary#parseExp(String)}
+     * @param varNames 变量名，只读取不修改
+     */
+    public static Expression parse(String exp, Collection<String> varNames) {
+        return parse(exp, VariableDictionary.of(varNames));
+    }
+
+    /**
+     * 使用变量名字典解析，同一批变量解析多个表达式时共用字典
+     */
+    public static Expression parse(String exp, VariableDictionary dictionary) {
+        return new Expression(exp, StackExpression.compile(dictionary.parseExp(exp)));
+    }
+
+    /**
+     * 由已解析的表达式创建，之后修改 exp 不影响结果
+     */
+    public static Expression of(Exp exp) {
+        return new Expression(exp.getSegment(), StackExpression.compile(exp));
+    }
+
+    /**
+     * 原始表达式
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 变量名，按首次出现顺序，不可修改
+     */
+    public Set<String> getVarNames() {
+        return varNames;
+    }
+
+    public double calc(Map<String, Double> variableMap) {
+        return calc(variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public double calc(Map<String, Double> variableMap, Function<String, Double> nonVarValueProvider) {
+        return calc(variableMap, nonVarValueProvider, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 计算表达式
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = site.timer();
+        if (timer == null) {
+            return program.calc(variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = program.calc(variableMap, nonVarValueProvider, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * 后缀指令，可按变量槽位计算
+     */
+    public StackExpression getProgram() {
+        return program;
+    }
+
+    /**
+     * 转为 Exp 树，每次返回新对象，修改不影响本表达式
+     */
+    public Exp toExp() {
+        Exp exp = program.toExp();
+        exp.setSegment(source);
+        return exp;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+}
@@ -0,0 +1,333 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Collects;
+import com.tang.tj.toolkit.util.Strings;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * 解析后表达式的线程安全缓存
+ * key 为规范化后的表达式字符串(忽略大小写解析时再加上变量名集合)
+ * 超过容量时按 CLOCK(近似 LRU) 淘汰: 命中只设置访问标记无锁，淘汰时跳过并清除有访问标记的条目
+ * 同一表达式并发未命中时只解析一次，其他线程等待解析结果，解析失败不缓存
+ * 每次返回缓存表达式的副本，调用方修改表达式不影响缓存及其他调用方
+ */
+public class ExpressionCache {
+
+    /** 最大权重，未指定权重函数时为最大条目数 */
+    private final long maximumWeight;
+
+    /** 条目权重 */
+    private final ToIntFunction<String> weigher;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /** 淘汰队列，按加入顺序，guarded by this */
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+
+    /** 当前总权重，guarded by this */
+    private long totalWeight;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maximumSize 最大条目数
+     */
+    public ExpressionCache(int maximumSize) {
+        this(maximumSize, formula -> 1);
+    }
+
+    /**
+     * @param maximumWeight 最大总权重
+     * @param weigher 表达式字符串的权重，如字符串长度
+     */
+    public ExpressionCache(long maximumWeight, ToIntFunction<String> weigher) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("maximumWeight需大于0");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = Objects.requireNonNull(weigher);
+    }
+
+    /**
+     * 同 {@link ExpressionCalc#parseExp(String)}
+     */
+    public Exp get(String exp) {
+        return get(new Key(normalize(exp), null), null);
+    }
+
+    /**
+     * 同 {@link ExpressionCalc#parseExp(String, Map)}，命中缓存时同样将变量映射后的值写入 variableMap
+     * 缓存 key 含 variableMap 的全部变量名，重复使用同一 variableMap 时已写入的 v1 ~ vN 计入变量名
+     */
+    public Exp get(String exp, Map<String, Double> variableMap) {
+        if (Collects.isEmpty(variableMap)) {
+            return get(exp);
+        }
+        Set<String> names = Collections.unmodifiableSet(new HashSet<>(variableMap.keySet()));
+        Exp expression = get(new Key(normalize(exp, names), names), variableMap);
+        // 与 parseExp(String, Map) 一致，写入映射后的变量名
+        ExpressionCalc.putMappedValues(expression.varNameMapping, variableMap);
+        return expression;
+    }
+
+    /**
+     * 同 {@link ExpressionCalc#parseExp(String)}: 去掉首尾空白，中文括号替换为英文括号
+     */
+    private static String normalize(String exp) {
+        return exp.trim().replace('（', '(').replace('）', ')');
+    }
+
+    /**
+     * 同 {@link ExpressionCalc#parseExp(String, Map)}: 转大写；变量名不以空白开头、结尾时去掉首尾空白，
+     * 变量名不含括号时中文括号替换为英文括号(变量名按替换前的表达式匹配)，规范化前后解析结果相同
+     */
+    private static String normalize(String exp, Set<String> names) {
+        boolean trim = true;
+        boolean fold = true;
+        for (String name : names) {
+            if (Strings.isEmpty(name)) {
+                continue;
+            }
+            trim &= !Character.isWhitespace(name.charAt(0)) && !Character.isWhitespace(name.charAt(name.length() - 1));
+            fold &= name.indexOf('(') < 0 && name.indexOf(')') < 0 && name.indexOf('（') < 0 && name.indexOf('）') < 0;
+        }
+        String formula = exp.toUpperCase(Locale.ENGLISH);
+        if (trim) {
+            formula = formula.trim();
+        }
+        return fold ? formula.replace('（', '(').replace('）', ')') : formula;
+    }
+
+    private Exp get(Key key, Map<String, Double> variableMap) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            // 权重有误时不加入 entries
+            Entry created = new Entry(key, variableMap, weigh(key.formula));
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                missCount.increment();
+                ExpressionMetrics.recordCacheAccessed(false);
+                return load(created);
+            }
+        }
+        hitCount.increment();
+        ExpressionMetrics.recordCacheAccessed(true);
+        if (!entry.accessed) {
+            entry.accessed = true;
+        }
+        return entry.await().copy();
+    }
+
+    private int weigh(String formula) {
+        int weight = weigher.applyAsInt(formula);
+        if (weight < 0) {
+            throw new IllegalStateException("表达式权重不能小于0");
+        }
+        return weight;
+    }
+
+    private Exp load(Entry entry) {
+        entry.task.run();
+        Exp expression;
+        try {
+            expression = entry.await();
+        } catch (RuntimeException | Error e) {
+            entries.remove(entry.key, entry);
+            throw e;
+        }
+        synchronized (this) {
+            totalWeight += entry.weight;
+            clock.addLast(entry);
+            evict();
+        }
+        return expression.copy();
+    }
+
+    /**
+     * 超过最大权重时淘汰，有访问标记的条目清除标记后放回队尾
+     */
+    private void evict() {
+        while (totalWeight > maximumWeight && !clock.isEmpty()) {
+            Entry entry = clock.pollFirst();
+            if (entry.accessed) {
+                entry.accessed = false;
+                clock.addLast(entry);
+                continue;
+            }
+            totalWeight -= entry.weight;
+            if (entries.remove(entry.key, entry)) {
+                evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存，如表达式配置重新加载
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            for (Entry entry : clock) {
+                entries.remove(entry.key, entry);
+            }
+            clock.clear();
+            totalWeight = 0;
+        }
+    }
+
+    /**
+     * 已解析完成的条目数
+     */
+    public synchronized int size() {
+        return clock.size();
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 命中率，无请求时为1
+     */
+    public double hitRate() {
+        long hit = hitCount.sum();
+        long total = hit + missCount.sum();
+        return total == 0 ? 1d : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache{" +
+                "size=" + size() +
+                ", totalWeight=" + getTotalWeight() +
+                ", hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                ", evictionCount=" + getEvictionCount() +
+                '}';
+    }
+
+    /**
+     * 缓存 key: 表达式字符串 + 变量名集合
+     */
+    private static final class Key {
+
+        final String formula;
+
+        /** 忽略大小写解析时的变量名集合，否则为 null */
+        final Set<String> names;
+
+        final int hash;
+
+        Key(String formula, Set<String> names) {
+            this.formula = formula;
+            this.names = names;
+            this.hash = formula.hashCode() * 31 + (names == null ? 0 : names.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && formula.equals(key.formula) && Objects.equals(names, key.names);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static final class Entry {
+
+        final Key key;
+
+        /** 解析任务，由首个未命中的线程执行 */
+        final FutureTask<Exp> task;
+
+        /** 访问标记 */
+        volatile boolean accessed;
+
+        final int weight;
+
+        Entry(Key key, Map<String, Double> variableMap, int weight) {
+            this.key = key;
+            this.weight = weight;
+            this.task = new FutureTask<>(() -> key.names == null
+                    ? ExpressionCalc.parseExp(key.formula)
+                    : ExpressionCalc.parseExp(key.formula, snapshot(key.names, variableMap)));
+        }
+
+        /**
+         * 按变量名复制变量，解析时不修改调用方 variableMap
+         */
+        private static Map<String, Double> snapshot(Set<String> names, Map<String, Double> variableMap) {
+            Map<String, Double> snapshot = new HashMap<>(Collects.mapCapacity(names.size()));
+            for (String name : names) {
+                snapshot.put(name, variableMap.get(name));
+            }
+            return snapshot;
+        }
+
+        Exp await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return task.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+}
@@ -5,29 +5,37 @@ import com.tang.tj.toolkit.util.Nums;
 import com.tang.tj.toolkit.util.Objs;
 import com.tang.tj.toolkit.util.Strings;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 指标表达式计算工具类
- * 注: 表达式变量不可包含乘除加减小括号符号 () * + - /, 如包含则使用 {@link ExpressionCalc#parseExp(String, Map)} 解析表达式
+ * 支持四则运算 + - * /，比较运算 > >= < <= == != 及逻辑运算 and or not(不区分大小写)，优先级从高到低:
+ * 乘除、加减、比较、not、and、or；比较、逻辑运算结果为 1(真) 或 0(假)，非0为真
+ * 支持函数调用 min(a, b)、if(cond, a, b) 等，见 {@link ExpressionFunctions}
+ * 计算时变量值、变量不存在及被除数为0的回调可使用原始类型接口(ToDoubleFunction、DoubleBinaryOperator)，不装箱 Double
+ * 注: 表达式变量不可包含运算符号及小括号 () * + - / > < = !，不可为单独的 and or not，如包含则使用 {@link ExpressionCalc#parseExp(String, Map)} 解析表达式
  */
 public class ExpressionCalc {
 
-    private static final int MAX_DEEP_LEVEL = 1000; 
-    
-    // 特殊运算符号
-     private static final Set<Character> TOKENS = new HashSet<>(Arrays.asList('(', ')', '*', '/', '+', '-'));
-//    public static final Set<Character> TOKENS = ImmutableSet.of('(', ')', '*', '/', '+', '-');
+    static final int MAX_DEEP_LEVEL = 1000;
 
-    // 判断字符串是否包含加减乘除括号
-    private static final Pattern EXP_PATTERN = Pattern.compile("^.*?[()*/+\\-].*$");
+    /** parseExp(String, Map) 按变量名集合缓存的字典个数，超过时淘汰最久未使用的 */
+    private static final int MAPPED_DICTIONARY_CACHE_SIZE = 16;
 
-    /** 百分比值字符串 */
-    private static final Pattern PERCENT_PATTERN = Pattern.compile("^(-?\\d+(\\.\\d+)?)%$");
+    /** guarded by itself */
+    private static final Map<Set<String>, MappedDictionary> MAPPED_DICTIONARIES =
+            new LinkedHashMap<Set<String>, MappedDictionary>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Set<String>, MappedDictionary> eldest) {
+                    return size() > MAPPED_DICTIONARY_CACHE_SIZE;
+                }
+            };
 
     /**
      * 传入变量计算解析后的表达式
@@ -36,30 +44,85 @@ public class ExpressionCalc {
      * @return 表达式计算结果
      */
     public static double calcExp(Exp exp, Map<String, Double> variableMap) {
-        return calcExp(0, exp, variableMap, 
+        return calcExp(exp, variableMap, 
                 varName -> {throw new IllegalArgumentException("表达式变量["+varName+"]不存在");}, 
                 (left,right) -> 0d
         );
     }
 
     public static double calcExp(Exp exp, Map<String, Double> variableMap, Function<String, Double> nonVarValueProvider) {
-        return calcExp(0, exp, variableMap, nonVarValueProvider, (left,right) -> 0d);
+        return calcExp(exp, variableMap, nonVarValueProvider, (left,right) -> 0d);
     }
 
     public static double calcExp(Exp exp, Map<String, Double> variableMap,
                                  Function<String, Double> nonVarValueProvider,
                                  BiFunction<Double, Double, Double> dividendZeroCalc) {
-        return calcExp(0, exp, variableMap, nonVarValueProvider, dividendZeroCalc);
+        return calcExp(exp, variableMap, varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d),
+                (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d), 0d);
     }
 
     /**
-     * 计算解析表达式
+     * 原始类型回调计算，取变量值、被除数为0时不装箱
+     * @param variableMap 变量值
      * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
      * @param dividendZeroCalc 被除数等于0时算法
+     * @param nullValue 变量值为 null 时的值
+     */
+    public static double calcExp(Exp exp, Map<String, Double> variableMap,
+                                 ToDoubleFunction<String> nonVarValueProvider,
+                                 DoubleBinaryOperator dividendZeroCalc, double nullValue) {
+        return calcExp(exp, (varName, optional) -> {
+            Double value = variableMap.get(varName);
+            if (value != null) {
+                return value;
+            }
+            if (variableMap.containsKey(varName)) {
+                return nullValue;
+            }
+            if (optional) {
+                return Double.NaN;
+            }
+            ExpressionMetrics.recordMissingVariable(varName);
+            return nonVarValueProvider.applyAsDouble(varName);
+        }, dividendZeroCalc);
+    }
+
+    /**
+     * 原始类型回调计算，变量值全部由 variableResolver 提供
+     * @param variableResolver 按变量名取值，变量不存在时的处理由调用方决定；coalesce 的变量参数取值为 NaN 时取下一个参数
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public static double calcExp(Exp exp, ToDoubleFunction<String> variableResolver, DoubleBinaryOperator dividendZeroCalc) {
+        return calcExp(exp, (varName, optional) -> variableResolver.applyAsDouble(varName), dividendZeroCalc);
+    }
+
+    private static double calcExp(Exp exp, VariableSource variables, DoubleBinaryOperator dividendZeroCalc) {
+        ExpressionMetrics.Timer timer = exp.metricsTimer();
+        if (timer == null) {
+            return calcExp(0, exp, variables, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = calcExp(0, exp, variables, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * 按定点小数计算，结果无二进制误差，如 -50%、0.1 + 0.2
+     * 同一表达式多次计算时使用 {@link DecimalExpression#compile(Exp, int, RoundingMode)} 编译后计算
+     * @param scale 小数位数
+     * @param roundingMode 乘除结果超过 scale 位小数时的舍入方式
+     */
+    public static BigDecimal calcDecimal(Exp exp, Map<String, Double> variableMap, int scale, RoundingMode roundingMode) {
+        return DecimalExpression.compile(exp, scale, roundingMode).calc(variableMap);
+    }
+
+    /**
+     * 计算解析表达式
+     * @param variables 变量值
+     * @param dividendZeroCalc 被除数等于0时算法
      */
-    private static double calcExp(int callTimes, Exp exp, Map<String, Double> variableMap,
-                                  Function<String, Double> nonVarValueProvider,
-                                  BiFunction<Double, Double, Double> dividendZeroCalc) {
+    private static double calcExp(int callTimes, Exp exp, VariableSource variables, DoubleBinaryOperator dividendZeroCalc) {
         if (callTimes > MAX_DEEP_LEVEL) {
             throw new IllegalStateException(String.format("表达式递归运算次数超过%d次", MAX_DEEP_LEVEL));
         }
@@ -67,36 +130,125 @@ public class ExpressionCalc {
             return exp.value;
         }
         if (exp.type == 3) {
-            if (!variableMap.containsKey(exp.varName)) {
-                return Objs.ifNull(nonVarValueProvider.apply(exp.varName), 0d);
-            }
-            // 取变量, 默认0
-            return Objs.ifNull(variableMap.get(exp.varName), 0d);
+            return variables.valueOf(exp.varName, false);
+        }
+        if (exp.type == 5) {
+            return calcFunction(callTimes, exp, variables, dividendZeroCalc);
         }
         if (exp.type != 2) {
             throw new IllegalArgumentException("未知的表达式类型:" + exp.type);
         }
         // 左边值
-        double left = calcExp(callTimes + 1, exp.values[0], variableMap, nonVarValueProvider, dividendZeroCalc);
+        double left = calcExp(callTimes + 1, exp.values[0], variables, dividendZeroCalc);
         // 右边值
-        double right = calcExp(callTimes + 1, exp.values[1], variableMap, nonVarValueProvider, dividendZeroCalc);
+        double right = calcExp(callTimes + 1, exp.values[1], variables, dividendZeroCalc);
         switch (exp.opt) {
             case '+': return left + right;
             case '-': return left - right;
             case '*': return left * right;
             case '/':
                 if (right == 0) {
-                    return dividendZeroCalc.apply(left, right);
+                    ExpressionMetrics.recordDividedByZero();
+                    return dividendZeroCalc.applyAsDouble(left, right);
                 }
                 return left / right;
             default:
-                throw new IllegalArgumentException("未知的运算符:"+ exp.opt);
+                if (!isPredicate(exp.opt)) {
+                    throw new IllegalArgumentException("未知的运算符:"+ exp.opt);
+                }
+                return predicate(exp.opt, left, right);
+        }
+    }
+
+    /**
+     * 计算函数，if、coalesce 只计算需要的参数
+     */
+    private static double calcFunction(int callTimes, Exp exp, VariableSource variables, DoubleBinaryOperator dividendZeroCalc) {
+        ExpressionFunctions.Definition function = exp.function;
+        Exp[] args = exp.values;
+        if (function.kind == ExpressionFunctions.IF) {
+            double cond = calcExp(callTimes + 1, args[0], variables, dividendZeroCalc);
+            return calcExp(callTimes + 1, cond != 0 ? args[1] : args[2], variables, dividendZeroCalc);
+        }
+        if (function.kind == ExpressionFunctions.COALESCE) {
+            int last = args.length - 1;
+            for (int i = 0; i < last; i++) {
+                // 变量不存在视为 NaN
+                double value = args[i].type == 3 ? variables.valueOf(args[i].varName, true)
+                        : calcExp(callTimes + 1, args[i], variables, dividendZeroCalc);
+                if (value == value) {
+                    return value;
+                }
+            }
+            return calcExp(callTimes + 1, args[last], variables, dividendZeroCalc);
+        }
+        double result = calcExp(callTimes + 1, args[0], variables, dividendZeroCalc);
+        if (args.length == 1) {
+            return function.apply(result);
+        }
+        for (int i = 1; i < args.length; i++) {
+            result = function.apply(result, calcExp(callTimes + 1, args[i], variables, dividendZeroCalc));
+        }
+        return result;
+    }
+
+    /**
+     * 是否支持的运算符
+     */
+    static boolean isOperator(char opt) {
+        return opt == '+' || opt == '-' || opt == '*' || opt == '/' || isPredicate(opt);
+    }
+
+    /**
+     * 是否比较、逻辑运算符: > G(>=) < L(<=) =(==) !(!=) &(and) |(or)，not x 解析为 x == 0
+     */
+    static boolean isPredicate(char opt) {
+        switch (opt) {
+            case '>': case 'G': case '<': case 'L': case '=': case '!': case '&': case '|':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 比较、逻辑运算，真为1、假为0；非0为真，NaN 与任何值比较(除 !=)为假，两侧都计算(不短路)
+     */
+    static double predicate(char opt, double left, double right) {
+        boolean result;
+        switch (opt) {
+            case '>': result = left > right; break;
+            case 'G': result = left >= right; break;
+            case '<': result = left < right; break;
+            case 'L': result = left <= right; break;
+            case '=': result = left == right; break;
+            case '!': result = left != right; break;
+            case '&': result = left != 0 && right != 0; break;
+            case '|': result = left != 0 || right != 0; break;
+            default:
+                throw new IllegalArgumentException("未知的运算符:" + opt);
         }
+        return result ? 1d : 0d;
+    }
+
+    /**
+     * 已知变量替换为常量并折叠，返回只含其余变量的表达式，如按租户缓存替换了税率、汇率后的表达式
+     * 结果用其余变量计算与原表达式用全部变量计算结果一致，被除数为0的除法保留到计算时由 dividendZeroCalc 处理
+     * 见 {@link OptimizedExpression#optimize(Exp, Map)}
+     * @param exp 解析后的表达式
+     * @param knownVars 已知变量值
+     * @return 剩余表达式，相同子表达式可能为同一对象
+     */
+    public static Exp specialize(Exp exp, Map<String, Double> knownVars) {
+        return OptimizedExpression.optimize(exp, knownVars).getExp();
     }
 
     /**
      * ！！！忽略表达式变量大小写，变量复杂时可解析度高
-     * 处理表达式中变量可能会有特殊计算符号, 先使用变量将表达式字符串变量替换，再将中文括号替换成英文括号进行解析
+     * 处理表达式中变量可能会有特殊计算符号, 变量名按最左最长匹配整体作为变量(变量名依次映射为 v1, v2...)，再将中文括号替换成英文括号进行解析
+     * 同一变量名集合的字典缓存复用(最近使用的16个)，不重复构建；变量名集合为 variableMap 的全部 key
+     * 注: 会将映射后的变量值写入 variableMap，先取全部变量值再写入，调用方变量名为 v1、v2... 时按写入前的值映射；
+     * 重复使用同一 variableMap 时已写入的 v1 ~ vN 作为变量名，同一批变量解析多个表达式时使用 {@link VariableDictionary}，不修改 variableMap
      * @param exp 字符串表达式
      * @param variableMap 表达式所有变量
      * @return 表达式解析对象
@@ -105,250 +257,109 @@ public class ExpressionCalc {
         if (Collects.isEmpty(variableMap)) {
             return parseExp(exp);
         }
-        Map<String, Double> replaceVariables = new HashMap<>(Collects.mapCapacity(variableMap.size()));
-        Map<String, String> varNameMap = new HashMap<>();
-        // 这里将指标名排序，长的放到前面，避免长的指标名包含短的指标名情况
-        List<String> varNames = new ArrayList<>(variableMap.keySet());
-        varNames.sort((a, b) -> b.length() - a.length());
-
-        int varNum = 1;
-        exp = exp.toUpperCase(Locale.ENGLISH);
-        for (String variable : varNames) {
-            if (Strings.isEmpty(variable)) {
-                continue;
-            }
-            if (Nums.isParsable(variable)) {
-                continue;
-            }
-            String varIdx = "v" + (varNum++);
-            exp = exp.replace(variable.toUpperCase(Locale.ENGLISH), varIdx);
-            replaceVariables.put(varIdx, variableMap.get(variable));
-            varNameMap.put(variable, varIdx);
-        }
-
-        Exp expression = parseExp(exp);
-        expression.varNameMapping = varNameMap;
-        variableMap.putAll(replaceVariables);
+        MappedDictionary mapped = mappedDictionary(new HashSet<>(variableMap.keySet()));
+        Exp expression = mapped.dictionary.parseExp(exp.toUpperCase(Locale.ENGLISH));
+        expression.varNameMapping = new HashMap<>(mapped.varNameMap);
+        putMappedValues(mapped.varNameMap, variableMap);
         return expression;
     }
 
     /**
-     * 不忽略表达式变量大小写，变量不能包含特殊符号(加减乘除、小括号)，不支持中文括号
+     * 将变量值写入映射后的变量名，先取全部值再写入，映射后的变量名与调用方变量名相同时不读取已覆盖的值
+     * @param varNameMap 变量名 -> 映射后的变量名
      */
-	public static Exp parseExp(String exp) {
-        exp = exp.replace('（', '(').replace('）', ')');
-		return parseExp(0, exp);
-	}
-
-    private static Exp parseExp(int callTimes, String exp) {
-        if (callTimes > MAX_DEEP_LEVEL) {
-            throw new IllegalStateException(String.format("表达式递归解析次数超过%d次", MAX_DEEP_LEVEL));
-        }
-        exp = exp.trim();
-        if (Strings.isEmpty(exp)) {
-            throw new IllegalStateException("表达式有误请检查");
-        }
-        // 表达式为常量值 12.31
-        if (Nums.isParsable(exp)) {
-            Exp expression = new Exp();
-            expression.type = 1;
-            expression.value = Nums.createDouble(exp);
-            expression.segment = exp;
-            return expression;
-        }
-
-        // 表达式为百分比 -20.22%
-        Matcher matcher = PERCENT_PATTERN.matcher(exp);
-        if (matcher.matches()) {
-            Exp expression = new Exp();
-            expression.type = 1;
-            expression.value = Double.parseDouble(matcher.group(1)) / 100;
-            expression.segment = exp;
-            return expression;
-        }
-
-        // 表达式不包含运算符，表达式为变量
-        if (!EXP_PATTERN.matcher(exp).matches()) {
-            Exp expression = new Exp();
-            expression.type = 3;
-            expression.varName = exp;
-            expression.segment = exp;
-            return expression;
-        }
-
-        // ...表达式为运算操作
-        List<Exp> segments = new ArrayList<>();
-
-        // begin操作符左边的常量或变量名
-        for (int i = 0, len = exp.length(), begin = i; i < len; i++) {
-            char c = exp.charAt(i);
-            if (!TOKENS.contains(c)) {
-                // 最后一个字符，且exp不为常量或变量，作为表达式片段截取
-                if (i == len - 1) {
-                    if (begin > 0 && begin <= i) {
-                        segments.add(parseExp(callTimes + 1, exp.substring(begin, len)));
-                    }
-                }
-                continue;
-            }
-
-            // 左括号:有表达式片段
-            if ('(' == c) {
-                // 找右括号 )
-                int closeIdx = findCloseIdx(exp, i + 1, '(', ')');
-                if (closeIdx < 0) {
-                    // throw new IllegalStateException(String.format("( at index %d not close", i));
-                    throw new IllegalStateException(String.format("无右括号对应第%d个字符的左括号", i));
-                }
-                segments.add(parseExp(callTimes + 1, exp.substring(i + 1, closeIdx)));
-                i = closeIdx;
-                begin = i + 1;
-                continue;
-            }
-            if (')' == c) {
-                // throw new IllegalStateException(String.format("unknown symbol ) at index %d", i));
-                throw new IllegalStateException(String.format("无左括号对应第%d个字符的右括号", i));
-            }
-
-            // 加减乘除操作符
-            // 操作符左边值
-            if (begin < i) {
-                String valueLeft = exp.substring(begin, i);
-                if (Strings.isNotEmpty(valueLeft.trim())) {
-                    segments.add(parseExp(callTimes + 1, valueLeft));
-                }
-            }
-            // 操作符
-            Exp expS = new Exp();
-            expS.type = 4;
-            expS.opt = c;
-            segments.add(expS);
-
-            begin = i + 1;
+    static void putMappedValues(Map<String, String> varNameMap, Map<String, Double> variableMap) {
+        Map<String, Double> mappedValues = new HashMap<>(Collects.mapCapacity(varNameMap.size()));
+        for (Map.Entry<String, String> mapping : varNameMap.entrySet()) {
+            mappedValues.put(mapping.getValue(), variableMap.get(mapping.getKey()));
         }
-
-        return combineExpSegments(exp, segments);
+        variableMap.putAll(mappedValues);
     }
 
-    private static Exp combineExpSegments(String exp, List<Exp> segments) {
-        int size = segments.size();
-        if ((size % 2) != 1) {
-            throw new IllegalStateException("表达式丢失运算符");
-        }
-        // 是常量或变量
-        if (size == 1) {
-            return segments.get(0);
-        }
-        // 最简单的二元运算
-        if (size == 3) {
-            Exp expression = new Exp();
-            expression.segment = exp;
-            expression.type = 2;
-            expression.opt = segments.get(1).opt;
-            expression.values = new Exp[]{segments.get(0), segments.get(2)};
-            return expression;
-        }
-
-        List<Exp> plusSegments = new ArrayList<>(segments.size());
-
-        Exp temp = new Exp();
-        temp.type = 2;
-        temp.values = new Exp[]{segments.get(0), null};
-        // 从左往右解析
-        for (int i = 1; i < size; i+=2) {
-            Exp opt = segments.get(i);
-            Exp expRight = segments.get(i + 1);
-            if (opt.type != 4) {
-                throw new IllegalStateException(String.format("%s 无运算符", exp));
-            }
-            // 乘除优先
-            if (opt.opt == '*' || opt.opt == '/') {
-                temp.opt = opt.opt;
-                temp.values[1] = expRight;
-                // 不是最后一个 segment, new 一个新的 exp 容器
-                if (i + 2 < size) {
-                    Exp nextTemp = new Exp();
-                    nextTemp.type = 2;
-                    nextTemp.values = new Exp[]{temp, null};
-                    temp = nextTemp;
-                }
-            } else {
-                // 加减
-                plusSegments.add(temp.values[0]);
-                plusSegments.add(opt);
-
-                temp = new Exp();
-                temp.type = 2;
-                temp.values = new Exp[]{expRight, null};
+    /**
+     * 变量名集合的映射字典，未缓存时构建
+     */
+    private static MappedDictionary mappedDictionary(Set<String> names) {
+        synchronized (MAPPED_DICTIONARIES) {
+            MappedDictionary mapped = MAPPED_DICTIONARIES.get(names);
+            if (mapped != null) {
+                return mapped;
             }
         }
-
-        plusSegments.add(temp.values[1] == null ? temp.values[0] : temp);
-
-        // 开始计算只有加减的公式
-        if (plusSegments.size() == 1) {
-            plusSegments.get(0).segment = exp;
-            return plusSegments.get(0);
+        MappedDictionary mapped = new MappedDictionary(names);
+        synchronized (MAPPED_DICTIONARIES) {
+            MAPPED_DICTIONARIES.putIfAbsent(Collections.unmodifiableSet(names), mapped);
         }
-        if (plusSegments.size() == 3) {
-            Exp expression = new Exp();
-            expression.segment = exp;
-            expression.type = 2;
-            expression.opt = plusSegments.get(1).opt;
-            expression.values = new Exp[]{plusSegments.get(0), plusSegments.get(2)};
-            return expression;
-        }
-
-        // 加减从左往右运算
-        temp = new Exp();
-        temp.type = 2;
-        temp.values = new Exp[]{plusSegments.get(0), null};
-        for (int i = 1, len = plusSegments.size(); i < len; i+=2) {
-            Exp opt = plusSegments.get(i);
-            Exp expRight = plusSegments.get(i + 1);
-            if (opt.type != 4) {
-                throw new IllegalStateException(String.format("%s 无运算符", exp));
-            }
+        return mapped;
+    }
 
-            temp.opt = opt.opt;
-            temp.values[1] = expRight;
-            // 不是最后一个 segment, new 一个新的 exp 容器
-            if (i + 2 < len) {
-                Exp nextTemp = new Exp();
-                nextTemp.type = 2;
-                nextTemp.values = new Exp[]{temp, null};
-                temp = nextTemp;
-            }
+    /**
+     * 不忽略表达式变量大小写，变量不能包含特殊符号(加减乘除、小括号)，不支持中文括号
+     */
+	public static Exp parseExp(String exp) {
+        exp = exp.replace('（', '(').replace('）', ')');
+        ExpressionMetrics metrics = ExpressionMetrics.current();
+        if (metrics == null) {
+            return ExpressionParser.parse(exp);
         }
+        long start = System.nanoTime();
+        Exp expression = ExpressionParser.parse(exp);
+        metrics.parsed(exp, ExpressionMetrics.nodeCount(expression), System.nanoTime() - start);
+        return expression;
+	}
 
-        temp.segment = exp;
-        return temp;
-    }
-
-    private static int findCloseIdx(String exp, int begin, char open, char close) {
-        int segment = 1; // 中间有括号包括号情况
-        for (int i = begin, len = exp.length(); i < len; i++) {
-            char c = exp.charAt(i);
-            if (c == close) {
-                segment--;
-                if (segment == 0) {
-                    return i;
+    /**
+     * parseExp(String, Map) 的变量名映射及字典，不可变
+     */
+    private static final class MappedDictionary {
+
+        /** 变量名 -> 映射后的变量名 */
+        final Map<String, String> varNameMap;
+
+        final VariableDictionary dictionary;
+
+        MappedDictionary(Set<String> names) {
+            // 这里将指标名排序，长的放到前面，忽略大小写重复时取前面的
+            List<String> sorted = new ArrayList<>(names);
+            sorted.sort((a, b) -> b.length() - a.length());
+            List<String> patterns = new ArrayList<>(sorted.size());
+            List<String> idxs = new ArrayList<>(sorted.size());
+            Map<String, String> nameMap = new HashMap<>(Collects.mapCapacity(sorted.size()));
+            for (String variable : sorted) {
+                if (Strings.isEmpty(variable)) {
+                    continue;
                 }
+                if (Nums.isParsable(variable)) {
+                    continue;
+                }
+                String varIdx = "v" + (idxs.size() + 1);
+                patterns.add(variable.toUpperCase(Locale.ENGLISH));
+                idxs.add(varIdx);
+                nameMap.put(variable, varIdx);
             }
-            if (c == open) {
-                segment ++;
-            }
+            this.varNameMap = nameMap;
+            this.dictionary = VariableDictionary.of(patterns, idxs);
         }
-        return -1;
     }
 
+    /**
+     * 按变量名取值
+     */
+    @FunctionalInterface
+    private interface VariableSource {
+
+        /**
+         * @param optional 是否 coalesce 的变量参数，变量不存在时返回 NaN
+         */
+        double valueOf(String varName, boolean optional);
+    }
 
     /**
      * 计算表达式
      */
     public static class Exp {
 
-        /** 1.常量值  2.二元操作符表达式  3.变量值 4.临时存储操作符(加减乘除) */
+        /** 1.常量值  2.二元操作符表达式  3.变量值 4.临时存储操作符(加减乘除) 5.函数调用 */
         int type;
 
         /** type=1常量值 */
@@ -357,15 +368,26 @@ public class ExpressionCalc {
         /** type=3 变量名 */
         String varName;
 
-        // type=2 操作符 加减乘除
+        // type=2 操作符 加减乘除，比较、逻辑运算符见 isPredicate
         char opt;
 
-        // 操作值表达式对象 (常量, 指标值变量, 表达式)
+        // type=5 函数
+        ExpressionFunctions.Definition function;
+
+        // 操作值表达式对象 (常量, 指标值变量, 表达式)，type=5 为函数参数
         Exp[] values;
 
         // 字符串表达式片段
         String segment;
 
+        /** 片段未截取时所在的原表达式及下标区间，取片段时再截取 */
+        private String source;
+        private int segmentFrom;
+        private int segmentTo;
+
+        /** 计算指标计时缓存，首次计算时创建，修改片段后重建 */
+        private ExpressionMetrics.Site metricsSite;
+
         /** 根exp节点,存储变量映射关系 */
         public Map<String, String> varNameMapping;
 
@@ -376,8 +398,9 @@ public class ExpressionCalc {
                     ", value=" + value +
                     ", varName='" + varName + '\'' +
                     ", opt=" + opt +
+                    (function == null ? "" : ", function=" + function) +
                     ", values=" + Arrays.toString(values) +
-                    ", segment='" + segment + '\'' +
+                    ", segment='" + getSegment() + '\'' +
                     '}';
         }
 
@@ -414,6 +437,13 @@ public class ExpressionCalc {
             this.opt = opt;
         }
 
+        /**
+         * type=5 函数名(小写)，其他类型为 null
+         */
+        public String getFunctionName() {
+            return function == null ? null : function.name;
+        }
+
         public Exp[] getValues() {
             return values;
         }
@@ -423,11 +453,89 @@ public class ExpressionCalc {
         }
 
         public String getSegment() {
-            return segment;
+            // 不清空 source，多线程同时取片段时各自截取，结果相同
+            String current = segment;
+            String text = source;
+            if (current == null && text != null) {
+                current = text.substring(segmentFrom, segmentTo);
+                segment = current;
+            }
+            return current;
         }
 
         public void setSegment(String segment) {
             this.segment = segment;
+            this.source = null;
+            this.metricsSite = null;
+        }
+
+        /**
+         * 片段为原表达式下标区间 [from, to)
+         */
+        void setSegment(String source, int from, int to) {
+            this.segment = null;
+            this.source = source;
+            this.segmentFrom = from;
+            this.segmentTo = to;
+            this.metricsSite = null;
+        }
+
+        /**
+         * 复制表达式树，节点均为新对象，变量映射复制，不含计算指标计时缓存
+         */
+        Exp copy() {
+            Exp root = shallowCopy();
+            if (varNameMapping != null) {
+                root.varNameMapping = new HashMap<>(varNameMapping);
+            }
+            Deque<Exp> sources = new ArrayDeque<>();
+            Deque<Exp> targets = new ArrayDeque<>();
+            sources.push(this);
+            targets.push(root);
+            while (!sources.isEmpty()) {
+                Exp source = sources.pop();
+                Exp target = targets.pop();
+                if (source.values == null) {
+                    continue;
+                }
+                target.values = new Exp[source.values.length];
+                for (int i = 0; i < source.values.length; i++) {
+                    target.values[i] = source.values[i].shallowCopy();
+                    sources.push(source.values[i]);
+                    targets.push(target.values[i]);
+                }
+            }
+            return root;
+        }
+
+        private Exp shallowCopy() {
+            Exp copy = new Exp();
+            copy.type = type;
+            copy.value = value;
+            copy.varName = varName;
+            copy.opt = opt;
+            copy.function = function;
+            copy.segment = segment;
+            copy.source = source;
+            copy.segmentFrom = segmentFrom;
+            copy.segmentTo = segmentTo;
+            return copy;
+        }
+
+        /**
+         * 当前监听的计时，未安装监听返回 null，不取表达式片段、不创建计时缓存
+         * 计时缓存多线程同时创建时各自使用，结果相同
+         */
+        ExpressionMetrics.Timer metricsTimer() {
+            if (ExpressionMetrics.current() == null) {
+                return null;
+            }
+            ExpressionMetrics.Site site = metricsSite;
+            if (site == null) {
+                site = ExpressionMetrics.site(getSegment());
+                metricsSite = site;
+            }
+            return site.timer();
         }
     }
 
@@ -0,0 +1,484 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 紧凑存储的表达式集合
+ * 大量公式(如多租户的几十万个公式)只保存后缀指令，不保留 Exp 树:
+ * 全部公式的指令连续存放在 byte[] 指令、int[] 操作数中，常量放在共用的 double[] 常量池，
+ * 变量名放在共用的符号表(同名变量只保存一次)，函数放在共用的函数表，每个公式只保存一份原始表达式字符串
+ * 按公式编号直接计算(与 {@link StackExpression} 共用解释器)，计算结果、被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致，无层数限制
+ * 可写入二进制文件({@link #writeTo(Path)})，启动时由 {@link MappedExpressionCatalog} 映射加载，不再解析公式文本
+ * 添加公式非线程安全，添加完成后可多线程计算
+ */
+public class ExpressionCatalog {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 对象头、数组头估算字节数(64 位 JVM 压缩指针) */
+    private static final int OBJECT_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    /** 指令，同 {@link StackExpression} */
+    private byte[] codes = new byte[64];
+
+    /** 指令操作数: 常量为常量池下标，变量为符号编号，跳转为公式内指令下标，函数调用为 函数表下标 << 8 | 参数个数 */
+    private int[] operands = new int[64];
+
+    private int codeSize;
+
+    /** 公式指令起始下标，第 i 个公式为 [codeStarts[i], codeStarts[i + 1]) */
+    private int[] codeStarts = new int[9];
+
+    /** 公式原始表达式 */
+    private String[] sources = new String[8];
+
+    private int formulaCount;
+
+    /** 常量池 */
+    private double[] constants = new double[16];
+
+    private int constantCount;
+
+    /** 常量 -> 常量池下标，添加公式时使用，{@link #trimToSize()} 后释放 */
+    private Map<Long, Integer> constantIdxs = new HashMap<>();
+
+    /** 符号表，下标为符号编号 */
+    private String[] symbols = new String[16];
+
+    private int symbolCount;
+
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+
+    /** 函数表 */
+    private ExpressionFunctions.Definition[] functions = new ExpressionFunctions.Definition[0];
+
+    private final Map<ExpressionFunctions.Definition, Integer> functionIds = new HashMap<>();
+
+    /** 全部公式计算所需最大栈深度 */
+    private int maxStackDepth;
+
+    /** 全部公式的解释器，添加公式、缩减数组后重建 */
+    private Interpreter interpreter = interpreter();
+
+    /** 各公式计算指标计时缓存，安装指标监听后首次计算时创建 */
+    private volatile ExpressionMetrics.Site[] sites;
+
+    /**
+     * 添加公式，同 {@link ExpressionCalc#parseExp(String)} 解析
+     * @return 公式编号，从0开始
+     */
+    public int add(String formula) {
+        return add(ExpressionCalc.parseExp(formula), formula);
+    }
+
+    /**
+     * 添加解析好的公式
+     * @param source 原始表达式
+     * @return 公式编号，从0开始
+     */
+    public int add(Exp exp, String source) {
+        // 先编译再写入，失败时不留下半个公式；常量、变量、函数操作数换为共用表的下标
+        StackExpression program = StackExpression.compile(exp);
+        ensureCodeCapacity(codeSize + program.size());
+        for (int pc = 0; pc < program.size(); pc++) {
+            byte code = program.code(pc);
+            int operand = program.operand(pc);
+            if (code == StackExpression.CONST) {
+                operand = constantIdx(program.constant(operand));
+            } else if (code == StackExpression.VAR || code == StackExpression.OPTIONAL_VAR) {
+                operand = symbolId(program.varName(pc));
+            } else if (code == StackExpression.CALL) {
+                operand = functionId(program.function(operand >>> 8)) << 8 | operand & 0xFF;
+            }
+            codes[codeSize] = code;
+            operands[codeSize] = operand;
+            codeSize++;
+        }
+        maxStackDepth = Math.max(maxStackDepth, program.getMaxStackDepth());
+        if (formulaCount == sources.length) {
+            sources = Arrays.copyOf(sources, Math.max(8, formulaCount * 2));
+            codeStarts = Arrays.copyOf(codeStarts, Math.max(8, formulaCount * 2) + 1);
+        }
+        sources[formulaCount] = source;
+        codeStarts[++formulaCount] = codeSize;
+        interpreter = interpreter();
+        return formulaCount - 1;
+    }
+
+    private Interpreter interpreter() {
+        return new Interpreter(codes, operands, constants, functions, symbols, true);
+    }
+
+    private void ensureCodeCapacity(int capacity) {
+        if (capacity > codes.length) {
+            int newCapacity = Math.max(capacity, codes.length + (codes.length >> 1));
+            codes = Arrays.copyOf(codes, newCapacity);
+            operands = Arrays.copyOf(operands, newCapacity);
+        }
+    }
+
+    private int constantIdx(double value) {
+        if (constantIdxs == null) {
+            constantIdxs = new HashMap<>();
+            for (int i = 0; i < constantCount; i++) {
+                constantIdxs.put(Double.doubleToRawLongBits(constants[i]), i);
+            }
+        }
+        Integer idx = constantIdxs.get(Double.doubleToRawLongBits(value));
+        if (idx == null) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, Math.max(16, constantCount * 2));
+            }
+            idx = constantCount++;
+            constants[idx] = value;
+            constantIdxs.put(Double.doubleToRawLongBits(value), idx);
+        }
+        return idx;
+    }
+
+    private int symbolId(String name) {
+        Integer id = symbolIds.get(name);
+        if (id == null) {
+            if (symbolCount == symbols.length) {
+                symbols = Arrays.copyOf(symbols, Math.max(16, symbolCount * 2));
+            }
+            id = symbolCount++;
+            symbols[id] = name;
+            symbolIds.put(name, id);
+        }
+        return id;
+    }
+
+    private int functionId(ExpressionFunctions.Definition function) {
+        Integer id = functionIds.get(function);
+        if (id == null) {
+            id = functions.length;
+            functions = Arrays.copyOf(functions, id + 1);
+            functions[id] = function;
+            functionIds.put(function, id);
+        }
+        return id;
+    }
+
+    /**
+     * 数组缩减到实际大小，释放常量去重表，添加完全部公式后调用
+     */
+    public ExpressionCatalog trimToSize() {
+        codes = Arrays.copyOf(codes, codeSize);
+        operands = Arrays.copyOf(operands, codeSize);
+        codeStarts = Arrays.copyOf(codeStarts, formulaCount + 1);
+        sources = Arrays.copyOf(sources, formulaCount);
+        constants = Arrays.copyOf(constants, constantCount);
+        symbols = Arrays.copyOf(symbols, symbolCount);
+        constantIdxs = null;
+        interpreter = interpreter();
+        return this;
+    }
+
+    /**
+     * 公式个数
+     */
+    public int size() {
+        return formulaCount;
+    }
+
+    /**
+     * 公式原始表达式
+     */
+    public String getSource(int formula) {
+        checkFormula(formula);
+        return sources[formula];
+    }
+
+    /**
+     * 符号(变量名)个数，符号编号为 0 ~ symbolCount - 1
+     */
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    /**
+     * 变量名的符号编号，不存在返回 -1
+     */
+    public int symbolOf(String name) {
+        Integer id = symbolIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String symbolName(int symbol) {
+        return symbols[symbol];
+    }
+
+    /**
+     * 新建一行变量值，下标为符号编号
+     */
+    public double[] newRow() {
+        return new double[symbolCount];
+    }
+
+    /**
+     * 新建操作数栈，可用于计算任意公式
+     */
+    public double[] newStack() {
+        return new double[maxStackDepth];
+    }
+
+    public double calc(int formula, Map<String, Double> variableMap) {
+        return calc(formula, variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 按变量 Map 计算公式，同 {@link ExpressionCalc#calcExp(Exp, Map, Function, BiFunction)}
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(int formula, Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        checkFormula(formula);
+        ExpressionMetrics.Timer timer = timer(formula);
+        if (timer == null) {
+            return calcMap(formula, variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = calcMap(formula, variableMap, nonVarValueProvider, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    private double calcMap(int formula, Map<String, Double> variableMap,
+                           Function<String, Double> nonVarValueProvider,
+                           BiFunction<Double, Double, Double> dividendZeroCalc) {
+        return interpreter.calc(codeStarts[formula], codeStarts[formula + 1], variableMap, 0d,
+                varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d),
+                (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d), newStack());
+    }
+
+    /**
+     * 计算公式
+     * @param row 变量值，下标为符号编号
+     * @param presentMask 变量存在位图(同 {@link VarSlots#isPresent})，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @param stack 操作数栈，见 {@link #newStack()}
+     */
+    public double calc(int formula, double[] row, long[] presentMask,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc,
+                       double[] stack) {
+        checkFormula(formula);
+        ExpressionMetrics.Timer timer = timer(formula);
+        if (timer == null) {
+            return calcRow(formula, row, presentMask, nonVarValueProvider, dividendZeroCalc, stack);
+        }
+        long start = System.nanoTime();
+        double value = calcRow(formula, row, presentMask, nonVarValueProvider, dividendZeroCalc, stack);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    private double calcRow(int formula, double[] row, long[] presentMask,
+                           Function<String, Double> nonVarValueProvider,
+                           BiFunction<Double, Double, Double> dividendZeroCalc,
+                           double[] stack) {
+        return interpreter.calc(codeStarts[formula], codeStarts[formula + 1], row, presentMask,
+                varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d),
+                (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d), stack);
+    }
+
+    /**
+     * 公式的计时，未安装指标监听返回 null；多线程同时创建缓存时各自使用，结果相同
+     */
+    private ExpressionMetrics.Timer timer(int formula) {
+        if (ExpressionMetrics.current() == null) {
+            return null;
+        }
+        ExpressionMetrics.Site[] current = sites;
+        if (current == null || current.length < formulaCount) {
+            current = current == null ? new ExpressionMetrics.Site[formulaCount] : Arrays.copyOf(current, formulaCount);
+            sites = current;
+        }
+        ExpressionMetrics.Site site = current[formula];
+        if (site == null) {
+            site = ExpressionMetrics.site(sources[formula]);
+            current[formula] = site;
+        }
+        return site.timer();
+    }
+
+    private void checkFormula(int formula) {
+        if (formula < 0 || formula >= formulaCount) {
+            throw new IndexOutOfBoundsException("公式编号[" + formula + "]不存在");
+        }
+    }
+
+    /**
+     * 写入二进制文件，格式见 {@link MappedExpressionCatalog}
+     */
+    public void writeTo(Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            writeTo(out);
+        }
+    }
+
+    /**
+     * 写入二进制格式，不关闭 out
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        String[] functionNames = new String[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            functionNames[i] = functions[i].name;
+        }
+        byte[] symbolTable = strings(symbols, symbolCount);
+        byte[] functionTable = strings(functionNames, functionNames.length);
+        // 公式记录
+        ByteArrayOutputStream records = new ByteArrayOutputStream(codeSize * 2);
+        int[] recordStarts = new int[formulaCount + 1];
+        for (int i = 0; i < formulaCount; i++) {
+            int start = codeStarts[i], end = codeStarts[i + 1];
+            writeVarInt(records, end - start);
+            for (int pc = start; pc < end; pc++) {
+                records.write(codes[pc]);
+                if (MappedExpressionCatalog.hasOperand(codes[pc])) {
+                    writeVarInt(records, operands[pc]);
+                }
+            }
+            if (sources[i] == null) {
+                writeVarInt(records, 0);
+            } else {
+                byte[] source = sources[i].getBytes(StandardCharsets.UTF_8);
+                writeVarInt(records, source.length + 1);
+                records.write(source);
+            }
+            recordStarts[i + 1] = records.size();
+        }
+        long symbolsOffset = MappedExpressionCatalog.HEADER_SIZE + 8L * constantCount;
+        long functionsOffset = symbolsOffset + symbolTable.length;
+        long formulasOffset = functionsOffset + functionTable.length;
+        if (formulasOffset + 4L * (formulaCount + 1) + records.size() > Integer.MAX_VALUE) {
+            throw new IllegalStateException("表达式目录超过2GB");
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MappedExpressionCatalog.MAGIC);
+        data.writeShort(MappedExpressionCatalog.VERSION);
+        data.writeShort(0);
+        data.writeInt(formulaCount);
+        data.writeInt(symbolCount);
+        data.writeInt(constantCount);
+        data.writeInt(functions.length);
+        data.writeInt(maxStackDepth);
+        data.writeInt((int) symbolsOffset);
+        data.writeInt((int) functionsOffset);
+        data.writeInt((int) formulasOffset);
+        for (int i = 0; i < constantCount; i++) {
+            data.writeDouble(constants[i]);
+        }
+        data.write(symbolTable);
+        data.write(functionTable);
+        for (int recordStart : recordStarts) {
+            data.writeInt(recordStart);
+        }
+        records.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * 字符串表: 各字符串结束位置(首个为0)，之后为 UTF-8 字节
+     */
+    private static byte[] strings(String[] values, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream table = new ByteArrayOutputStream(4 * (count + 1));
+        DataOutputStream ends = new DataOutputStream(table);
+        ends.writeInt(0);
+        for (int i = 0; i < count; i++) {
+            bytes.write(values[i].getBytes(StandardCharsets.UTF_8));
+            ends.writeInt(bytes.size());
+        }
+        bytes.writeTo(table);
+        return table.toByteArray();
+    }
+
+    /**
+     * 无符号 varint: 每字节低7位，高位为1表示未结束
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * 估算占用内存字节数(64 位 JVM 压缩指针)，含指令、常量池、符号表及原始表达式
+     */
+    public long memoryFootprint() {
+        // 本对象字段及共用数组的解释器
+        long bytes = OBJECT_HEADER + 16L * REFERENCE + align(OBJECT_HEADER + 5L * REFERENCE + 1);
+        bytes += arrayBytes(codes.length, 1) + arrayBytes(operands.length, 4)
+                + arrayBytes(codeStarts.length, 4) + arrayBytes(constants.length, 8)
+                + arrayBytes(sources.length, REFERENCE) + arrayBytes(symbols.length, REFERENCE)
+                + arrayBytes(functions.length, REFERENCE);
+        for (int i = 0; i < formulaCount; i++) {
+            bytes += stringBytes(sources[i]);
+        }
+        for (int i = 0; i < symbolCount; i++) {
+            bytes += stringBytes(symbols[i]);
+        }
+        // HashMap: table + 每个 Node 32 字节 + Integer 16 字节
+        bytes += mapBytes(symbolIds.size()) + mapBytes(functionIds.size());
+        if (constantIdxs != null) {
+            // key 为 Long 再加 24 字节
+            bytes += mapBytes(constantIdxs.size()) + 24L * constantIdxs.size();
+        }
+        return bytes;
+    }
+
+    private static long arrayBytes(int length, int elementBytes) {
+        return align(OBJECT_HEADER + (long) length * elementBytes);
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : 24 + arrayBytes(s.length(), 2);
+    }
+
+    private static long mapBytes(int size) {
+        return 48 + arrayBytes(Integer.highestOneBit(Math.max(1, size * 4 / 3)) << 1, REFERENCE) + 48L * size;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCatalog{" +
+                "size=" + formulaCount +
+                ", codeSize=" + codeSize +
+                ", constantCount=" + constantCount +
+                ", symbolCount=" + symbolCount +
+                ", memoryFootprint=" + memoryFootprint() +
+                '}';
+    }
+
+}
@@ -0,0 +1,386 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 表达式编译器
+ * 将 Exp 树按后序生成 {@link CompiledExpression} 子类的 calcVars 方法字节码:
+ * 常量 ldc2_w，变量 daload，加减乘 dadd/dsub/dmul，除法调用 {@link CompiledExpression#div}，
+ * 比较、逻辑运算调用 {@link CompiledExpression#predicate}，min、max、abs 调用 {@link Math} 对应方法
+ * 每个生成类使用独立 ClassLoader 加载，编译结果不再被引用时类可被卸载
+ * 超出单方法字节码大小限制或含其他函数(round、if、coalesce 及自定义函数)时退化为 {@link StackExpression} 执行
+ */
+final class ExpressionCompiler {
+
+    private static final String SUPER_CLASS = "com/tang/tj/toolkit/expression/CompiledExpression";
+
+    private static final String CLASS_PREFIX = "com.tang.tj.toolkit.expression.CompiledExpression$Gen";
+
+    private static final AtomicLong CLASS_SEQ = new AtomicLong();
+
+    /** JVM 单方法字节码最大长度 */
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    /** 常量池最大条目数 */
+    private static final int MAX_CONSTANT_POOL = 65535;
+
+    private ExpressionCompiler() {
+    }
+
+    static CompiledExpression compile(Exp exp) {
+        List<Exp> nodes = postOrder(exp);
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (Exp node : nodes) {
+            if (node.type == 3) {
+                slots.putIfAbsent(node.varName, slots.size());
+            } else if (node.type == 2) {
+                if (!ExpressionCalc.isOperator(node.opt)) {
+                    throw new IllegalArgumentException("未知的运算符:" + node.opt);
+                }
+            } else if (node.type != 1 && node.type != 5) {
+                throw new IllegalArgumentException("未知的表达式类型:" + node.type);
+            }
+        }
+        String[] varNames = slots.keySet().toArray(new String[0]);
+
+        String className = CLASS_PREFIX + CLASS_SEQ.incrementAndGet();
+        byte[] bytes = generate(className.replace('.', '/'), nodes, slots);
+        CompiledExpression compiled;
+        if (bytes == null) {
+            compiled = new Interpreted(varNames, exp);
+        } else {
+            try {
+                Class<?> clazz = new Loader(CompiledExpression.class.getClassLoader()).define(className, bytes);
+                compiled = (CompiledExpression) clazz.getConstructor(String[].class).newInstance((Object) varNames);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("表达式编译失败", e);
+            }
+        }
+        compiled.site = ExpressionMetrics.site(exp.getSegment());
+        return compiled;
+    }
+
+    /**
+     * 后序遍历表达式节点(左、右、父)
+     */
+    static List<Exp> postOrder(Exp exp) {
+        List<Exp> nodes = new ArrayList<>();
+        Deque<Exp> stack = new ArrayDeque<>();
+        stack.push(exp);
+        while (!stack.isEmpty()) {
+            Exp node = stack.pop();
+            nodes.add(node);
+            // 二元运算的左右值、函数的参数
+            if (node.type == 2 || node.type == 5) {
+                for (Exp value : node.values) {
+                    stack.push(value);
+                }
+            }
+        }
+        Collections.reverse(nodes);
+        return nodes;
+    }
+
+    /**
+     * 生成类字节码，超出限制或含 min、max、abs 以外的函数返回 null
+     */
+    private static byte[] generate(String className, List<Exp> nodes, Map<String, Integer> slots) {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.clazz(className);
+        int superClass = pool.clazz(SUPER_CLASS);
+        int superInit = pool.method(superClass, "<init>", "([Ljava/lang/String;)V");
+        int div = pool.method(superClass, "div", "(DDLjava/util/function/BiFunction;)D");
+        int predicate = pool.method(superClass, "predicate", "(DDC)D");
+        int math = pool.clazz("java/lang/Math");
+        int initName = pool.utf8("<init>");
+        int initDesc = pool.utf8("([Ljava/lang/String;)V");
+        int calcName = pool.utf8("calcVars");
+        int calcDesc = pool.utf8("([DLjava/util/function/BiFunction;)D");
+        int codeAttr = pool.utf8("Code");
+
+        // calcVars(double[] vars, BiFunction dividendZeroCalc): 局部变量 0:this 1:vars 2:dividendZeroCalc
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        int stack = 0, maxStack = 0;
+        for (Exp node : nodes) {
+            if (node.type == 5) {
+                // 参数已按后序压栈，min、max 逐个合并，结果与 ExpressionFunctions.Definition#apply 一致
+                int argc = node.values.length;
+                switch (node.function.kind) {
+                    case ExpressionFunctions.MIN:
+                    case ExpressionFunctions.MAX:
+                        String name = node.function.kind == ExpressionFunctions.MIN ? "min" : "max";
+                        int method = pool.method(math, name, "(DD)D");
+                        for (int i = 1; i < argc; i++) {
+                            code.write(0xb8); // invokestatic
+                            writeShort(code, method);
+                            stack -= 2;
+                        }
+                        break;
+                    case ExpressionFunctions.ABS:
+                        code.write(0xb8); // invokestatic
+                        writeShort(code, pool.method(math, "abs", "(D)D"));
+                        break;
+                    default:
+                        return null;
+                }
+            } else if (node.type == 1) {
+                if (Double.doubleToRawLongBits(node.value) == 0L) {
+                    code.write(0x0e); // dconst_0
+                } else if (node.value == 1d) {
+                    code.write(0x0f); // dconst_1
+                } else {
+                    code.write(0x14); // ldc2_w
+                    writeShort(code, pool.doubleValue(node.value));
+                }
+                stack += 2;
+                maxStack = Math.max(maxStack, stack);
+            } else if (node.type == 3) {
+                int slot = slots.get(node.varName);
+                code.write(0x2b); // aload_1
+                if (slot <= 5) {
+                    code.write(0x03 + slot); // iconst_n
+                } else if (slot <= Byte.MAX_VALUE) {
+                    code.write(0x10); // bipush
+                    code.write(slot);
+                } else if (slot <= Short.MAX_VALUE) {
+                    code.write(0x11); // sipush
+                    writeShort(code, slot);
+                } else {
+                    return null;
+                }
+                code.write(0x31); // daload
+                maxStack = Math.max(maxStack, stack + 2);
+                stack += 2;
+            } else {
+                switch (node.opt) {
+                    case '+': code.write(0x63); break; // dadd
+                    case '-': code.write(0x67); break; // dsub
+                    case '*': code.write(0x6b); break; // dmul
+                    case '/':
+                        code.write(0x2c); // aload_2
+                        maxStack = Math.max(maxStack, stack + 1);
+                        code.write(0xb8); // invokestatic
+                        writeShort(code, div);
+                        break;
+                    default:
+                        code.write(0x10); // bipush
+                        code.write(node.opt);
+                        maxStack = Math.max(maxStack, stack + 1);
+                        code.write(0xb8); // invokestatic
+                        writeShort(code, predicate);
+                }
+                stack -= 2;
+            }
+            if (code.size() >= MAX_CODE_LENGTH || maxStack > MAX_CODE_LENGTH || pool.size() >= MAX_CONSTANT_POOL) {
+                return null;
+            }
+        }
+        code.write(0xaf); // dreturn
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + code.size() + pool.byteSize());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            // 49 版本使用类型推导校验，无需 StackMapTable
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // public <init>(String[] varNames) { super(varNames); }
+            out.writeShort(0x0001);
+            out.writeShort(initName);
+            out.writeShort(initDesc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + 6);
+            out.writeShort(2); // max_stack
+            out.writeShort(2); // max_locals
+            out.writeInt(6);
+            out.write(0x2a); // aload_0
+            out.write(0x2b); // aload_1
+            out.write(0xb7); // invokespecial
+            out.writeShort(superInit);
+            out.write(0xb1); // return
+            out.writeShort(0); // exception_table
+            out.writeShort(0); // attributes
+
+            // protected final double calcVars(double[] vars, BiFunction dividendZeroCalc)
+            out.writeShort(0x0004 | 0x0010);
+            out.writeShort(calcName);
+            out.writeShort(calcDesc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(3); // max_locals
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exception_table
+            out.writeShort(0); // attributes
+
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * 类文件常量池
+     */
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private final Map<Object, Integer> indexes = new HashMap<>();
+
+        /** 下一个条目下标，常量池从1开始，double 占两个条目 */
+        private int next = 1;
+
+        int utf8(String value) {
+            Integer idx = indexes.get(value);
+            if (idx != null) {
+                return idx;
+            }
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indexes.put(value, next);
+            return next++;
+        }
+
+        int clazz(String internalName) {
+            int name = utf8(internalName);
+            return entry("C:" + internalName, 7, name, -1);
+        }
+
+        int method(int owner, String name, String descriptor) {
+            int nameAndType = entry("N:" + name + descriptor, 12, utf8(name), utf8(descriptor));
+            return entry("M:" + owner + ":" + name + descriptor, 10, owner, nameAndType);
+        }
+
+        int doubleValue(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            Integer idx = indexes.get(bits);
+            if (idx != null) {
+                return idx;
+            }
+            try {
+                out.writeByte(6);
+                out.writeLong(bits);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indexes.put(bits, next);
+            int current = next;
+            next += 2;
+            return current;
+        }
+
+        private int entry(String key, int tag, int first, int second) {
+            Integer idx = indexes.get(key);
+            if (idx != null) {
+                return idx;
+            }
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0) {
+                    out.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indexes.put(key, next);
+            return next++;
+        }
+
+        int size() {
+            return next;
+        }
+
+        int byteSize() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(next);
+            bytes.writeTo(target);
+        }
+    }
+
+    /**
+     * 每个生成类独立的类加载器
+     */
+    private static class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * 表达式过大或含不能生成字节码的函数时按后缀指令执行
+     */
+    private static class Interpreted extends CompiledExpression {
+
+        private final StackExpression program;
+
+        Interpreted(String[] varNames, Exp exp) {
+            super(varNames);
+            this.program = StackExpression.compile(exp, VarSlots.of(varNames));
+        }
+
+        @Override
+        protected double calcVars(double[] vars, BiFunction<Double, Double, Double> dividendZeroCalc) {
+            return program.calc(vars, null, null, dividendZeroCalc);
+        }
+
+        /**
+         * 按变量 Map 计算，coalesce 的变量参数不存在时不调用 nonVarValueProvider
+         */
+        @Override
+        double calcMap(Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+            return program.calc(variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+    }
+
+}
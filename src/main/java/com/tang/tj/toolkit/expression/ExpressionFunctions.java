@@ -0,0 +1,249 @@
+package com.tang.tj.toolkit.expression;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * 表达式函数
+ * 内置函数(函数名不区分大小写):
+ * min(a, b, ...)、max(a, b, ...) 最小、最大值，参数有 NaN 时为 NaN；abs(x) 绝对值；
+ * round(x)、round(x, n) 按十进制值四舍五入(HALF_UP)到 n 位小数，n 可为负数；
+ * if(cond, a, b) cond 非0时为 a 否则为 b，只计算选中的分支；
+ * coalesce(a, b, ...) 第一个不是 NaN 的参数，之后的参数不计算；参数为单个变量且变量不存在时视为 NaN，不调用 nonVarValueProvider，
+ * 最后一个参数按普通参数计算
+ * 自定义函数通过 {@link #register(String, DoubleUnaryOperator)}、{@link #register(String, DoubleBinaryOperator)} 全局注册，
+ * 计算时直接传入 double 不装箱；注册后解析的表达式生效，已解析的表达式不受之后注册、注销的影响
+ * 列式计算({@link BatchExpression})时各参数整列计算后按行取值，if、coalesce 按块跳过没有行选中的参数，块内未选中的行不调用自定义函数
+ */
+public final class ExpressionFunctions {
+
+    /** 函数类别 */
+    static final int MIN = 0;
+    static final int MAX = 1;
+    static final int ABS = 2;
+    static final int ROUND = 3;
+    static final int IF = 4;
+    static final int COALESCE = 5;
+    static final int UNARY = 6;
+    static final int BINARY = 7;
+
+    /** 函数最多参数个数 */
+    static final int MAX_ARGS = 255;
+
+    private static final Map<String, Definition> BUILT_IN = new HashMap<>();
+
+    private static final ConcurrentHashMap<String, Definition> REGISTERED = new ConcurrentHashMap<>();
+
+    static {
+        builtIn(new Definition("min", MIN, 1, MAX_ARGS, null, null));
+        builtIn(new Definition("max", MAX, 1, MAX_ARGS, null, null));
+        builtIn(new Definition("abs", ABS, 1, 1, null, null));
+        builtIn(new Definition("round", ROUND, 1, 2, null, null));
+        builtIn(new Definition("if", IF, 3, 3, null, null));
+        builtIn(new Definition("coalesce", COALESCE, 1, MAX_ARGS, null, null));
+    }
+
+    private ExpressionFunctions() {
+    }
+
+    private static void builtIn(Definition definition) {
+        BUILT_IN.put(definition.name, definition);
+    }
+
+    /**
+     * 注册单参数函数，同名自定义函数被替换
+     * @param name 函数名，字母或下划线开头，由字母、数字、下划线组成，不区分大小写，不能与内置函数及 and、or、not 同名
+     */
+    public static void register(String name, DoubleUnaryOperator function) {
+        String key = checkName(name);
+        REGISTERED.put(key, new Definition(key, UNARY, 1, 1, function, null));
+    }
+
+    /**
+     * 注册两参数函数，同名自定义函数被替换
+     * @param name 函数名，规则同 {@link #register(String, DoubleUnaryOperator)}
+     */
+    public static void register(String name, DoubleBinaryOperator function) {
+        String key = checkName(name);
+        REGISTERED.put(key, new Definition(key, BINARY, 2, 2, null, function));
+    }
+
+    /**
+     * 注销自定义函数
+     * @return 是否存在
+     */
+    public static boolean unregister(String name) {
+        return name != null && REGISTERED.remove(name.toLowerCase(Locale.ENGLISH)) != null;
+    }
+
+    /**
+     * 是否内置或已注册的函数
+     */
+    public static boolean isFunction(String name) {
+        return lookup(name) != null;
+    }
+
+    /**
+     * 按函数名(不区分大小写)查找，不存在返回 null
+     */
+    static Definition lookup(String name) {
+        String key = name.toLowerCase(Locale.ENGLISH);
+        Definition definition = BUILT_IN.get(key);
+        return definition != null ? definition : REGISTERED.get(key);
+    }
+
+    private static String checkName(String name) {
+        if (name == null || !isIdentifier(name)) {
+            throw new IllegalArgumentException("函数名[" + name + "]有误");
+        }
+        String key = name.toLowerCase(Locale.ENGLISH);
+        if (BUILT_IN.containsKey(key) || "and".equals(key) || "or".equals(key) || "not".equals(key)) {
+            throw new IllegalArgumentException("函数名[" + name + "]为内置函数或关键字");
+        }
+        return key;
+    }
+
+    /**
+     * 字母或下划线开头，由字母、数字、下划线组成
+     */
+    static boolean isIdentifier(CharSequence text) {
+        if (text.length() == 0 || !(Character.isLetter(text.charAt(0)) || text.charAt(0) == '_')) {
+            return false;
+        }
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 四舍五入(HALF_UP)到 digits 位小数，按 {@link BigDecimal#valueOf(double)} 的十进制值舍入
+     */
+    static double round(double value, double digits) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        if (digits != digits) {
+            return Double.NaN;
+        }
+        // double 的十进制值不超过 767 位有效数字
+        int scale = (int) Math.max(-400, Math.min(800, digits));
+        return BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    /**
+     * 函数定义，不可变
+     */
+    static final class Definition {
+
+        final String name;
+
+        /** 函数类别 MIN ~ BINARY */
+        final int kind;
+
+        final int minArgs;
+
+        final int maxArgs;
+
+        final DoubleUnaryOperator unary;
+
+        final DoubleBinaryOperator binary;
+
+        private Definition(String name, int kind, int minArgs, int maxArgs,
+                           DoubleUnaryOperator unary, DoubleBinaryOperator binary) {
+            this.name = name;
+            this.kind = kind;
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+            this.unary = unary;
+            this.binary = binary;
+        }
+
+        /**
+         * if、coalesce 的参数按需计算
+         */
+        boolean isLazy() {
+            return kind == IF || kind == COALESCE;
+        }
+
+        /**
+         * 按已计算的全部参数求值
+         * @param args 参数数组
+         * @param from 第一个参数下标
+         * @param argc 参数个数
+         */
+        double apply(double[] args, int from, int argc) {
+            switch (kind) {
+                case IF:
+                    return args[from] != 0 ? args[from + 1] : args[from + 2];
+                case COALESCE:
+                    for (int i = 0; i < argc - 1; i++) {
+                        if (args[from + i] == args[from + i]) {
+                            return args[from + i];
+                        }
+                    }
+                    return args[from + argc - 1];
+                default:
+                    if (argc == 1) {
+                        return apply(args[from]);
+                    }
+                    // min、max 逐个合并，其他函数为两个参数
+                    double result = args[from];
+                    for (int i = 1; i < argc; i++) {
+                        result = apply(result, args[from + i]);
+                    }
+                    return result;
+            }
+        }
+
+        /**
+         * 单个参数求值(if、coalesce 除外)
+         */
+        double apply(double arg) {
+            switch (kind) {
+                case ABS:
+                    return Math.abs(arg);
+                case ROUND:
+                    return round(arg, 0d);
+                case UNARY:
+                    return unary.applyAsDouble(arg);
+                default:
+                    // min、max、coalesce 单个参数
+                    return arg;
+            }
+        }
+
+        /**
+         * 两个参数求值，min、max 为合并两个值(if、coalesce 除外)
+         */
+        double apply(double left, double right) {
+            switch (kind) {
+                case MIN:
+                    return Math.min(left, right);
+                case MAX:
+                    return Math.max(left, right);
+                case ROUND:
+                    return round(left, right);
+                case BINARY:
+                    return binary.applyAsDouble(left, right);
+                default:
+                    throw new IllegalStateException("函数" + name + "不是两个参数");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+/**
+ * 表达式解析、计算指标监听 SPI，默认实现见 {@link MetricsRecorder}
+ * 通过 {@link #install(ExpressionMetrics)} 全局安装；未安装时各埋点只读取一次监听并判断 null，不计时、不取表达式字符串
+ * 埋点:
+ * {@link ExpressionCalc#parseExp}、{@link VariableDictionary#parseExp(String)} 解析，
+ * {@link ExpressionCalc#calcExp}、{@link Expression#calc}、{@link BoundExpression}、{@link CompiledExpression}、
+ * {@link OptimizedExpression}、{@link ExpressionCatalog}、{@link MappedExpressionCatalog} 计算，
+ * {@link BatchExpression} 每次批量调用计一次计算，{@link FormulaGraph} 按各节点的 {@link BoundExpression} 计算，
+ * 以上计算中的被除数为0、变量不存在({@link BatchExpression} 每次批量调用每个不存在的变量记录一次)，{@link ExpressionCache} 命中
+ * 编译后的表达式对象按 {@link #timer(String)} 缓存计时，计算时不按表达式字符串查找
+ * 回调在解析、计算线程同步执行，实现需线程安全、轻量且不抛出异常
+ */
+public abstract class ExpressionMetrics {
+
+    /** 无表达式字符串时的指标 key，如直接构造的 Exp */
+    public static final String UNNAMED = "<unnamed>";
+
+    /** 当前监听，未安装为 null */
+    private static volatile ExpressionMetrics current;
+
+    /**
+     * 安装全局监听，替换已安装的监听
+     * @param metrics 监听，null 为关闭
+     */
+    public static void install(ExpressionMetrics metrics) {
+        current = metrics;
+    }
+
+    /**
+     * 关闭监听
+     */
+    public static void uninstall() {
+        current = null;
+    }
+
+    /**
+     * 当前监听，未安装返回 null
+     */
+    public static ExpressionMetrics current() {
+        return current;
+    }
+
+    /**
+     * 表达式解析完成
+     * @param formula 表达式字符串
+     * @param nodeCount 解析后节点数
+     * @param nanos 解析耗时(纳秒)
+     */
+    public void parsed(String formula, int nodeCount, long nanos) {
+    }
+
+    /**
+     * 表达式计算完成
+     * @param formula 表达式字符串
+     * @param nanos 计算耗时(纳秒)
+     */
+    public void evaluated(String formula, long nanos) {
+    }
+
+    /**
+     * 单个表达式的计时，编译后的表达式对象缓存复用，默认按表达式字符串回调 {@link #evaluated(String, long)}
+     * @param formula 表达式字符串，null 视为 {@link #UNNAMED}
+     */
+    public Timer timer(String formula) {
+        String key = formula == null ? UNNAMED : formula;
+        return nanos -> evaluated(key, nanos);
+    }
+
+    /**
+     * 计算中被除数为0，调用 dividendZeroCalc 前回调
+     */
+    public void dividedByZero() {
+    }
+
+    /**
+     * 计算中变量不存在，调用 nonVarValueProvider 前回调
+     */
+    public void missingVariable(String varName) {
+    }
+
+    /**
+     * 解析缓存访问
+     * @param hit 是否命中
+     */
+    public void cacheAccessed(boolean hit) {
+    }
+
+    static void recordDividedByZero() {
+        ExpressionMetrics metrics = current;
+        if (metrics != null) {
+            metrics.dividedByZero();
+        }
+    }
+
+    static void recordMissingVariable(String varName) {
+        ExpressionMetrics metrics = current;
+        if (metrics != null) {
+            metrics.missingVariable(varName);
+        }
+    }
+
+    static void recordCacheAccessed(boolean hit) {
+        ExpressionMetrics metrics = current;
+        if (metrics != null) {
+            metrics.cacheAccessed(hit);
+        }
+    }
+
+    /**
+     * 创建表达式对象的计时缓存
+     * @param formula 表达式字符串，null 视为 {@link #UNNAMED}
+     */
+    static Site site(String formula) {
+        return new Site(formula);
+    }
+
+    /**
+     * 单个表达式的计时，由 {@link #timer(String)} 取得
+     */
+    public interface Timer {
+
+        /**
+         * 表达式计算完成
+         * @param nanos 计算耗时(纳秒)
+         */
+        void evaluated(long nanos);
+
+        /**
+         * 是否仍可复用，如指标被清空后返回 false，重新取得
+         */
+        default boolean isValid() {
+            return true;
+        }
+    }
+
+    /**
+     * 编译后的表达式对象持有的计时缓存，监听替换或计时失效后重新取得
+     */
+    static final class Site {
+
+        private final String formula;
+
+        private volatile Binding binding;
+
+        private Site(String formula) {
+            this.formula = formula;
+        }
+
+        /**
+         * 当前监听的计时，未安装返回 null
+         */
+        Timer timer() {
+            ExpressionMetrics metrics = current;
+            if (metrics == null) {
+                return null;
+            }
+            Binding binding = this.binding;
+            if (binding == null || binding.metrics != metrics || !binding.timer.isValid()) {
+                binding = new Binding(metrics, metrics.timer(formula));
+                this.binding = binding;
+            }
+            return binding.timer;
+        }
+    }
+
+    private static final class Binding {
+
+        final ExpressionMetrics metrics;
+
+        final Timer timer;
+
+        Binding(ExpressionMetrics metrics, Timer timer) {
+            this.metrics = metrics;
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * 解析后节点数，相同子表达式按出现次数计
+     */
+    static int nodeCount(Exp exp) {
+        return ExpressionCompiler.postOrder(exp).size();
+    }
+
+}
@@ -0,0 +1,816 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Nums;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 表达式解析器
+ * 单次扫描原字符串下标区间，运算符优先级用显式栈处理(乘除、加减、比较、not、and、or，同级从左往右)，括号嵌套不递归，无深度限制
+ * 比较、逻辑运算符解析为单字符运算符，见 {@link ExpressionCalc#isPredicate(char)}；前缀 not x 解析为 x == 0
+ * 函数名后紧跟(可有空白)左括号为函数调用，参数以逗号分隔，每个参数按括号层级解析，见 {@link ExpressionFunctions}
+ * 解析结果与逐段截取递归解析的 Exp 树结构、片段(segment)及错误信息一致；逐段解析不报错但结果有误的片段
+ * (左括号前的非函数名片段、一个或三个片段的运算符位置有误等)在整个表达式解析完成后才报错，先报逐段解析的错误
+ * 可传入预先匹配的变量名区间 {@link Matches}，区间内的字符(包括运算符、括号)整体作为一个变量
+ */
+final class ExpressionParser {
+
+    /** 前缀运算符 not，只在运算符栈中 */
+    private static final char NOT = 'N';
+
+    /** 表达式字符串 */
+    private final String exp;
+
+    /** 去掉首尾空白后的起止下标 */
+    private final int begin;
+    private final int end;
+
+    /** 预先匹配的变量名区间，可为 null */
+    private final Matches matches;
+
+    /** 下一个未读取的变量名区间 */
+    private int nextMatch;
+
+    /** 最外层未闭合左括号的下标，-1 无 */
+    private final int unclosedIdx;
+
+    /** 操作值栈 */
+    private final List<Exp> operands = new ArrayList<>();
+
+    /** 运算符栈 */
+    private final StringBuilder operators = new StringBuilder();
+
+    /** 括号层级栈 */
+    private final List<Group> groups = new ArrayList<>();
+
+    /** 整个表达式解析完成后报的错误，取第一个 */
+    private String deferredError;
+
+    private ExpressionParser(String exp, Matches matches) {
+        this.exp = exp;
+        this.matches = matches;
+        int b = 0, e = exp.length();
+        while (b < e && exp.charAt(b) <= ' ') {
+            b++;
+        }
+        while (e > b && exp.charAt(e - 1) <= ' ') {
+            e--;
+        }
+        this.begin = b;
+        this.end = e;
+        this.unclosedIdx = findUnclosedIdx();
+    }
+
+    static Exp parse(String exp) {
+        return new ExpressionParser(exp, null).parse();
+    }
+
+    /**
+     * @param matches 变量名区间，按下标升序且互不重叠
+     */
+    static Exp parse(String exp, Matches matches) {
+        return new ExpressionParser(exp, matches).parse();
+    }
+
+    private Exp parse() {
+        if (begin == end) {
+            throw new IllegalStateException("表达式有误请检查");
+        }
+        openGroup(begin);
+        int i = begin;
+        while (i < end) {
+            char c = exp.charAt(i);
+            if (isMatchStart(i) || !isToken(c) && keywordAt(i) == 0) {
+                i = readOperand(i);
+                continue;
+            }
+            Group group = currentGroup();
+            if ('(' == c) {
+                if (i == unclosedIdx) {
+                    throw new IllegalStateException(String.format("无右括号对应第%d个字符的左括号", i - begin));
+                }
+                openGroup(i + 1);
+                i++;
+                continue;
+            }
+            if (')' == c) {
+                if (groups.size() == 1) {
+                    throw new IllegalStateException(String.format("无左括号对应第%d个字符的右括号", i - begin));
+                }
+                Exp value = group.function != null ? closeFunction(i) : closeGroup(i);
+                addOperand(currentGroup(), value);
+                i++;
+                continue;
+            }
+            if (',' == c) {
+                if (group.function == null) {
+                    throw new IllegalStateException(String.format("第%d个字符的逗号不在函数参数中", i - begin));
+                }
+                group.args.add(reduceGroup(group, i));
+                group.reset(i + 1);
+                i++;
+                continue;
+            }
+            // 组内首个符号为负号时，整组可能是负数常量 (-50%)
+            if ('-' == c && group.items == 0) {
+                int next = readNegativeConstant(i);
+                if (next > i) {
+                    i = next;
+                    continue;
+                }
+            }
+            char opt = operatorAt(i);
+            if (opt == NOT) {
+                addPrefixOperator(group);
+            } else {
+                addOperator(group, opt);
+            }
+            i += operatorLength(opt);
+        }
+        Exp expression = closeGroup(end);
+        if (deferredError != null) {
+            throw new IllegalStateException(deferredError);
+        }
+        return expression;
+    }
+
+    /**
+     * 下标处的运算符，多字符运算符返回对应的单字符: >= G，<= L，== =，!= !，and &，or |，not N
+     */
+    private char operatorAt(int i) {
+        char c = exp.charAt(i);
+        boolean equalsNext = i + 1 < end && exp.charAt(i + 1) == '=';
+        switch (c) {
+            case '>': return equalsNext ? 'G' : '>';
+            case '<': return equalsNext ? 'L' : '<';
+            case '=':
+            case '!':
+                if (!equalsNext) {
+                    throw new IllegalStateException(String.format("第%d个字符的运算符%s有误", i - begin, c));
+                }
+                return c;
+            case '(':
+            case ')':
+            case '*':
+            case '/':
+            case '+':
+            case '-':
+                return c;
+            default:
+                return keywordAt(i);
+        }
+    }
+
+    private static int operatorLength(char opt) {
+        switch (opt) {
+            case 'G': case 'L': case '=': case '!': case '|':
+                return 2;
+            case '&': case NOT:
+                return 3;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * 下标处是否为单独的 and、or、not(不区分大小写，前后为空白、运算符、括号或表达式首尾)
+     * @return 对应运算符 & | N，不是返回 0
+     */
+    private char keywordAt(int i) {
+        if (i > begin && !isKeywordBoundary(exp.charAt(i - 1))) {
+            return 0;
+        }
+        if (isKeyword(i, "and")) {
+            return '&';
+        }
+        if (isKeyword(i, "or")) {
+            return '|';
+        }
+        if (isKeyword(i, "not")) {
+            return NOT;
+        }
+        return 0;
+    }
+
+    private boolean isKeyword(int i, String keyword) {
+        int to = i + keyword.length();
+        return to <= end && exp.regionMatches(true, i, keyword, 0, keyword.length())
+                && (to == end || isKeywordBoundary(exp.charAt(to)));
+    }
+
+    private static boolean isKeywordBoundary(char c) {
+        return c <= ' ' || isToken(c);
+    }
+
+    /**
+     * 读取运算符之间的常量或变量
+     * @return 下一个待扫描下标
+     */
+    private int readOperand(int from) {
+        int to = from;
+        // 片段内变量名区间个数、最后一个区间，是否有区间外字符
+        int matched = 0, match = -1;
+        boolean plain = false;
+        while (to < end) {
+            if (isMatchStart(to)) {
+                matched++;
+                match = nextMatch++;
+                to = matches.to[match];
+                continue;
+            }
+            char c = exp.charAt(to);
+            if (isToken(c) || keywordAt(to) != 0) {
+                break;
+            }
+            plain |= c > ' ';
+            to++;
+        }
+        if (matched == 0 && to < end && exp.charAt(to) == '(') {
+            return readFunction(from, to);
+        }
+        if (matched == 1 && !plain) {
+            Exp expression = new Exp();
+            expression.type = 3;
+            expression.varName = matches.names[match];
+            expression.segment = exp.substring(matches.from[match], matches.to[match]);
+            addOperand(currentGroup(), expression);
+            return to;
+        }
+        int tb = to;
+        while (tb > from && exp.charAt(tb - 1) <= ' ') {
+            tb--;
+        }
+        int ta = from;
+        while (ta < tb && exp.charAt(ta) <= ' ') {
+            ta++;
+        }
+        // 空白片段忽略
+        if (ta < tb) {
+            addOperand(currentGroup(), leaf(exp.substring(ta, tb)));
+        }
+        return to;
+    }
+
+    /**
+     * 函数名后的左括号开始函数调用，不是函数名的片段同逐段解析忽略，解析完成后报错
+     * @param from 函数名片段开始下标
+     * @param leftIdx 左括号下标
+     * @return 是函数调用返回左括号后一位下标，否则返回 leftIdx
+     */
+    private int readFunction(int from, int leftIdx) {
+        int ta = from;
+        while (ta < leftIdx && exp.charAt(ta) <= ' ') {
+            ta++;
+        }
+        int tb = leftIdx;
+        while (tb > ta && exp.charAt(tb - 1) <= ' ') {
+            tb--;
+        }
+        if (ta == tb) {
+            return leftIdx;
+        }
+        String name = exp.substring(ta, tb);
+        ExpressionFunctions.Definition function = ExpressionFunctions.isIdentifier(name)
+                ? ExpressionFunctions.lookup(name) : null;
+        if (function == null) {
+            // 名称与左括号间有空白时为缺少运算符
+            defer(tb == leftIdx && ExpressionFunctions.isIdentifier(name) ? "未知的函数:" + name : "表达式丢失运算符");
+            return leftIdx;
+        }
+        if (leftIdx == unclosedIdx) {
+            throw new IllegalStateException(String.format("无右括号对应第%d个字符的左括号", leftIdx - begin));
+        }
+        openGroup(leftIdx + 1);
+        Group group = currentGroup();
+        group.function = function;
+        group.nameFrom = ta;
+        group.args = new ArrayList<>();
+        return leftIdx + 1;
+    }
+
+    /**
+     * 结束函数调用
+     * @param to 右括号下标
+     */
+    private Exp closeFunction(int to) {
+        Group group = currentGroup();
+        // 无参数时右括号前为空
+        if (group.items > 0 || !group.args.isEmpty()) {
+            group.args.add(reduceGroup(group, to));
+        }
+        groups.remove(groups.size() - 1);
+        ExpressionFunctions.Definition function = group.function;
+        int argc = group.args.size();
+        if (argc < function.minArgs || argc > function.maxArgs) {
+            throw new IllegalStateException(String.format("函数%s的参数个数%d有误", function.name, argc));
+        }
+        Exp expression = new Exp();
+        expression.type = 5;
+        expression.function = function;
+        expression.values = group.args.toArray(new Exp[0]);
+        expression.setSegment(exp, group.nameFrom, to + 1);
+        return expression;
+    }
+
+    /**
+     * 括号内(或整个表达式)仅为负数常量，如 -12.5、-50%
+     * @return 是负数常量返回下一个待扫描下标，否则返回 minusIdx
+     */
+    private int readNegativeConstant(int minusIdx) {
+        int from = minusIdx + 1;
+        if (from >= end || isToken(exp.charAt(from)) || exp.charAt(from) <= ' ') {
+            return minusIdx;
+        }
+        int to = from;
+        while (to < end && !isToken(exp.charAt(to)) && !isMatchStart(to) && keywordAt(to) == 0) {
+            to++;
+        }
+        if (isMatchStart(to) || isMatchStart(from)) {
+            return minusIdx;
+        }
+        // 常量后须紧跟组结束(函数参数以逗号结束)
+        boolean groupEnd = groups.size() == 1 ? to == end
+                : to < end && (exp.charAt(to) == ')' || exp.charAt(to) == ',' && currentGroup().function != null);
+        if (!groupEnd) {
+            return minusIdx;
+        }
+        int tb = to;
+        while (exp.charAt(tb - 1) <= ' ') {
+            tb--;
+        }
+        String text = exp.substring(minusIdx, tb);
+        Exp constant = constant(text);
+        if (constant == null) {
+            return minusIdx;
+        }
+        addOperand(currentGroup(), constant);
+        return to;
+    }
+
+    /**
+     * 常量、百分比常量或变量
+     */
+    private static Exp leaf(String text) {
+        Exp expression = constant(text);
+        if (expression != null) {
+            return expression;
+        }
+        expression = new Exp();
+        expression.type = 3;
+        expression.varName = text;
+        expression.segment = text;
+        return expression;
+    }
+
+    /**
+     * 常量值 12.31 或百分比 -20.22%，不是常量返回 null
+     */
+    private static Exp constant(String text) {
+        double value = Nums.parsePlainDouble(text, 0, text.length(), Double.NaN);
+        if (value != value) {
+            if (!isPercent(text)) {
+                return null;
+            }
+            value = Nums.parsePlainDouble(text, 0, text.length() - 1, Double.NaN) / 100;
+        }
+        Exp expression = new Exp();
+        expression.type = 1;
+        expression.value = value;
+        expression.segment = text;
+        return expression;
+    }
+
+    /**
+     * 是否百分比值字符串 ^-?\d+(\.\d+)?%$
+     */
+    private static boolean isPercent(String text) {
+        int len = text.length();
+        if (len < 2 || text.charAt(len - 1) != '%') {
+            return false;
+        }
+        int i = text.charAt(0) == '-' ? 1 : 0;
+        int digits = 0;
+        while (i < len - 1 && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i == len - 1) {
+            return true;
+        }
+        if (text.charAt(i) != '.') {
+            return false;
+        }
+        i++;
+        digits = 0;
+        while (i < len - 1 && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        return digits > 0 && i == len - 1;
+    }
+
+    /**
+     * @param value 为 null 时是仅有一个运算符的括号，逐段解析时可在任意位置
+     */
+    private void addOperand(Group group, Exp value) {
+        if (value == null) {
+            group.items++;
+            group.deferred = true;
+            return;
+        }
+        // 偶数位为操作值
+        if ((group.items++ & 1) == 1) {
+            group.operandAtOpt = true;
+        }
+        if (!group.broken()) {
+            operands.add(value);
+        }
+    }
+
+    private void addOperator(Group group, char opt) {
+        // 奇数位为运算符
+        if ((group.items++ & 1) == 0) {
+            group.optAtOperand = true;
+        }
+        if (group.broken()) {
+            return;
+        }
+        group.optCount++;
+        // 左结合：栈顶优先级不低于当前运算符先计算
+        while (operators.length() > group.optBase && priority(lastOperator()) >= priority(opt)) {
+            reduce();
+        }
+        operators.append(opt);
+    }
+
+    /**
+     * 前缀运算符 not，位于操作值位置，不占操作值与运算符的位置
+     */
+    private void addPrefixOperator(Group group) {
+        if ((group.items & 1) == 1) {
+            group.optAtOperand = true;
+        }
+        if (group.broken()) {
+            return;
+        }
+        group.optCount++;
+        operators.append(NOT);
+    }
+
+    private void openGroup(int from) {
+        Group group = new Group();
+        group.from = from;
+        group.optBase = operators.length();
+        group.operandBase = operands.size();
+        groups.add(group);
+    }
+
+    /**
+     * 结束当前括号(或整个表达式)
+     * @param to 右括号下标或表达式结尾
+     */
+    private Exp closeGroup(int to) {
+        return reduceGroup(groups.remove(groups.size() - 1), to);
+    }
+
+    /**
+     * 校验并计算括号层级(或函数参数)的值，运算符栈退回该层起始位置
+     * @param to 结束下标(不含)
+     * @return 仅有一个运算符的括号返回 null
+     */
+    private Exp reduceGroup(Group group, int to) {
+        if (group.items == 0) {
+            throw new IllegalStateException("表达式有误请检查");
+        }
+        if ((group.items & 1) == 0) {
+            throw new IllegalStateException("表达式丢失运算符");
+        }
+        if (group.broken()) {
+            String error = group.operandAtOpt ? String.format("%s 无运算符", trimmed(group.from, to))
+                    : group.optAtOperand ? "表达式丢失运算符" : deferredError;
+            // 逐段解析只校验多于三个片段时运算符位置为运算符
+            if (group.function != null || group.operandAtOpt && group.items > 3) {
+                throw new IllegalStateException(error);
+            }
+            defer(error);
+            operands.subList(group.operandBase, operands.size()).clear();
+            operators.setLength(group.optBase);
+            return group.items == 1 && group.optAtOperand ? null : leaf("0");
+        }
+        while (operators.length() > group.optBase) {
+            reduce();
+        }
+        Exp value = operands.remove(operands.size() - 1);
+        // 带运算符的片段记录片段字符串
+        if (group.optCount > 0) {
+            int from = group.from;
+            while (exp.charAt(from) <= ' ') {
+                from++;
+            }
+            while (exp.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            value.setSegment(exp, from, to);
+        }
+        return value;
+    }
+
+    private void reduce() {
+        int size = operands.size();
+        Exp expression = new Exp();
+        expression.type = 2;
+        if (lastOperator() == NOT) {
+            // not x 即 x == 0
+            Exp zero = new Exp();
+            zero.type = 1;
+            zero.segment = "0";
+            expression.opt = '=';
+            expression.values = new Exp[]{operands.get(size - 1), zero};
+            operators.setLength(operators.length() - 1);
+            operands.set(size - 1, expression);
+            return;
+        }
+        expression.opt = lastOperator();
+        expression.values = new Exp[]{operands.get(size - 2), operands.get(size - 1)};
+        operators.setLength(operators.length() - 1);
+        operands.remove(size - 1);
+        operands.set(size - 2, expression);
+    }
+
+    /**
+     * 逐段解析不报错的片段，整个表达式解析完成后报错
+     */
+    private void defer(String error) {
+        if (deferredError == null) {
+            deferredError = error;
+        }
+    }
+
+    private char lastOperator() {
+        return operators.charAt(operators.length() - 1);
+    }
+
+    private Group currentGroup() {
+        return groups.get(groups.size() - 1);
+    }
+
+    private String trimmed(int from, int to) {
+        while (from < to && exp.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && exp.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return exp.substring(from, to);
+    }
+
+    /**
+     * 最外层不闭合的左括号下标，遇到多余右括号时由解析过程报错
+     */
+    private int findUnclosedIdx() {
+        int depth = 0, open = -1, match = 0;
+        for (int i = begin; i < end; i++) {
+            // 跳过变量名区间
+            while (matches != null && match < matches.size && matches.from[match] < i) {
+                match++;
+            }
+            if (matches != null && match < matches.size && matches.from[match] == i) {
+                i = matches.to[match++] - 1;
+                continue;
+            }
+            char c = exp.charAt(i);
+            if (c == '(') {
+                if (depth == 0) {
+                    open = i;
+                }
+                depth++;
+            } else if (c == ')') {
+                if (depth == 0) {
+                    return -1;
+                }
+                depth--;
+            }
+        }
+        return depth > 0 ? open : -1;
+    }
+
+    /**
+     * 下标是否为下一个变量名区间的开始，跳过已越过的区间
+     */
+    private boolean isMatchStart(int i) {
+        if (matches == null) {
+            return false;
+        }
+        while (nextMatch < matches.size && matches.from[nextMatch] < i) {
+            nextMatch++;
+        }
+        return nextMatch < matches.size && matches.from[nextMatch] == i;
+    }
+
+    private static int priority(char opt) {
+        switch (opt) {
+            case '*': case '/':
+                return 6;
+            case '+': case '-':
+                return 5;
+            case NOT:
+                return 3;
+            case '&':
+                return 2;
+            case '|':
+                return 1;
+            default:
+                return 4;
+        }
+    }
+
+    static boolean isToken(char c) {
+        return c == '(' || c == ')' || c == '*' || c == '/' || c == '+' || c == '-'
+                || c == '>' || c == '<' || c == '=' || c == '!' || c == ',';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * 预先匹配的变量名区间 [from, to) 及对应变量名
+     */
+    static final class Matches {
+
+        int size;
+
+        int[] from;
+
+        int[] to;
+
+        String[] names;
+
+        Matches(int capacity) {
+            from = new int[capacity];
+            to = new int[capacity];
+            names = new String[capacity];
+        }
+
+        void add(int from, int to, String name) {
+            if (size == this.from.length) {
+                int capacity = Math.max(8, size * 2);
+                this.from = Arrays.copyOf(this.from, capacity);
+                this.to = Arrays.copyOf(this.to, capacity);
+                this.names = Arrays.copyOf(this.names, capacity);
+            }
+            this.from[size] = from;
+            this.to[size] = to;
+            this.names[size] = name;
+            size++;
+        }
+    }
+
+    /**
+     * 不能被变量名区间拆分的词: 单独的 and、or、not 及后跟左括号的函数名
+     * 变量名区间开始或结束于词内部、或整体在词内时该区间无效，区间可完整包含词
+     */
+    static final class Reserved {
+
+        /** 字符所在词的下标，-1 不在词内 */
+        private final int[] owner;
+
+        private int[] starts = new int[4];
+
+        private int[] ends = new int[4];
+
+        private int size;
+
+        private Reserved(int length) {
+            owner = new int[length];
+            Arrays.fill(owner, -1);
+        }
+
+        /**
+         * @return 没有保留词时返回 null
+         */
+        static Reserved of(String text) {
+            Reserved reserved = null;
+            int len = text.length();
+            int i = 0;
+            while (i < len) {
+                char c = text.charAt(i);
+                if (!Character.isLetter(c) && c != '_') {
+                    i++;
+                    continue;
+                }
+                int to = i + 1;
+                while (to < len && (Character.isLetterOrDigit(text.charAt(to)) || text.charAt(to) == '_')) {
+                    to++;
+                }
+                if ((i == 0 || isKeywordBoundary(text.charAt(i - 1))) && (to == len || isKeywordBoundary(text.charAt(to)))
+                        && (isKeywordText(text, i, to) || isFunctionName(text, i, to))) {
+                    if (reserved == null) {
+                        reserved = new Reserved(len);
+                    }
+                    reserved.add(i, to);
+                }
+                i = to;
+            }
+            return reserved;
+        }
+
+        private static boolean isKeywordText(String text, int from, int to) {
+            int len = to - from;
+            return len == 3 && (text.regionMatches(true, from, "and", 0, 3) || text.regionMatches(true, from, "not", 0, 3))
+                    || len == 2 && text.regionMatches(true, from, "or", 0, 2);
+        }
+
+        private static boolean isFunctionName(String text, int from, int to) {
+            int next = to;
+            while (next < text.length() && text.charAt(next) <= ' ') {
+                next++;
+            }
+            return next < text.length() && (text.charAt(next) == '(' || text.charAt(next) == '（')
+                    && ExpressionFunctions.lookup(text.substring(from, to)) != null;
+        }
+
+        private void add(int from, int to) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = from;
+            ends[size] = to;
+            Arrays.fill(owner, from, to, size);
+            size++;
+        }
+
+        /**
+         * 区间 [from, to) 是否拆分了词
+         */
+        boolean splits(int from, int to) {
+            int first = owner[from];
+            if (first >= 0 && (from > starts[first] || to <= ends[first])) {
+                return true;
+            }
+            int last = owner[to - 1];
+            return last >= 0 && to < ends[last];
+        }
+    }
+
+    /**
+     * 括号层级
+     */
+    private static class Group {
+
+        /** 左括号后一位下标 */
+        int from;
+
+        /** 该层在运算符栈、操作值栈的起始位置 */
+        int optBase;
+        int operandBase;
+
+        /** 该层操作值与运算符个数 */
+        int items;
+
+        /** 该层运算符个数 */
+        int optCount;
+
+        /** 操作值出现在运算符位置 */
+        boolean operandAtOpt;
+
+        /** 运算符出现在操作值位置 */
+        boolean optAtOperand;
+
+        /** 有仅含一个运算符的括号，逐段解析不报错，解析完成后报错 */
+        boolean deferred;
+
+        /** 函数调用的函数，括号层级为 null */
+        ExpressionFunctions.Definition function;
+
+        /** 函数名开始下标 */
+        int nameFrom;
+
+        /** 已解析的函数参数 */
+        List<Exp> args;
+
+        boolean broken() {
+            return operandAtOpt || optAtOperand || deferred;
+        }
+
+        /**
+         * 开始下一个函数参数
+         */
+        void reset(int from) {
+            this.from = from;
+            items = 0;
+            optCount = 0;
+            operandAtOpt = false;
+            optAtOperand = false;
+            deferred = false;
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 按表达式结果取前 K 名，如按指标公式给 200 万门店排名取前 100
+ * 变量列按块(每块 {@link BatchExpression#BLOCK_SIZE} 行)计算后逐行加入 {@link TopK}，不保存全部结果，编号为行号
+ * 可按行区间分区并行计算、各分区前 K 名合并，或用 {@link #stream(Consumer)} 逐行加入、前 K 名变化时按间隔回调
+ * 被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致
+ * 实例不可变，可多线程共用
+ */
+public final class ExpressionRanker {
+
+    /** 逐行加入时默认排名回调间隔行数 */
+    public static final int DEFAULT_EMIT_INTERVAL = BatchExpression.BLOCK_SIZE;
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    private final BatchExpression batch;
+
+    private final StackExpression program;
+
+    /** 规则模板，每次排名复制 */
+    private final TopK template;
+
+    private ExpressionRanker(Exp exp, TopK template) {
+        VarSlots slots = VarSlots.of(exp);
+        this.batch = BatchExpression.of(exp, slots);
+        this.program = StackExpression.compile(exp, slots);
+        this.template = template;
+    }
+
+    /**
+     * 结果最高的 K 行，结果相同时行号小的在前
+     */
+    public static ExpressionRanker of(Exp exp, int k) {
+        return new ExpressionRanker(exp, TopK.highest(k));
+    }
+
+    /**
+     * @param highest 是否结果高的在前
+     * @param tieBreak 结果相同时的排名规则
+     */
+    public static ExpressionRanker of(Exp exp, int k, boolean highest, TopK.TieBreak tieBreak) {
+        return new ExpressionRanker(exp, TopK.of(k, highest, tieBreak));
+    }
+
+    /**
+     * 变量列槽位布局
+     */
+    public VarSlots getSlots() {
+        return batch.getSlots();
+    }
+
+    /**
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param rows 行数
+     */
+    public TopK.Ranking rank(Map<String, double[]> columns, int rows) {
+        return rank(columns, rows, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param rows 行数
+     * @param nonVarValueProvider 变量列不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public TopK.Ranking rank(Map<String, double[]> columns, int rows,
+                             Function<String, Double> nonVarValueProvider,
+                             BiFunction<Double, Double, Double> dividendZeroCalc) {
+        double[][] bound = bind(columns);
+        BatchExpression.Missing missing = batch.missing(bound, resolved(columns), nonVarValueProvider);
+        TopK topK = template.newEmpty();
+        rank(bound, missing, 0, rows, dividendZeroCalc, topK);
+        return topK.toRanking();
+    }
+
+    /**
+     * 按行区间分为 partitions 个分区并行计算，各分区前 K 名合并
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param rows 行数
+     * @param nonVarValueProvider 变量列不存在时的值provider，只在调用线程调用
+     * @param dividendZeroCalc 被除数等于0时算法，需线程安全
+     * @param executor 执行分区的线程池
+     */
+    public TopK.Ranking rank(Map<String, double[]> columns, int rows, int partitions,
+                             Function<String, Double> nonVarValueProvider,
+                             BiFunction<Double, Double, Double> dividendZeroCalc,
+                             Executor executor) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions需大于0");
+        }
+        double[][] bound = bind(columns);
+        BatchExpression.Missing missing = batch.missing(bound, resolved(columns), nonVarValueProvider);
+        // 分区边界按块对齐
+        int blocks = (rows + BatchExpression.BLOCK_SIZE - 1) / BatchExpression.BLOCK_SIZE;
+        int rowsPerPartition = (blocks + partitions - 1) / partitions * BatchExpression.BLOCK_SIZE;
+        List<TopK> partials = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < rows; from += rowsPerPartition) {
+            int fromRow = from;
+            int toRow = Math.min(rows, from + rowsPerPartition);
+            TopK partial = template.newEmpty();
+            partials.add(partial);
+            futures.add(CompletableFuture.runAsync(
+                    () -> rank(bound, missing, fromRow, toRow, dividendZeroCalc, partial), executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+        TopK topK = template.newEmpty();
+        for (TopK partial : partials) {
+            topK.merge(partial);
+        }
+        return topK.toRanking();
+    }
+
+    private void rank(double[][] columns, BatchExpression.Missing missing, int fromRow, int toRow,
+                      BiFunction<Double, Double, Double> dividendZeroCalc, TopK topK) {
+        BatchExpression.Scratch scratch = new BatchExpression.Scratch();
+        double[] block = new double[BatchExpression.BLOCK_SIZE];
+        for (int from = fromRow; from < toRow; from += BatchExpression.BLOCK_SIZE) {
+            int to = Math.min(toRow, from + BatchExpression.BLOCK_SIZE);
+            batch.calc(columns, missing, block, from, from, to, dividendZeroCalc, scratch);
+            for (int row = from; row < to; row++) {
+                topK.offer(block[row - from], row);
+            }
+        }
+    }
+
+    private double[][] bind(Map<String, double[]> columns) {
+        VarSlots slots = batch.getSlots();
+        double[][] bound = new double[slots.size()][];
+        for (int i = 0; i < bound.length; i++) {
+            bound[i] = columns.get(slots.nameOf(i));
+        }
+        return bound;
+    }
+
+    /**
+     * 列为 null 的变量值为0
+     */
+    private Map<String, Double> resolved(Map<String, double[]> columns) {
+        VarSlots slots = batch.getSlots();
+        Map<String, Double> resolved = new HashMap<>();
+        for (int i = 0; i < slots.size(); i++) {
+            String name = slots.nameOf(i);
+            if (columns.get(name) == null && columns.containsKey(name)) {
+                resolved.put(name, 0d);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * 逐行加入的排名，前 K 名变化后每 {@link #DEFAULT_EMIT_INTERVAL} 行最多回调一次
+     * @param onChange 前 K 名变化时回调当前排名，在加入行的线程调用
+     */
+    public Streaming stream(Consumer<TopK.Ranking> onChange) {
+        return new Streaming(onChange, DEFAULT_EMIT_INTERVAL, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * @param onChange 前 K 名变化时回调当前排名，在加入行的线程调用
+     * @param nonVarValueProvider 表达式变量不在行变量中时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public Streaming stream(Consumer<TopK.Ranking> onChange,
+                            Function<String, Double> nonVarValueProvider,
+                            BiFunction<Double, Double, Double> dividendZeroCalc) {
+        return new Streaming(onChange, DEFAULT_EMIT_INTERVAL, nonVarValueProvider, dividendZeroCalc);
+    }
+
+    /**
+     * @param onChange 前 K 名变化时回调当前排名，在加入行的线程调用
+     * @param emitInterval 回调间隔行数: 前 K 名变化且距上次回调已加入不少于 emitInterval 行时回调，1 为每次变化都回调
+     * @param nonVarValueProvider 表达式变量不在行变量中时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public Streaming stream(Consumer<TopK.Ranking> onChange, int emitInterval,
+                            Function<String, Double> nonVarValueProvider,
+                            BiFunction<Double, Double, Double> dividendZeroCalc) {
+        if (emitInterval < 1) {
+            throw new IllegalArgumentException("emitInterval需大于0");
+        }
+        return new Streaming(onChange, emitInterval, nonVarValueProvider, dividendZeroCalc);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionRanker{" + template + '}';
+    }
+
+    /**
+     * 逐行加入的排名，内存与已加入行数无关
+     * 排名只在回调、{@link #flush()}、{@link #getRanking()} 时生成，加入行时不排序
+     * 非线程安全
+     */
+    public final class Streaming {
+
+        private final TopK topK = template.newEmpty();
+
+        private final Consumer<TopK.Ranking> onChange;
+
+        private final int emitInterval;
+
+        private final Function<String, Double> nonVarValueProvider;
+
+        private final BiFunction<Double, Double, Double> dividendZeroCalc;
+
+        private final double[] row = program.getSlots().newRow();
+
+        private final long[] presentMask = program.getSlots().newPresentMask();
+
+        private final double[] stack = program.newStack();
+
+        /** 上次回调后加入的行数 */
+        private long pendingRows;
+
+        /** 上次回调后前 K 名是否变化 */
+        private boolean changed;
+
+        private Streaming(Consumer<TopK.Ranking> onChange, int emitInterval,
+                          Function<String, Double> nonVarValueProvider,
+                          BiFunction<Double, Double, Double> dividendZeroCalc) {
+            this.onChange = onChange;
+            this.emitInterval = emitInterval;
+            this.nonVarValueProvider = nonVarValueProvider;
+            this.dividendZeroCalc = dividendZeroCalc;
+        }
+
+        /**
+         * 按变量 Map 计算并加入一行
+         * @param id 行编号
+         * @return 是否进入前 K 名
+         */
+        public boolean accept(long id, Map<String, Double> variableMap) {
+            program.getSlots().fill(variableMap, row, presentMask);
+            return accept(id, program.calc(row, presentMask, nonVarValueProvider, dividendZeroCalc, stack));
+        }
+
+        /**
+         * 加入已计算的一行
+         * @param id 行编号
+         * @param score 表达式结果
+         * @return 是否进入前 K 名
+         */
+        public boolean accept(long id, double score) {
+            pendingRows++;
+            boolean entered = topK.offer(score, id);
+            changed |= entered;
+            if (changed && pendingRows >= emitInterval) {
+                emit();
+            }
+            return entered;
+        }
+
+        /**
+         * 前 K 名在上次回调后有变化时立即回调，如加入最后一行后
+         */
+        public void flush() {
+            if (changed) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            changed = false;
+            pendingRows = 0;
+            onChange.accept(topK.toRanking());
+        }
+
+        /**
+         * 当前排名
+         */
+        public TopK.Ranking getRanking() {
+            return topK.toRanking();
+        }
+    }
+
+}
@@ -0,0 +1,394 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 命名公式依赖图
+ * 公式可引用其他公式，如 gross_margin = (revenue - cost) / revenue，revenue 也是公式
+ * 注册时检测循环引用，按拓扑顺序计算全部公式，每个公式只计算一次；
+ * 增量计算时修改输入变量只重新计算依赖该变量的下游公式
+ * 注册公式非线程安全，注册完成后可多线程计算
+ */
+public class FormulaGraph {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 公式名 -> 公式，按注册顺序 */
+    private final Map<String, Exp> formulas = new LinkedHashMap<>();
+
+    /** 公式名 -> 引用的变量名 */
+    private final Map<String, Set<String>> references = new HashMap<>();
+
+    /** 计算计划，注册公式后重新生成 */
+    private volatile Plan plan;
+
+    /**
+     * 注册公式，已存在同名公式时替换
+     * @throws IllegalStateException 公式循环引用
+     */
+    public FormulaGraph register(String name, Exp exp) {
+        Set<String> refs = new LinkedHashSet<>();
+        for (Exp node : ExpressionCompiler.postOrder(exp)) {
+            if (node.type == 3) {
+                refs.add(node.varName);
+            }
+        }
+        List<String> cycle = findPath(refs, name);
+        if (cycle != null) {
+            cycle.add(0, name);
+            throw new IllegalStateException("公式循环引用: " + String.join(" -> ", cycle));
+        }
+        formulas.put(name, exp);
+        references.put(name, refs);
+        plan = null;
+        return this;
+    }
+
+    public FormulaGraph register(String name, String formula) {
+        return register(name, ExpressionCalc.parseExp(formula));
+    }
+
+    /**
+     * 从 froms 出发沿公式引用能否到达 target，能到达返回路径
+     */
+    private List<String> findPath(Set<String> froms, String target) {
+        Map<String, String> parents = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String from : froms) {
+            if (parents.putIfAbsent(from, from) == null) {
+                stack.push(from);
+            }
+        }
+        while (!stack.isEmpty()) {
+            String name = stack.pop();
+            if (name.equals(target)) {
+                List<String> path = new ArrayList<>();
+                for (String node = name; ; node = parents.get(node)) {
+                    path.add(0, node);
+                    if (parents.get(node).equals(node)) {
+                        return path;
+                    }
+                }
+            }
+            for (String ref : references.getOrDefault(name, Collections.emptySet())) {
+                if (parents.putIfAbsent(ref, name) == null) {
+                    stack.push(ref);
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String name) {
+        return formulas.containsKey(name);
+    }
+
+    public Set<String> names() {
+        return formulas.keySet();
+    }
+
+    /**
+     * 计算全部公式
+     * @param inputs 输入变量值
+     * @return 公式名 -> 计算结果
+     */
+    public Map<String, Double> calc(Map<String, Double> inputs) {
+        return calc(inputs, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 计算全部公式
+     * @param inputs 输入变量值
+     * @param nonVarValueProvider 变量既不是公式也不在 inputs 时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @return 公式名 -> 计算结果
+     */
+    public Map<String, Double> calc(Map<String, Double> inputs,
+                                    Function<String, Double> nonVarValueProvider,
+                                    BiFunction<Double, Double, Double> dividendZeroCalc) {
+        return newEvaluation(inputs, nonVarValueProvider, dividendZeroCalc).values();
+    }
+
+    public Evaluation newEvaluation(Map<String, Double> inputs) {
+        return newEvaluation(inputs, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 新建增量计算，非线程安全
+     * @param inputs 初始输入变量值
+     * @param nonVarValueProvider 变量既不是公式也不是输入变量时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public Evaluation newEvaluation(Map<String, Double> inputs,
+                                    Function<String, Double> nonVarValueProvider,
+                                    BiFunction<Double, Double, Double> dividendZeroCalc) {
+        Evaluation evaluation = new Evaluation(plan(), nonVarValueProvider, dividendZeroCalc);
+        for (Map.Entry<String, Double> input : inputs.entrySet()) {
+            int slot = evaluation.plan.slots.slotOf(input.getKey());
+            if (slot >= 0 && evaluation.plan.formulaOfSlot[slot] < 0) {
+                evaluation.setSlot(slot, input.getValue() == null ? 0d : input.getValue());
+            }
+        }
+        return evaluation;
+    }
+
+    private synchronized Plan plan() {
+        Plan current = plan;
+        if (current == null) {
+            current = new Plan(formulas, references);
+            plan = current;
+        }
+        return current;
+    }
+
+    /**
+     * 计算计划: 公式名及引用变量统一分配槽位，公式按拓扑顺序排列
+     */
+    private static final class Plan {
+
+        final VarSlots slots;
+
+        /** 按拓扑顺序的公式名 */
+        final String[] names;
+
+        /** 按拓扑顺序的公式 */
+        final BoundExpression[] exps;
+
+        /** 公式结果槽位 */
+        final int[] resultSlots;
+
+        /** 槽位对应的公式下标，不是公式为 -1 */
+        final int[] formulaOfSlot;
+
+        /** 槽位 -> 直接引用该槽位的公式下标 */
+        final int[][] dependents;
+
+        /** 全部公式计算所需最大栈深度 */
+        final int maxStackDepth;
+
+        Plan(Map<String, Exp> formulas, Map<String, Set<String>> references) {
+            // 拓扑排序，被引用的公式在前
+            Map<String, Integer> inDegree = new HashMap<>();
+            Map<String, List<String>> users = new HashMap<>();
+            for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+                int degree = 0;
+                for (String ref : entry.getValue()) {
+                    if (formulas.containsKey(ref)) {
+                        degree++;
+                        users.computeIfAbsent(ref, k -> new ArrayList<>()).add(entry.getKey());
+                    }
+                }
+                inDegree.put(entry.getKey(), degree);
+            }
+            Deque<String> ready = new ArrayDeque<>();
+            for (String name : formulas.keySet()) {
+                if (inDegree.get(name) == 0) {
+                    ready.add(name);
+                }
+            }
+            List<String> order = new ArrayList<>(formulas.size());
+            while (!ready.isEmpty()) {
+                String name = ready.poll();
+                order.add(name);
+                for (String user : users.getOrDefault(name, Collections.emptyList())) {
+                    if (inDegree.merge(user, -1, Integer::sum) == 0) {
+                        ready.add(user);
+                    }
+                }
+            }
+
+            Set<String> allNames = new LinkedHashSet<>(order);
+            for (String name : order) {
+                allNames.addAll(references.get(name));
+            }
+            slots = VarSlots.of(allNames.toArray(new String[0]));
+            names = order.toArray(new String[0]);
+            exps = new BoundExpression[names.length];
+            resultSlots = new int[names.length];
+            formulaOfSlot = new int[slots.size()];
+            Arrays.fill(formulaOfSlot, -1);
+            List<List<Integer>> slotUsers = new ArrayList<>(slots.size());
+            for (int i = 0; i < slots.size(); i++) {
+                slotUsers.add(new ArrayList<>(2));
+            }
+            int maxDepth = 0;
+            for (int i = 0; i < names.length; i++) {
+                exps[i] = BoundExpression.bind(formulas.get(names[i]), slots);
+                maxDepth = Math.max(maxDepth, exps[i].getMaxStackDepth());
+                resultSlots[i] = slots.slotOf(names[i]);
+                formulaOfSlot[resultSlots[i]] = i;
+                for (String ref : references.get(names[i])) {
+                    slotUsers.get(slots.slotOf(ref)).add(i);
+                }
+            }
+            dependents = new int[slots.size()][];
+            for (int i = 0; i < dependents.length; i++) {
+                dependents[i] = slotUsers.get(i).stream().mapToInt(Integer::intValue).toArray();
+            }
+            maxStackDepth = maxDepth;
+        }
+    }
+
+    /**
+     * 增量计算
+     * 修改输入变量后，下次取值时只重新计算依赖该变量的下游公式，非线程安全
+     */
+    public static final class Evaluation {
+
+        private final Plan plan;
+
+        private final ToDoubleFunction<String> nonVarValueProvider;
+
+        private final DoubleBinaryOperator dividendZeroCalc;
+
+        /** 全部槽位的值 */
+        private final double[] row;
+
+        /** 已有值的槽位 */
+        private final long[] present;
+
+        /** 待重新计算的公式(拓扑顺序下标) */
+        private final boolean[] dirty;
+
+        /** 操作数栈，各公式共用 */
+        private final double[] stack;
+
+        /** 标记下游公式时待处理的槽位，每个公式至多入栈一次 */
+        private final int[] dirtySlots;
+
+        private int dirtyCount;
+
+        /** 累计计算公式次数 */
+        private long calcCount;
+
+        private Evaluation(Plan plan,
+                           Function<String, Double> nonVarValueProvider,
+                           BiFunction<Double, Double, Double> dividendZeroCalc) {
+            this.plan = plan;
+            this.nonVarValueProvider = varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d);
+            this.dividendZeroCalc = (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d);
+            this.row = plan.slots.newRow();
+            this.present = plan.slots.newPresentMask();
+            this.dirty = new boolean[plan.names.length];
+            this.stack = new double[plan.maxStackDepth];
+            this.dirtySlots = new int[plan.names.length + 1];
+            Arrays.fill(dirty, true);
+            this.dirtyCount = dirty.length;
+        }
+
+        /**
+         * 修改输入变量，依赖该变量的公式标记为待重新计算
+         */
+        public Evaluation set(String input, double value) {
+            int slot = plan.slots.slotOf(input);
+            if (slot < 0) {
+                // 没有公式引用该变量
+                return this;
+            }
+            if (plan.formulaOfSlot[slot] >= 0) {
+                throw new IllegalArgumentException("[" + input + "]为公式，不能修改值");
+            }
+            setSlot(slot, value);
+            return this;
+        }
+
+        private void setSlot(int slot, double value) {
+            if (VarSlots.isPresent(present, slot) && Double.compare(row[slot], value) == 0) {
+                return;
+            }
+            row[slot] = value;
+            VarSlots.markPresent(present, slot);
+            markDirty(slot);
+        }
+
+        /**
+         * 下游公式全部标记为待重新计算
+         */
+        private void markDirty(int slot) {
+            int top = 0;
+            dirtySlots[top++] = slot;
+            while (top > 0) {
+                for (int formula : plan.dependents[dirtySlots[--top]]) {
+                    if (!dirty[formula]) {
+                        dirty[formula] = true;
+                        dirtyCount++;
+                        dirtySlots[top++] = plan.resultSlots[formula];
+                    }
+                }
+            }
+        }
+
+        /**
+         * 按拓扑顺序重新计算待计算的公式
+         */
+        private void recalc() {
+            if (dirtyCount == 0) {
+                return;
+            }
+            for (int i = 0; i < dirty.length && dirtyCount > 0; i++) {
+                if (!dirty[i]) {
+                    continue;
+                }
+                int slot = plan.resultSlots[i];
+                row[slot] = plan.exps[i].calcUnboxed(row, present, nonVarValueProvider, dividendZeroCalc, stack);
+                VarSlots.markPresent(present, slot);
+                dirty[i] = false;
+                dirtyCount--;
+                calcCount++;
+            }
+        }
+
+        /**
+         * 公式计算结果
+         */
+        public double get(String name) {
+            int slot = plan.slots.slotOf(name);
+            if (slot < 0 || plan.formulaOfSlot[slot] < 0) {
+                throw new IllegalArgumentException("公式[" + name + "]不存在");
+            }
+            recalc();
+            return row[slot];
+        }
+
+        /**
+         * 全部公式计算结果，按拓扑顺序
+         */
+        public Map<String, Double> values() {
+            recalc();
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (int i = 0; i < plan.names.length; i++) {
+                values.put(plan.names[i], row[plan.resultSlots[i]]);
+            }
+            return values;
+        }
+
+        /**
+         * 累计计算公式次数
+         */
+        public long getCalcCount() {
+            return calcCount;
+        }
+    }
+
+}
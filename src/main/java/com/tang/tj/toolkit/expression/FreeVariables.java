@@ -0,0 +1,92 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 表达式变量集合
+ * 表达式的全部变量名只统计一次，计算前一次性取出变量 Map 中不存在的变量值(批量 provider 只调用一次)，
+ * 替代 {@link ExpressionCalc#calcExp} 中每个变量节点单独调用 nonVarValueProvider
+ * 如: calcExp(exp, vars, freeVariables.resolve(vars, store::getAll), dividendZeroCalc)
+ * 构建后不可变，可多线程共用
+ */
+public final class FreeVariables {
+
+    private final Set<String> names;
+
+    private FreeVariables(Set<String> names) {
+        this.names = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * 多个表达式的全部变量，按首次出现顺序
+     */
+    public static FreeVariables of(Exp... exps) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Exp exp : exps) {
+            for (Exp node : ExpressionCompiler.postOrder(exp)) {
+                if (node.type == 3) {
+                    names.add(node.varName);
+                }
+            }
+        }
+        return new FreeVariables(names);
+    }
+
+    /**
+     * 全部变量名，按首次出现顺序
+     */
+    public Set<String> names() {
+        return names;
+    }
+
+    /**
+     * 一次性取出 variableMap 中不存在的变量值
+     * @param variableMap 变量值，如 Map&lt;String, Double&gt; 变量或 Map&lt;String, double[]&gt; 列
+     * @param bulkProvider 不存在的变量名 -> 变量值，只调用一次，全部变量都存在时不调用；未返回的变量值为0
+     * @return 可作为 calcExp 等的 nonVarValueProvider
+     */
+    public Function<String, Double> resolve(Map<String, ?> variableMap,
+                                            Function<Set<String>, Map<String, Double>> bulkProvider) {
+        return resolve(Collections.singletonList(variableMap), bulkProvider);
+    }
+
+    /**
+     * 一批变量 Map 中任一不存在的变量值一次性取出，该批全部计算共用
+     * @param rows 一批变量值
+     * @param bulkProvider 不存在的变量名 -> 变量值，只调用一次，全部变量都存在时不调用；未返回的变量值为0
+     * @return 可作为 calcExp 等的 nonVarValueProvider
+     */
+    public Function<String, Double> resolve(Collection<? extends Map<String, ?>> rows,
+                                            Function<Set<String>, Map<String, Double>> bulkProvider) {
+        Set<String> missing = null;
+        for (String name : names) {
+            for (Map<String, ?> row : rows) {
+                if (!row.containsKey(name)) {
+                    if (missing == null) {
+                        missing = new LinkedHashSet<>();
+                    }
+                    missing.add(name);
+                    break;
+                }
+            }
+        }
+        if (missing == null) {
+            return name -> null;
+        }
+        Map<String, Double> values = bulkProvider.apply(Collections.unmodifiableSet(missing));
+        return values == null ? name -> null : values::get;
+    }
+
+    @Override
+    public String toString() {
+        return "FreeVariables" + names;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.tang.tj.toolkit.expression;
+
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 后缀指令解释执行，{@link StackExpression}、{@link ExpressionCatalog}、{@link MappedExpressionCatalog} 共用
+ * 指令见 {@link StackExpression}，一段指令为一个公式，跳转目标相对公式第一条指令
+ * 变量按槽位从 double[] 读取或按变量名从 Map 读取，被除数为0、变量不存在时记录指标
+ * 不复制传入的数组，不可变，可多线程共用
+ */
+final class Interpreter {
+
+    private final byte[] codes;
+
+    /** 指令操作数: 常量为常量池下标，变量为槽位(-1 表示不存在)，跳转为公式内指令下标，函数调用为 函数表下标 << 8 | 参数个数 */
+    private final int[] operands;
+
+    private final double[] constants;
+
+    private final ExpressionFunctions.Definition[] functions;
+
+    /** 变量名，下标为槽位(namesBySlot)或指令下标 */
+    private final String[] names;
+
+    private final boolean namesBySlot;
+
+    /**
+     * @param names 变量名
+     * @param namesBySlot names 下标为槽位，否则为指令下标(其他指令为 null)
+     */
+    Interpreter(byte[] codes, int[] operands, double[] constants, ExpressionFunctions.Definition[] functions,
+                String[] names, boolean namesBySlot) {
+        this.codes = codes;
+        this.operands = operands;
+        this.constants = constants;
+        this.functions = functions;
+        this.names = names;
+        this.namesBySlot = namesBySlot;
+    }
+
+    /**
+     * 按槽位计算 [start, end) 的指令
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param stack 操作数栈
+     */
+    double calc(int start, int end, double[] row, long[] presentMask,
+                ToDoubleFunction<String> nonVarValueProvider, DoubleBinaryOperator dividendZeroCalc,
+                double[] stack) {
+        return execute(start, end, row, presentMask, null, 0d, nonVarValueProvider, dividendZeroCalc, stack);
+    }
+
+    /**
+     * 按变量 Map 计算 [start, end) 的指令
+     * @param nullValue 变量值为 null 时的值
+     */
+    double calc(int start, int end, Map<String, Double> variableMap, double nullValue,
+                ToDoubleFunction<String> nonVarValueProvider, DoubleBinaryOperator dividendZeroCalc,
+                double[] stack) {
+        return execute(start, end, null, null, variableMap, nullValue, nonVarValueProvider, dividendZeroCalc, stack);
+    }
+
+    private double execute(int start, int end, double[] row, long[] presentMask,
+                           Map<String, Double> variableMap, double nullValue,
+                           ToDoubleFunction<String> nonVarValueProvider, DoubleBinaryOperator dividendZeroCalc,
+                           double[] stack) {
+        byte[] codes = this.codes;
+        int[] operands = this.operands;
+        int sp = -1;
+        for (int pc = start; pc < end; pc++) {
+            switch (codes[pc]) {
+                case StackExpression.CONST:
+                    stack[++sp] = constants[operands[pc]];
+                    break;
+                case StackExpression.VAR:
+                    if (variableMap != null) {
+                        String name = nameOf(pc);
+                        Double value = variableMap.get(name);
+                        if (value != null) {
+                            stack[++sp] = value;
+                        } else if (variableMap.containsKey(name)) {
+                            stack[++sp] = nullValue;
+                        } else {
+                            ExpressionMetrics.recordMissingVariable(name);
+                            stack[++sp] = nonVarValueProvider.applyAsDouble(name);
+                        }
+                        break;
+                    }
+                    int slot = operands[pc];
+                    if (slot < 0 || (presentMask != null && !VarSlots.isPresent(presentMask, slot))) {
+                        String name = nameOf(pc);
+                        ExpressionMetrics.recordMissingVariable(name);
+                        stack[++sp] = nonVarValueProvider.applyAsDouble(name);
+                    } else {
+                        stack[++sp] = row[slot];
+                    }
+                    break;
+                case StackExpression.ADD:
+                    sp--;
+                    stack[sp] = stack[sp] + stack[sp + 1];
+                    break;
+                case StackExpression.SUB:
+                    sp--;
+                    stack[sp] = stack[sp] - stack[sp + 1];
+                    break;
+                case StackExpression.MUL:
+                    sp--;
+                    stack[sp] = stack[sp] * stack[sp + 1];
+                    break;
+                case StackExpression.DIV:
+                    sp--;
+                    double right = stack[sp + 1];
+                    if (right == 0) {
+                        ExpressionMetrics.recordDividedByZero();
+                        stack[sp] = dividendZeroCalc.applyAsDouble(stack[sp], right);
+                    } else {
+                        stack[sp] = stack[sp] / right;
+                    }
+                    break;
+                case StackExpression.JUMP_IF_ZERO:
+                    if (stack[sp--] == 0) {
+                        pc = start + operands[pc] - 1;
+                    }
+                    break;
+                case StackExpression.JUMP:
+                    pc = start + operands[pc] - 1;
+                    break;
+                case StackExpression.JUMP_IF_NUMBER:
+                    if (stack[sp] == stack[sp]) {
+                        pc = start + operands[pc] - 1;
+                    } else {
+                        sp--;
+                    }
+                    break;
+                case StackExpression.OPTIONAL_VAR:
+                    if (variableMap != null) {
+                        String name = nameOf(pc);
+                        Double value = variableMap.get(name);
+                        stack[++sp] = value != null ? value : variableMap.containsKey(name) ? nullValue : Double.NaN;
+                        break;
+                    }
+                    int optional = operands[pc];
+                    boolean present = optional >= 0 && (presentMask == null || VarSlots.isPresent(presentMask, optional));
+                    stack[++sp] = present ? row[optional] : Double.NaN;
+                    break;
+                case StackExpression.CALL:
+                    int call = operands[pc], argc = call & 0xFF;
+                    sp -= argc - 1;
+                    stack[sp] = functions[call >>> 8].apply(stack, sp, argc);
+                    break;
+                default:
+                    sp--;
+                    stack[sp] = ExpressionCalc.predicate(StackExpression.OPTS[codes[pc]], stack[sp], stack[sp + 1]);
+            }
+        }
+        return stack[0];
+    }
+
+    private String nameOf(int pc) {
+        return namesBySlot ? names[operands[pc]] : names[pc];
+    }
+
+}
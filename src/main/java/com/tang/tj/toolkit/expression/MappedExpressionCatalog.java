@@ -0,0 +1,436 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.util.Objs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 内存映射加载的表达式集合
+ * 读取 {@link ExpressionCatalog#writeTo(Path)} 写入的二进制文件，启动时只映射文件、校验文件头，不解析公式文本，
+ * 每个公式首次计算时才解码指令，解码耗时与实际使用的公式个数有关，与公式总数无关
+ * 计算与 {@link ExpressionCatalog} 共用解释器，计算结果、被除数为0及变量不存在时的处理一致；自定义函数需在公式首次计算前注册
+ * 文件格式(大端序，不超过 2GB):
+ * 1.文件头: magic "TJEC"、版本号(short)、保留(short)、公式数、符号数、常量数、函数数、最大栈深度、
+ *   符号表偏移、函数表偏移、公式表偏移(int)
+ * 2.常量池: double 数组
+ * 3.符号表、函数表: 各字符串结束位置 int 数组(个数 + 1，首个为0)，之后为 UTF-8 字节
+ * 4.公式表: 各公式记录开始位置 int 数组(个数 + 1)，之后为公式记录:
+ *   指令数(varint)，每条指令为指令码(byte)加操作数(varint，只有常量、变量、跳转、函数调用指令有)，
+ *   原始表达式 UTF-8 字节数 + 1(varint，0 表示 null)及字节
+ * 指令同 {@link StackExpression}，格式变化时版本号加1，不兼容的版本不能加载
+ * 可多线程计算，多线程同时首次计算同一公式时可能重复解码，结果相同
+ */
+public final class MappedExpressionCatalog {
+
+    /** 文件头 "TJEC" */
+    static final int MAGIC = 0x544A4543;
+
+    /** 文件格式版本 */
+    static final short VERSION = 1;
+
+    /** 文件头字节数，常量池紧随其后 */
+    static final int HEADER_SIZE = 40;
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    private final ByteBuffer buffer;
+
+    private final int formulaCount;
+
+    private final int symbolCount;
+
+    private final int constantCount;
+
+    private final int maxStackDepth;
+
+    private final int symbolsOffset;
+
+    private final int functionsOffset;
+
+    /** 公式记录开始位置数组的偏移 */
+    private final int formulasOffset;
+
+    /** 公式记录的起始偏移 */
+    private final int recordsOffset;
+
+    /** 已解码的公式，未解码为 null */
+    private final Formula[] formulas;
+
+    /** 已解码的符号 */
+    private final String[] symbols;
+
+    /** 已查找的函数 */
+    private final ExpressionFunctions.Definition[] functions;
+
+    /** 变量名 -> 符号编号，首次按变量名查找时解码全部符号 */
+    private volatile Map<String, Integer> symbolIds;
+
+    private MappedExpressionCatalog(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("不是表达式目录文件");
+        }
+        short version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的表达式目录版本:" + version);
+        }
+        this.buffer = buffer;
+        this.formulaCount = buffer.getInt(8);
+        this.symbolCount = buffer.getInt(12);
+        this.constantCount = buffer.getInt(16);
+        int functionCount = buffer.getInt(20);
+        this.maxStackDepth = buffer.getInt(24);
+        this.symbolsOffset = buffer.getInt(28);
+        this.functionsOffset = buffer.getInt(32);
+        this.formulasOffset = buffer.getInt(36);
+        this.recordsOffset = formulasOffset + 4 * (formulaCount + 1);
+        if (formulaCount < 0 || symbolCount < 0 || constantCount < 0 || functionCount < 0
+                || symbolsOffset != HEADER_SIZE + 8L * constantCount
+                || functionsOffset < symbolsOffset || formulasOffset < functionsOffset
+                || recordsOffset < formulasOffset || recordsOffset > buffer.limit()) {
+            throw new IllegalArgumentException("表达式目录文件已损坏");
+        }
+        this.formulas = new Formula[formulaCount];
+        this.symbols = new String[symbolCount];
+        this.functions = new ExpressionFunctions.Definition[functionCount];
+    }
+
+    /**
+     * 只读映射文件，映射在关闭文件后仍有效
+     */
+    public static MappedExpressionCatalog open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("表达式目录文件超过2GB");
+            }
+            return new MappedExpressionCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * 从内存中的文件内容加载，如 classpath 资源，文件内容为 buffer 当前位置至 limit，之后不能再修改
+     */
+    public static MappedExpressionCatalog wrap(ByteBuffer buffer) {
+        return new MappedExpressionCatalog(buffer.slice().order(ByteOrder.BIG_ENDIAN));
+    }
+
+    /**
+     * 指令是否有操作数
+     */
+    static boolean hasOperand(byte code) {
+        return code == StackExpression.CONST || code == StackExpression.VAR || code == StackExpression.OPTIONAL_VAR
+                || code == StackExpression.JUMP_IF_ZERO || code == StackExpression.JUMP
+                || code == StackExpression.JUMP_IF_NUMBER || code == StackExpression.CALL;
+    }
+
+    /**
+     * 公式个数
+     */
+    public int size() {
+        return formulaCount;
+    }
+
+    /**
+     * 已解码的公式个数
+     */
+    public int getDecodedCount() {
+        int count = 0;
+        for (Formula formula : formulas) {
+            if (formula != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 公式原始表达式，每次调用从文件解码
+     */
+    public String getSource(int formula) {
+        Formula decoded = formula(formula);
+        return decoded.sourceLength < 0 ? null : string(decoded.sourcePosition, decoded.sourceLength);
+    }
+
+    /**
+     * 符号(变量名)个数，符号编号为 0 ~ symbolCount - 1
+     */
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    /**
+     * 变量名的符号编号，不存在返回 -1；首次调用时解码全部符号
+     */
+    public int symbolOf(String name) {
+        Map<String, Integer> ids = symbolIds;
+        if (ids == null) {
+            ids = new HashMap<>(symbolCount * 4 / 3 + 1);
+            for (int i = 0; i < symbolCount; i++) {
+                ids.put(symbolName(i), i);
+            }
+            symbolIds = ids;
+        }
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String symbolName(int symbol) {
+        String name = symbols[symbol];
+        if (name == null) {
+            name = entry(symbolsOffset, symbolCount, symbol);
+            symbols[symbol] = name;
+        }
+        return name;
+    }
+
+    /**
+     * 新建一行变量值，下标为符号编号
+     */
+    public double[] newRow() {
+        return new double[symbolCount];
+    }
+
+    /**
+     * 新建操作数栈，可用于计算任意公式
+     */
+    public double[] newStack() {
+        return new double[maxStackDepth];
+    }
+
+    public double calc(int formula, Map<String, Double> variableMap) {
+        return calc(formula, variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 按变量 Map 计算公式，同 {@link ExpressionCatalog#calc(int, Map, Function, BiFunction)}
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(int formula, Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        Formula decoded = formula(formula);
+        ExpressionMetrics.Timer timer = timer(decoded);
+        if (timer == null) {
+            return calcMap(decoded, variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = calcMap(decoded, variableMap, nonVarValueProvider, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    private double calcMap(Formula decoded, Map<String, Double> variableMap,
+                           Function<String, Double> nonVarValueProvider,
+                           BiFunction<Double, Double, Double> dividendZeroCalc) {
+        return decoded.interpreter.calc(0, decoded.size, variableMap, 0d,
+                varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d),
+                (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d), newStack());
+    }
+
+    /**
+     * 计算公式
+     * @param row 变量值，下标为符号编号
+     * @param presentMask 变量存在位图(同 {@link VarSlots#isPresent})，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @param stack 操作数栈，见 {@link #newStack()}
+     */
+    public double calc(int formula, double[] row, long[] presentMask,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc,
+                       double[] stack) {
+        Formula decoded = formula(formula);
+        ExpressionMetrics.Timer timer = timer(decoded);
+        if (timer == null) {
+            return calcRow(decoded, row, presentMask, nonVarValueProvider, dividendZeroCalc, stack);
+        }
+        long start = System.nanoTime();
+        double value = calcRow(decoded, row, presentMask, nonVarValueProvider, dividendZeroCalc, stack);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    private static double calcRow(Formula decoded, double[] row, long[] presentMask,
+                                  Function<String, Double> nonVarValueProvider,
+                                  BiFunction<Double, Double, Double> dividendZeroCalc,
+                                  double[] stack) {
+        return decoded.interpreter.calc(0, decoded.size, row, presentMask,
+                varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d),
+                (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d), stack);
+    }
+
+    /**
+     * 公式的计时，未安装指标监听返回 null；首次计时时解码原始表达式
+     */
+    private ExpressionMetrics.Timer timer(Formula decoded) {
+        if (ExpressionMetrics.current() == null) {
+            return null;
+        }
+        ExpressionMetrics.Site site = decoded.site;
+        if (site == null) {
+            site = ExpressionMetrics.site(decoded.sourceLength < 0
+                    ? null : string(decoded.sourcePosition, decoded.sourceLength));
+            decoded.site = site;
+        }
+        return site.timer();
+    }
+
+    /**
+     * 已解码的公式，未解码时解码
+     */
+    private Formula formula(int formula) {
+        if (formula < 0 || formula >= formulaCount) {
+            throw new IndexOutOfBoundsException("公式编号[" + formula + "]不存在");
+        }
+        Formula decoded = formulas[formula];
+        if (decoded == null) {
+            decoded = decode(formula);
+            formulas[formula] = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * 解码公式记录，常量、函数换为公式内下标，变量保留符号编号
+     */
+    private Formula decode(int formula) {
+        int[] position = {recordsOffset + buffer.getInt(formulasOffset + 4 * formula)};
+        int size = varInt(position);
+        byte[] codes = new byte[size];
+        int[] operands = new int[size];
+        int constantSize = 0, functionSize = 0;
+        for (int pc = 0; pc < size; pc++) {
+            byte code = buffer.get(position[0]++);
+            codes[pc] = code;
+            if (hasOperand(code)) {
+                operands[pc] = varInt(position);
+            }
+            if (code == StackExpression.CONST) {
+                constantSize++;
+            } else if (code == StackExpression.CALL) {
+                functionSize++;
+            }
+        }
+        String[] varNames = new String[size];
+        double[] constants = new double[constantSize];
+        ExpressionFunctions.Definition[] calls = new ExpressionFunctions.Definition[functionSize];
+        constantSize = 0;
+        functionSize = 0;
+        for (int pc = 0; pc < size; pc++) {
+            int operand = operands[pc];
+            if (codes[pc] == StackExpression.CONST) {
+                if (operand >= constantCount) {
+                    throw new IllegalArgumentException("表达式目录文件已损坏");
+                }
+                constants[constantSize] = buffer.getDouble(HEADER_SIZE + 8 * operand);
+                operands[pc] = constantSize++;
+            } else if (codes[pc] == StackExpression.VAR || codes[pc] == StackExpression.OPTIONAL_VAR) {
+                varNames[pc] = symbolName(operand);
+            } else if (codes[pc] == StackExpression.CALL) {
+                calls[functionSize] = function(operand >>> 8);
+                operands[pc] = functionSize++ << 8 | operand & 0xFF;
+            }
+        }
+        int sourceLength = varInt(position) - 1;
+        return new Formula(new Interpreter(codes, operands, constants, calls, varNames, false), size,
+                position[0], sourceLength);
+    }
+
+    private ExpressionFunctions.Definition function(int id) {
+        ExpressionFunctions.Definition function = functions[id];
+        if (function == null) {
+            String name = entry(functionsOffset, functions.length, id);
+            function = ExpressionFunctions.lookup(name);
+            if (function == null) {
+                throw new IllegalStateException("未知的函数:" + name);
+            }
+            functions[id] = function;
+        }
+        return function;
+    }
+
+    /**
+     * 符号表、函数表的第 index 个字符串
+     */
+    private String entry(int offset, int count, int index) {
+        int bytesOffset = offset + 4 * (count + 1);
+        int from = buffer.getInt(offset + 4 * index);
+        int to = buffer.getInt(offset + 4 * (index + 1));
+        return string(bytesOffset + from, to - from);
+    }
+
+    private String string(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取无符号 varint(每字节低7位，高位为1表示未结束)
+     */
+    private int varInt(int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedExpressionCatalog{" +
+                "size=" + formulaCount +
+                ", decodedCount=" + getDecodedCount() +
+                ", constantCount=" + constantCount +
+                ", symbolCount=" + symbolCount +
+                '}';
+    }
+
+    /**
+     * 解码后的公式，除计时缓存外不可变
+     */
+    private static final class Formula {
+
+        /** 公式指令的解释器: 常量、函数为公式内下标，变量为符号编号，变量名下标为指令下标 */
+        final Interpreter interpreter;
+
+        /** 指令数 */
+        final int size;
+
+        /** 原始表达式在文件中的位置、字节数，null 时字节数为 -1 */
+        final int sourcePosition;
+
+        final int sourceLength;
+
+        /** 计算指标计时缓存，首次计时时创建，多线程同时创建时各自使用 */
+        volatile ExpressionMetrics.Site site;
+
+        Formula(Interpreter interpreter, int size, int sourcePosition, int sourceLength) {
+            this.interpreter = interpreter;
+            this.size = size;
+            this.sourcePosition = sourcePosition;
+            this.sourceLength = sourceLength;
+        }
+    }
+
+}
@@ -0,0 +1,419 @@
+package com.tang.tj.toolkit.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内无锁指标记录，{@link ExpressionMetrics} 默认实现
+ * 按表达式字符串记录解析次数、耗时、节点数及计算次数、耗时直方图，全局记录被除数为0、变量不存在(按变量名)、缓存命中次数
+ * 计数使用 LongAdder；耗时直方图按2的幂分段、每段4个子区间(相对误差不超过25%)，各区间计数为 AtomicLongArray
+ * 表达式个数超过 maxFormulas 后，新的表达式计入 {@link #OTHERS}
+ * 用 {@link #snapshot()} 取当前指标，快照与之后的记录无关
+ */
+public final class MetricsRecorder extends ExpressionMetrics {
+
+    /** 默认最多单独记录的表达式个数 */
+    public static final int DEFAULT_MAX_FORMULAS = 10_000;
+
+    /** 超过最多表达式个数后的汇总 key */
+    public static final String OTHERS = "<others>";
+
+    private static final int SUB_BUCKETS = 4;
+
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final int maxFormulas;
+
+    private final ConcurrentHashMap<String, FormulaRecord> formulas = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LongAdder> missingVariables = new ConcurrentHashMap<>();
+
+    private final LongAdder dividedByZero = new LongAdder();
+    private final LongAdder missingVariable = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public MetricsRecorder() {
+        this(DEFAULT_MAX_FORMULAS);
+    }
+
+    /**
+     * @param maxFormulas 最多单独记录的表达式个数，变量名个数同样受此限制
+     */
+    public MetricsRecorder(int maxFormulas) {
+        if (maxFormulas < 1) {
+            throw new IllegalArgumentException("maxFormulas需大于0");
+        }
+        this.maxFormulas = maxFormulas;
+    }
+
+    /**
+     * 创建并安装为全局监听
+     */
+    public static MetricsRecorder install() {
+        MetricsRecorder recorder = new MetricsRecorder();
+        ExpressionMetrics.install(recorder);
+        return recorder;
+    }
+
+    @Override
+    public void parsed(String formula, int nodeCount, long nanos) {
+        FormulaRecord record = record(formula);
+        record.parseCount.increment();
+        record.parseNanos.add(nanos);
+        record.nodeCount = nodeCount;
+    }
+
+    @Override
+    public void evaluated(String formula, long nanos) {
+        record(formula).evaluated(nanos);
+    }
+
+    /**
+     * 直接返回表达式的记录，计算时不再按表达式字符串查找；{@link #reset()} 后失效
+     */
+    @Override
+    public Timer timer(String formula) {
+        return record(formula);
+    }
+
+    @Override
+    public void dividedByZero() {
+        dividedByZero.increment();
+    }
+
+    @Override
+    public void missingVariable(String varName) {
+        missingVariable.increment();
+        LongAdder counter = missingVariables.get(varName);
+        if (counter == null) {
+            counter = missingVariables.size() < maxFormulas
+                    ? missingVariables.computeIfAbsent(varName, name -> new LongAdder())
+                    : missingVariables.computeIfAbsent(OTHERS, name -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void cacheAccessed(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    private FormulaRecord record(String formula) {
+        if (formula == null) {
+            formula = UNNAMED;
+        }
+        FormulaRecord record = formulas.get(formula);
+        if (record != null) {
+            return record;
+        }
+        String key = formulas.size() < maxFormulas ? formula : OTHERS;
+        return formulas.computeIfAbsent(key, name -> new FormulaRecord());
+    }
+
+    /**
+     * 耗时所在直方图区间: 小于4为其本身，否则按最高位分段、次高2位为子区间
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        return (msb - 1) * SUB_BUCKETS + (int) ((nanos >>> (msb - 2)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * 直方图区间的上界(含)
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int msb = bucket / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (msb - 2);
+        return lower + (1L << (msb - 2)) - 1;
+    }
+
+    /**
+     * 当前指标快照
+     */
+    public Snapshot snapshot() {
+        List<FormulaSnapshot> snapshots = new ArrayList<>(formulas.size());
+        for (Map.Entry<String, FormulaRecord> entry : formulas.entrySet()) {
+            snapshots.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        snapshots.sort(Comparator.comparingLong(FormulaSnapshot::getEvalNanos).reversed());
+        Map<String, Long> missing = new LinkedHashMap<>();
+        missingVariables.entrySet().stream()
+                .sorted(Map.Entry.<String, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                .forEach(entry -> missing.put(entry.getKey(), entry.getValue().sum()));
+        return new Snapshot(Collections.unmodifiableList(snapshots), Collections.unmodifiableMap(missing),
+                dividedByZero.sum(), missingVariable.sum(), cacheHits.sum(), cacheMisses.sum());
+    }
+
+    /**
+     * 清空已记录的指标
+     */
+    public void reset() {
+        for (FormulaRecord record : formulas.values()) {
+            record.retired = true;
+        }
+        formulas.clear();
+        missingVariables.clear();
+        dividedByZero.reset();
+        missingVariable.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsRecorder{formulas=" + formulas.size() + '}';
+    }
+
+    /**
+     * 单个表达式的记录
+     */
+    private static final class FormulaRecord implements Timer {
+
+        final LongAdder parseCount = new LongAdder();
+        final LongAdder parseNanos = new LongAdder();
+
+        /** 最近一次解析的节点数 */
+        volatile int nodeCount;
+
+        final LongAdder evalCount = new LongAdder();
+        final LongAdder evalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        /** 已被 reset 移除 */
+        volatile boolean retired;
+
+        @Override
+        public void evaluated(long nanos) {
+            evalCount.increment();
+            evalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            histogram.incrementAndGet(bucket(nanos));
+        }
+
+        @Override
+        public boolean isValid() {
+            return !retired;
+        }
+
+        FormulaSnapshot snapshot(String formula) {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new FormulaSnapshot(formula, parseCount.sum(), parseNanos.sum(), nodeCount,
+                    evalCount.sum(), evalNanos.sum(), maxNanos.get(), buckets);
+        }
+    }
+
+    /**
+     * 指标快照
+     */
+    public static final class Snapshot {
+
+        private final List<FormulaSnapshot> formulas;
+        private final Map<String, Long> missingVariables;
+        private final long dividedByZero;
+        private final long missingVariable;
+        private final long cacheHits;
+        private final long cacheMisses;
+
+        private Snapshot(List<FormulaSnapshot> formulas, Map<String, Long> missingVariables,
+                         long dividedByZero, long missingVariable, long cacheHits, long cacheMisses) {
+            this.formulas = formulas;
+            this.missingVariables = missingVariables;
+            this.dividedByZero = dividedByZero;
+            this.missingVariable = missingVariable;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+        }
+
+        /**
+         * 各表达式指标，按计算总耗时倒序
+         */
+        public List<FormulaSnapshot> getFormulas() {
+            return formulas;
+        }
+
+        /**
+         * 表达式指标，未记录返回 null
+         */
+        public FormulaSnapshot getFormula(String formula) {
+            for (FormulaSnapshot snapshot : formulas) {
+                if (snapshot.formula.equals(formula)) {
+                    return snapshot;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 各变量不存在的次数，按次数倒序
+         */
+        public Map<String, Long> getMissingVariables() {
+            return missingVariables;
+        }
+
+        public long getDividedByZero() {
+            return dividedByZero;
+        }
+
+        public long getMissingVariable() {
+            return missingVariable;
+        }
+
+        public long getCacheHits() {
+            return cacheHits;
+        }
+
+        public long getCacheMisses() {
+            return cacheMisses;
+        }
+
+        /**
+         * 缓存命中率，无访问时为1
+         */
+        public double cacheHitRate() {
+            long total = cacheHits + cacheMisses;
+            return total == 0 ? 1d : (double) cacheHits / total;
+        }
+
+        /**
+         * 多行文本，每个表达式一行
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("dividedByZero=").append(dividedByZero)
+                    .append(", missingVariable=").append(missingVariable)
+                    .append(", cacheHits=").append(cacheHits)
+                    .append(", cacheMisses=").append(cacheMisses)
+                    .append(", missingVariables=").append(missingVariables);
+            for (FormulaSnapshot formula : formulas) {
+                sb.append('\n').append(formula);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 单个表达式指标快照
+     */
+    public static final class FormulaSnapshot {
+
+        private final String formula;
+        private final long parseCount;
+        private final long parseNanos;
+        private final int nodeCount;
+        private final long evalCount;
+        private final long evalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        private FormulaSnapshot(String formula, long parseCount, long parseNanos, int nodeCount,
+                                long evalCount, long evalNanos, long maxNanos, long[] buckets) {
+            this.formula = formula;
+            this.parseCount = parseCount;
+            this.parseNanos = parseNanos;
+            this.nodeCount = nodeCount;
+            this.evalCount = evalCount;
+            this.evalNanos = evalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public String getFormula() {
+            return formula;
+        }
+
+        public long getParseCount() {
+            return parseCount;
+        }
+
+        /**
+         * 解析总耗时(纳秒)
+         */
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        /**
+         * 最近一次解析的节点数
+         */
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public long getEvalCount() {
+            return evalCount;
+        }
+
+        /**
+         * 计算总耗时(纳秒)
+         */
+        public long getEvalNanos() {
+            return evalNanos;
+        }
+
+        /**
+         * 单次计算最大耗时(纳秒)
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * 计算耗时分位数(纳秒)，为所在直方图区间的上界，无计算时为0
+         * @param percentile 分位 (0, 100]，如 99
+         */
+        public long percentile(double percentile) {
+            long total = 0;
+            for (long count : buckets) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "FormulaSnapshot{" +
+                    "formula='" + formula + '\'' +
+                    ", parseCount=" + parseCount +
+                    ", parseNanos=" + parseNanos +
+                    ", nodeCount=" + nodeCount +
+                    ", evalCount=" + evalCount +
+                    ", evalNanos=" + evalNanos +
+                    ", p50=" + percentile(50) +
+                    ", p99=" + percentile(99) +
+                    ", maxNanos=" + maxNanos +
+                    '}';
+        }
+    }
+
+}
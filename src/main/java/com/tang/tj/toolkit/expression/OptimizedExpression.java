@@ -0,0 +1,454 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 优化后的表达式
+ * 1.常量折叠: 只含常量的子表达式计算为常量，除数为0的不折叠(计算时由 dividendZeroCalc 决定结果)
+ * 2.代数化简: x*1、1*x、x/1、x-0、x+0、0+x 化简为 x，不改变 NaN、无穷大结果
+ *   (注: x 为 -0.0 时 x+0 结果为 0.0，化简后为 -0.0，两者相等)
+ * 3.公共子表达式: 结构相同的子表达式合并为同一节点(DAG)，每次计算只算一次
+ * 4.函数: 参数都是常量的内置函数折叠为常量，条件为常量的 if 化简为选中的分支，coalesce 去掉不会选中的常量参数；
+ *   自定义函数不折叠，含 if、coalesce 时按 {@link ExpressionCalc#calcExp} 计算以保持参数按需计算
+ * 不做加减乘除结合律、分配律变换，避免改变浮点舍入结果
+ */
+public final class OptimizedExpression {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 优化后的表达式，相同子表达式为同一对象 */
+    private final Exp exp;
+
+    /** 优化前节点数 */
+    private final int nodeCountBefore;
+
+    /** 去重后的节点，子节点在前 1.常量值  2.二元操作符表达式  3.变量值  5.函数调用 */
+    private final byte[] types;
+    private final double[] values;
+    private final String[] varNames;
+    private final char[] opts;
+    private final int[] lefts;
+    private final int[] rights;
+    private final ExpressionFunctions.Definition[] functions;
+    private final int[][] args;
+
+    /** 含 if、coalesce，参数需按需计算 */
+    private final boolean lazy;
+
+    /** 函数最多参数个数 */
+    private final int maxArgs;
+
+    private OptimizedExpression(Exp exp, int nodeCountBefore, List<Exp> nodes) {
+        this.exp = exp;
+        this.nodeCountBefore = nodeCountBefore;
+        int size = nodes.size();
+        types = new byte[size];
+        values = new double[size];
+        varNames = new String[size];
+        opts = new char[size];
+        lefts = new int[size];
+        rights = new int[size];
+        functions = new ExpressionFunctions.Definition[size];
+        args = new int[size][];
+        boolean hasLazy = false;
+        int maxArgCount = 0;
+        Map<Exp, Integer> indexes = new IdentityHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            Exp node = nodes.get(i);
+            indexes.put(node, i);
+            types[i] = (byte) node.type;
+            values[i] = node.value;
+            varNames[i] = node.varName;
+            opts[i] = node.opt;
+            if (node.type == 2) {
+                lefts[i] = indexes.get(node.values[0]);
+                rights[i] = indexes.get(node.values[1]);
+            } else if (node.type == 5) {
+                functions[i] = node.function;
+                args[i] = new int[node.values.length];
+                for (int k = 0; k < args[i].length; k++) {
+                    args[i][k] = indexes.get(node.values[k]);
+                }
+                hasLazy |= node.function.isLazy();
+                maxArgCount = Math.max(maxArgCount, args[i].length);
+            }
+        }
+        this.lazy = hasLazy;
+        this.maxArgs = maxArgCount;
+    }
+
+    /**
+     * 优化表达式
+     */
+    public static OptimizedExpression optimize(Exp exp) {
+        return optimize(exp, Collections.emptyMap());
+    }
+
+    /**
+     * 已知变量替换为常量后优化表达式，结果只含其余变量
+     * 与 {@link ExpressionCalc#calcExp} 使用 knownVars 加其余变量计算结果一致，已知变量值为 null 时取0
+     * @param knownVars 已知变量值
+     */
+    public static OptimizedExpression optimize(Exp exp, Map<String, Double> knownVars) {
+        List<Exp> tree = postOrder(exp);
+        // 原节点 -> 优化后节点
+        Map<Exp, Exp> optimized = new IdentityHashMap<>(tree.size());
+        // 结构相同的节点
+        Map<NodeKey, Exp> unique = new HashMap<>(tree.size());
+        for (Exp node : tree) {
+            Exp result;
+            if (node.type == 3 && knownVars.containsKey(node.varName)) {
+                result = new Exp();
+                result.type = 1;
+                result.value = Objs.ifNull(knownVars.get(node.varName), 0d);
+                result.setSegment(node.getSegment());
+            } else if (node.type == 1 || node.type == 3) {
+                result = node;
+            } else if (node.type == 2) {
+                result = simplify(node, optimized.get(node.values[0]), optimized.get(node.values[1]));
+            } else if (node.type == 5) {
+                Exp[] args = new Exp[node.values.length];
+                for (int k = 0; k < args.length; k++) {
+                    args[k] = optimized.get(node.values[k]);
+                }
+                result = simplifyFunction(node, args);
+            } else {
+                throw new IllegalArgumentException("未知的表达式类型:" + node.type);
+            }
+            NodeKey key = new NodeKey(result);
+            Exp same = unique.get(key);
+            if (same == null) {
+                unique.put(key, result);
+                same = result;
+            }
+            optimized.put(node, same);
+        }
+        Exp root = optimized.get(exp);
+        if (exp.varNameMapping != null) {
+            // 根节点可能是共用的子节点，复制后记录变量映射
+            root = copy(root);
+            root.varNameMapping = exp.varNameMapping;
+        }
+        // 化简后不再引用的节点去掉，子节点在前、根节点在最后
+        return new OptimizedExpression(root, tree.size(), postOrder(root));
+    }
+
+    /**
+     * 后序遍历，共用的节点只出现一次
+     */
+    private static List<Exp> postOrder(Exp exp) {
+        List<Exp> nodes = new ArrayList<>();
+        // 节点 -> 是否已输出
+        Map<Exp, Boolean> visited = new IdentityHashMap<>();
+        Deque<Exp> stack = new ArrayDeque<>();
+        stack.push(exp);
+        while (!stack.isEmpty()) {
+            Exp node = stack.peek();
+            Boolean done = visited.get(node);
+            if (done == null && (node.type == 2 || node.type == 5)) {
+                // 首次访问先处理子节点
+                visited.put(node, false);
+                for (int i = node.values.length - 1; i >= 0; i--) {
+                    if (!visited.containsKey(node.values[i])) {
+                        stack.push(node.values[i]);
+                    }
+                }
+                continue;
+            }
+            stack.pop();
+            if (done == null || !done) {
+                visited.put(node, true);
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * 常量折叠、代数化简
+     * @param left 优化后的左节点
+     * @param right 优化后的右节点
+     */
+    private static Exp simplify(Exp node, Exp left, Exp right) {
+        char opt = node.opt;
+        if (!ExpressionCalc.isOperator(opt)) {
+            throw new IllegalArgumentException("未知的运算符:" + opt);
+        }
+        boolean leftConst = left.type == 1, rightConst = right.type == 1;
+        if (leftConst && rightConst && !(opt == '/' && right.value == 0)) {
+            Exp constant = new Exp();
+            constant.type = 1;
+            constant.value = calc(opt, left.value, right.value);
+            constant.setSegment(node.getSegment());
+            return constant;
+        }
+        if (rightConst && right.value == 1d && (opt == '*' || opt == '/')) {
+            return left;
+        }
+        if (leftConst && left.value == 1d && opt == '*') {
+            return right;
+        }
+        if (rightConst && right.value == 0d && (opt == '+' || opt == '-')) {
+            return left;
+        }
+        if (leftConst && left.value == 0d && opt == '+') {
+            return right;
+        }
+        if (left == node.values[0] && right == node.values[1]) {
+            return node;
+        }
+        Exp expression = new Exp();
+        expression.type = 2;
+        expression.opt = opt;
+        expression.values = new Exp[]{left, right};
+        expression.setSegment(node.getSegment());
+        return expression;
+    }
+
+    /**
+     * 函数常量折叠、化简
+     * @param args 优化后的参数
+     */
+    private static Exp simplifyFunction(Exp node, Exp[] args) {
+        ExpressionFunctions.Definition function = node.function;
+        if (function.kind == ExpressionFunctions.IF && args[0].type == 1) {
+            return args[0].value != 0 ? args[1] : args[2];
+        }
+        if (function.kind == ExpressionFunctions.COALESCE) {
+            // 常量 NaN 参数不会选中，非 NaN 常量之后的参数不会计算
+            List<Exp> kept = new ArrayList<>(args.length);
+            for (int k = 0; k < args.length; k++) {
+                Exp arg = args[k];
+                if (arg.type == 1 && arg.value != arg.value && k < args.length - 1) {
+                    continue;
+                }
+                if (arg.type == 3 && node.values[k].type != 3 && k < args.length - 1) {
+                    // 化简为单个变量后变量不存在时会视为 NaN，保留原参数
+                    arg = node.values[k];
+                }
+                kept.add(arg);
+                if (arg.type == 1) {
+                    break;
+                }
+            }
+            if (kept.size() == 1) {
+                return kept.get(0);
+            }
+            args = kept.toArray(new Exp[0]);
+        }
+        boolean constant = function.kind < ExpressionFunctions.UNARY;
+        for (int k = 0; k < args.length && constant; k++) {
+            constant = args[k].type == 1;
+        }
+        if (constant) {
+            double[] values = new double[args.length];
+            for (int k = 0; k < args.length; k++) {
+                values[k] = args[k].value;
+            }
+            Exp result = new Exp();
+            result.type = 1;
+            result.value = function.apply(values, 0, values.length);
+            result.setSegment(node.getSegment());
+            return result;
+        }
+        if (Arrays.equals(args, node.values)) {
+            return node;
+        }
+        Exp expression = copy(node);
+        expression.values = args;
+        return expression;
+    }
+
+    private static Exp copy(Exp node) {
+        Exp expression = new Exp();
+        expression.type = node.type;
+        expression.value = node.value;
+        expression.varName = node.varName;
+        expression.opt = node.opt;
+        expression.function = node.function;
+        expression.values = node.values;
+        expression.setSegment(node.getSegment());
+        return expression;
+    }
+
+    private static double calc(char opt, double left, double right) {
+        switch (opt) {
+            case '+': return left + right;
+            case '-': return left - right;
+            case '*': return left * right;
+            case '/': return left / right;
+            default: return ExpressionCalc.predicate(opt, left, right);
+        }
+    }
+
+    /**
+     * 优化后的表达式，相同子表达式为同一对象，也可使用 {@link ExpressionCalc#calcExp} 计算(相同子表达式会重复计算)
+     */
+    public Exp getExp() {
+        return exp;
+    }
+
+    /**
+     * 优化前节点数
+     */
+    public int getNodeCountBefore() {
+        return nodeCountBefore;
+    }
+
+    /**
+     * 优化后节点数(相同子表达式只计一次)
+     */
+    public int getNodeCountAfter() {
+        return types.length;
+    }
+
+    public double calc(Map<String, Double> variableMap) {
+        return calc(variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    public double calc(Map<String, Double> variableMap, Function<String, Double> nonVarValueProvider) {
+        return calc(variableMap, nonVarValueProvider, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 计算表达式，每个节点只计算一次，同一变量只取一次值
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        if (lazy) {
+            // 由 calcExp 按同一表达式计指标
+            return ExpressionCalc.calcExp(exp, variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+        ExpressionMetrics.Timer timer = exp.metricsTimer();
+        if (timer == null) {
+            return calcNodes(variableMap, nonVarValueProvider, dividendZeroCalc);
+        }
+        long start = System.nanoTime();
+        double value = calcNodes(variableMap, nonVarValueProvider, dividendZeroCalc);
+        timer.evaluated(System.nanoTime() - start);
+        return value;
+    }
+
+    private double calcNodes(Map<String, Double> variableMap,
+                             Function<String, Double> nonVarValueProvider,
+                             BiFunction<Double, Double, Double> dividendZeroCalc) {
+        double[] results = new double[types.length];
+        double[] argValues = new double[maxArgs];
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case 1:
+                    results[i] = values[i];
+                    break;
+                case 3:
+                    Double value = variableMap.get(varNames[i]);
+                    if (value == null && !variableMap.containsKey(varNames[i])) {
+                        value = nonVarValueProvider.apply(varNames[i]);
+                    }
+                    results[i] = Objs.ifNull(value, 0d);
+                    break;
+                case 5:
+                    int[] argIdxs = args[i];
+                    for (int k = 0; k < argIdxs.length; k++) {
+                        argValues[k] = results[argIdxs[k]];
+                    }
+                    results[i] = functions[i].apply(argValues, 0, argIdxs.length);
+                    break;
+                default:
+                    double left = results[lefts[i]];
+                    double right = results[rights[i]];
+                    if (opts[i] == '/' && right == 0) {
+                        results[i] = Objs.ifNull(dividendZeroCalc.apply(left, right), 0d);
+                    } else {
+                        results[i] = calc(opts[i], left, right);
+                    }
+            }
+        }
+        return results[types.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return "OptimizedExpression{" +
+                "nodeCountBefore=" + nodeCountBefore +
+                ", nodeCountAfter=" + getNodeCountAfter() +
+                ", exp=" + exp.getSegment() +
+                '}';
+    }
+
+    /**
+     * 节点结构 key，子节点已去重按对象比较
+     */
+    private static final class NodeKey {
+
+        final Exp node;
+
+        final int hash;
+
+        NodeKey(Exp node) {
+            this.node = node;
+            int h = node.type;
+            h = h * 31 + Double.hashCode(node.value);
+            h = h * 31 + Objects.hashCode(node.varName);
+            h = h * 31 + node.opt;
+            if (node.type == 2 || node.type == 5) {
+                h = h * 31 + System.identityHashCode(node.function);
+                for (Exp value : node.values) {
+                    h = h * 31 + System.identityHashCode(value);
+                }
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NodeKey)) {
+                return false;
+            }
+            Exp other = ((NodeKey) o).node;
+            if (node.type != other.type || node.opt != other.opt
+                    || Double.doubleToRawLongBits(node.value) != Double.doubleToRawLongBits(other.value)
+                    || !Objects.equals(node.varName, other.varName)) {
+                return false;
+            }
+            if (node.type == 5) {
+                if (node.function != other.function || node.values.length != other.values.length) {
+                    return false;
+                }
+                for (int k = 0; k < node.values.length; k++) {
+                    if (node.values[k] != other.values[k]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return node.type != 2 || (node.values[0] == other.values[0] && node.values[1] == other.values[1]);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 多表达式并行列式计算
+ * 多个表达式对同一批变量列计算，按表达式分组、按行区间切分为多个任务，在 ForkJoinPool 或指定线程池中并行执行
+ * 每个任务计算一组表达式的一段行(同一段行的变量列在 CPU 缓存中被多个表达式复用)，结果写入各自不重叠的区间；
+ * 每个线程使用自己的计算临时空间，任务之间无共享的可变状态
+ * 变量列不存在时的变量值在提交任务前由调用线程统一取出(每个变量只取一次)，dividendZeroCalc 会被多个线程同时调用
+ * 实例不可变，可多线程共用
+ */
+public final class ParallelEvaluator {
+
+    /** 默认每个任务行数 */
+    public static final int DEFAULT_ROWS_PER_TASK = 64 * BatchExpression.BLOCK_SIZE;
+
+    /** 默认每个任务表达式个数 */
+    public static final int DEFAULT_FORMULAS_PER_TASK = 16;
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    private final VarSlots slots;
+
+    private final BatchExpression[] exps;
+
+    private final int rowsPerTask;
+
+    private final int formulasPerTask;
+
+    private ParallelEvaluator(List<Exp> exps, int rowsPerTask, int formulasPerTask) {
+        if (rowsPerTask < 1 || formulasPerTask < 1) {
+            throw new IllegalArgumentException("rowsPerTask、formulasPerTask需大于0");
+        }
+        this.slots = VarSlots.of(exps.toArray(new Exp[0]));
+        this.exps = new BatchExpression[exps.size()];
+        for (int i = 0; i < this.exps.length; i++) {
+            this.exps[i] = BatchExpression.of(exps.get(i), slots);
+        }
+        this.rowsPerTask = rowsPerTask;
+        this.formulasPerTask = formulasPerTask;
+    }
+
+    public static ParallelEvaluator of(List<Exp> exps) {
+        return new ParallelEvaluator(exps, DEFAULT_ROWS_PER_TASK, DEFAULT_FORMULAS_PER_TASK);
+    }
+
+    /**
+     * @param rowsPerTask 每个任务行数
+     * @param formulasPerTask 每个任务表达式个数
+     */
+    public static ParallelEvaluator of(List<Exp> exps, int rowsPerTask, int formulasPerTask) {
+        return new ParallelEvaluator(exps, rowsPerTask, formulasPerTask);
+    }
+
+    /**
+     * 全部表达式的变量列槽位布局
+     */
+    public VarSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * 表达式个数
+     */
+    public int size() {
+        return exps.length;
+    }
+
+    /**
+     * 在 {@link ForkJoinPool#commonPool()} 中计算
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param rows 行数
+     */
+    public Result calc(Map<String, double[]> columns, int rows) {
+        return calc(columns, rows, NON_VAR, DIVIDEND_ZERO, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 按变量名取列计算
+     * @param columns 变量列，列为 null 时该列变量值为0
+     * @param rows 行数
+     * @param nonVarValueProvider 变量列不存在时的值provider，只在调用线程调用
+     * @param dividendZeroCalc 被除数等于0时算法，需线程安全
+     * @param executor 执行任务的线程池
+     */
+    public Result calc(Map<String, double[]> columns, int rows,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc,
+                       Executor executor) {
+        double[][] bound = new double[slots.size()][];
+        Map<String, Double> resolved = new HashMap<>();
+        for (int i = 0; i < bound.length; i++) {
+            String name = slots.nameOf(i);
+            bound[i] = columns.get(name);
+            if (bound[i] == null && columns.containsKey(name)) {
+                resolved.put(name, 0d);
+            }
+        }
+        return calc(bound, rows, resolved, nonVarValueProvider, dividendZeroCalc, executor);
+    }
+
+    /**
+     * 按槽位取列计算
+     * @param columns 变量列，下标为槽位(见 {@link #getSlots()})，列为 null 时变量不存在
+     * @param rows 行数
+     * @param nonVarValueProvider 变量列不存在时的值provider，只在调用线程调用
+     * @param dividendZeroCalc 被除数等于0时算法，需线程安全
+     * @param executor 执行任务的线程池
+     */
+    public Result calc(double[][] columns, int rows,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc,
+                       Executor executor) {
+        return calc(columns, rows, new HashMap<>(), nonVarValueProvider, dividendZeroCalc, executor);
+    }
+
+    private Result calc(double[][] columns, int rows, Map<String, Double> resolved,
+                        Function<String, Double> nonVarValueProvider,
+                        BiFunction<Double, Double, Double> dividendZeroCalc,
+                        Executor executor) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] != null && columns[i].length < rows) {
+                throw new IllegalArgumentException(String.format("变量[%s]列长度%d小于%d",
+                        slots.nameOf(i), columns[i].length, rows));
+            }
+        }
+        long start = System.nanoTime();
+        BatchExpression.Missing[] missing = new BatchExpression.Missing[exps.length];
+        double[][] values = new double[exps.length][];
+        for (int i = 0; i < exps.length; i++) {
+            missing[i] = exps[i].missing(columns, resolved, nonVarValueProvider);
+            values[i] = new double[rows];
+        }
+
+        List<TaskTiming> timings = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int formulaFrom = 0; formulaFrom < exps.length; formulaFrom += formulasPerTask) {
+            for (int rowFrom = 0; rowFrom < rows; rowFrom += rowsPerTask) {
+                TaskTiming timing = new TaskTiming(formulaFrom, Math.min(exps.length, formulaFrom + formulasPerTask),
+                        rowFrom, Math.min(rows, rowFrom + rowsPerTask));
+                timings.add(timing);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    long taskStart = System.nanoTime();
+                    BatchExpression.Scratch scratch = BatchExpression.Scratch.acquire();
+                    try {
+                        for (int f = timing.formulaFrom; f < timing.formulaTo; f++) {
+                            exps[f].calc(columns, missing[f], values[f], timing.rowFrom, timing.rowTo,
+                                    dividendZeroCalc, scratch);
+                        }
+                    } finally {
+                        scratch.release();
+                    }
+                    timing.threadName = Thread.currentThread().getName();
+                    timing.elapsedNanos = System.nanoTime() - taskStart;
+                }, executor));
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+        return new Result(values, Collections.unmodifiableList(timings), System.nanoTime() - start);
+    }
+
+    /**
+     * 计算结果
+     */
+    public static final class Result {
+
+        private final double[][] values;
+
+        private final List<TaskTiming> timings;
+
+        private final long elapsedNanos;
+
+        private Result(double[][] values, List<TaskTiming> timings, long elapsedNanos) {
+            this.values = values;
+            this.timings = timings;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * 第 formula 个表达式的计算结果，下标为行号
+         */
+        public double[] get(int formula) {
+            return values[formula];
+        }
+
+        /**
+         * 计算结果，第一维为表达式下标，第二维为行号
+         */
+        public double[][] getValues() {
+            return values;
+        }
+
+        /**
+         * 各任务耗时，按任务提交顺序
+         */
+        public List<TaskTiming> getTimings() {
+            return timings;
+        }
+
+        /**
+         * 总耗时(纳秒)
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "formulas=" + values.length +
+                    ", tasks=" + timings.size() +
+                    ", elapsedNanos=" + elapsedNanos +
+                    '}';
+        }
+    }
+
+    /**
+     * 任务耗时: 表达式下标区间 [formulaFrom, formulaTo)、行区间 [rowFrom, rowTo)
+     */
+    public static final class TaskTiming {
+
+        private final int formulaFrom;
+        private final int formulaTo;
+        private final int rowFrom;
+        private final int rowTo;
+
+        /** 任务完成后写入，计算返回后可见 */
+        private String threadName;
+        private long elapsedNanos;
+
+        private TaskTiming(int formulaFrom, int formulaTo, int rowFrom, int rowTo) {
+            this.formulaFrom = formulaFrom;
+            this.formulaTo = formulaTo;
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+        }
+
+        public int getFormulaFrom() {
+            return formulaFrom;
+        }
+
+        public int getFormulaTo() {
+            return formulaTo;
+        }
+
+        public int getRowFrom() {
+            return rowFrom;
+        }
+
+        public int getRowTo() {
+            return rowTo;
+        }
+
+        /**
+         * 执行任务的线程名
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * 任务耗时(纳秒)
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskTiming{" +
+                    "formulas=[" + formulaFrom + ", " + formulaTo + ")" +
+                    ", rows=[" + rowFrom + ", " + rowTo + ")" +
+                    ", threadName='" + threadName + '\'' +
+                    ", elapsedNanos=" + elapsedNanos +
+                    '}';
+        }
+    }
+
+}
@@ -0,0 +1,582 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 栈式表达式
+ * 表达式树展开为后缀指令序列，计算时单层循环执行指令、操作数放在 double[] 栈中，无递归、无层数限制
+ * 如 m1+m2+...+m1500 这类超过 {@link ExpressionCalc#MAX_DEEP_LEVEL} 层的表达式也可计算
+ * 函数 if、coalesce 编译为条件跳转，只执行需要的参数，其他函数参数全部入栈后调用
+ * 计算结果、被除数为0及变量不存在时的处理与 {@link ExpressionCalc#calcExp} 一致
+ * 构建后不可变，可多线程共用；按 double[] 计算时无对象分配: 未传入操作数栈时使用线程复用的栈，装箱回调由线程复用的适配对象转换，
+ * 计算中嵌套计算(如自定义函数中计算其他表达式)时嵌套的计算新建栈及适配对象
+ */
+public final class StackExpression {
+
+    private static final BiFunction<Double, Double, Double> DIVIDEND_ZERO = (left, right) -> 0d;
+
+    private static final Function<String, Double> NON_VAR = varName -> {
+        throw new IllegalArgumentException("表达式变量[" + varName + "]不存在");
+    };
+
+    /** 指令: 常量入栈 */
+    static final byte CONST = 0;
+    /** 指令: 变量入栈 */
+    static final byte VAR = 1;
+    /** 指令: 栈顶两数运算后入栈 */
+    static final byte ADD = 2;
+    static final byte SUB = 3;
+    static final byte MUL = 4;
+    static final byte DIV = 5;
+    /** 指令: 栈顶两数比较、逻辑运算后入栈，结果1或0 */
+    static final byte GT = 6;
+    static final byte GE = 7;
+    static final byte LT = 8;
+    static final byte LE = 9;
+    static final byte EQ = 10;
+    static final byte NE = 11;
+    static final byte AND = 12;
+    static final byte OR = 13;
+
+    /** 指令: 栈顶为0时出栈并跳转，否则出栈，操作数为跳转目标(相对表达式第一条指令) */
+    static final byte JUMP_IF_ZERO = 14;
+    /** 指令: 跳转，操作数为跳转目标 */
+    static final byte JUMP = 15;
+    /** 指令: 栈顶不是 NaN 时跳转，否则出栈，操作数为跳转目标 */
+    static final byte JUMP_IF_NUMBER = 16;
+    /** 指令: 变量入栈，变量不存在时为 NaN，不调用 nonVarValueProvider */
+    static final byte OPTIONAL_VAR = 17;
+    /** 指令: 栈顶参数调用函数后入栈，操作数为 函数表下标 << 8 | 参数个数 */
+    static final byte CALL = 18;
+
+    /** 指令对应运算符 */
+    static final char[] OPTS = {'\0', '\0', '+', '-', '*', '/', '>', 'G', '<', 'L', '=', '!', '&', '|'};
+
+    private final VarSlots slots;
+
+    /** 指令 */
+    private final byte[] codes;
+
+    /** 指令操作数: 常量为常量池下标，变量为槽位(-1 表示布局中不存在) */
+    private final int[] operands;
+
+    /** 常量池 */
+    private final double[] constants;
+
+    /** 变量指令对应变量名，其他指令为 null */
+    private final String[] varNames;
+
+    /** 函数表 */
+    private final ExpressionFunctions.Definition[] functions;
+
+    /** 计算所需最大栈深度 */
+    private final int maxStackDepth;
+
+    private final Interpreter interpreter;
+
+    /** 每个线程复用的操作数栈及装箱回调适配 */
+    private static final ThreadLocal<ThreadStack> THREAD_STACKS = ThreadLocal.withInitial(ThreadStack::new);
+
+    private StackExpression(VarSlots slots, byte[] codes, int[] operands, double[] constants,
+                            String[] varNames, ExpressionFunctions.Definition[] functions, int maxStackDepth) {
+        this.slots = slots;
+        this.codes = codes;
+        this.operands = operands;
+        this.constants = constants;
+        this.varNames = varNames;
+        this.functions = functions;
+        this.maxStackDepth = maxStackDepth;
+        this.interpreter = new Interpreter(codes, operands, constants, functions, varNames, false);
+    }
+
+    /**
+     * 编译表达式，按变量首次出现顺序分配槽位
+     */
+    public static StackExpression compile(Exp exp) {
+        return compile(exp, VarSlots.of(exp));
+    }
+
+    /**
+     * 按指定槽位布局编译表达式，多个表达式可共用同一布局
+     * 布局中不存在的变量视为变量不存在
+     */
+    public static StackExpression compile(Exp exp, VarSlots slots) {
+        Emitter emitter = new Emitter(slots);
+        emitter.emit(exp);
+        return emitter.build();
+    }
+
+    static byte opCode(char opt) {
+        switch (opt) {
+            case '+': return ADD;
+            case '-': return SUB;
+            case '*': return MUL;
+            case '/': return DIV;
+            case '>': return GT;
+            case 'G': return GE;
+            case '<': return LT;
+            case 'L': return LE;
+            case '=': return EQ;
+            case '!': return NE;
+            case '&': return AND;
+            case '|': return OR;
+            default:
+                throw new IllegalArgumentException("未知的运算符:" + opt);
+        }
+    }
+
+    /**
+     * 变量槽位布局
+     */
+    public VarSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * 计算所需最大栈深度
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * 新建操作数栈，同一线程可重复用于多次计算
+     */
+    public double[] newStack() {
+        return new double[maxStackDepth];
+    }
+
+    /**
+     * 计算表达式，全部变量存在，被除数等于0时结果为0
+     * @param row 变量值，下标为槽位
+     */
+    public double calc(double[] row) {
+        return calc(row, null, NON_VAR, DIVIDEND_ZERO, null);
+    }
+
+    /**
+     * 计算表达式
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(double[] row, long[] presentMask,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        return calc(row, presentMask, nonVarValueProvider, dividendZeroCalc, null);
+    }
+
+    /**
+     * 计算表达式
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @param stack 操作数栈，长度不小于 {@link #getMaxStackDepth()}，为 null 时使用线程复用的栈
+     */
+    public double calc(double[] row, long[] presentMask,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc,
+                       double[] stack) {
+        ThreadStack shared = THREAD_STACKS.get();
+        if (shared.inUse) {
+            return interpreter.calc(0, codes.length, row, presentMask,
+                    varName -> Objs.ifNull(nonVarValueProvider.apply(varName), 0d),
+                    (left, right) -> Objs.ifNull(dividendZeroCalc.apply(left, right), 0d),
+                    stack != null ? stack : newStack());
+        }
+        shared.acquire(nonVarValueProvider, dividendZeroCalc);
+        try {
+            return interpreter.calc(0, codes.length, row, presentMask, shared, shared,
+                    stack != null ? stack : shared.stack(maxStackDepth));
+        } finally {
+            shared.release();
+        }
+    }
+
+    /**
+     * 原始类型回调计算，使用线程复用的操作数栈
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calcUnboxed(double[] row, long[] presentMask,
+                              ToDoubleFunction<String> nonVarValueProvider,
+                              DoubleBinaryOperator dividendZeroCalc) {
+        ThreadStack shared = THREAD_STACKS.get();
+        if (shared.inUse) {
+            return calcUnboxed(row, presentMask, nonVarValueProvider, dividendZeroCalc, newStack());
+        }
+        shared.acquire(null, null);
+        try {
+            return calcUnboxed(row, presentMask, nonVarValueProvider, dividendZeroCalc, shared.stack(maxStackDepth));
+        } finally {
+            shared.release();
+        }
+    }
+
+    /**
+     * 原始类型回调计算，变量不存在、被除数为0时不装箱
+     * 与 {@link #calc(double[], long[], Function, BiFunction, double[])} 不同名，避免 lambda 参数重载二义
+     * @param row 变量值，下标为槽位
+     * @param presentMask 变量存在位图，为 null 时全部存在
+     * @param nonVarValueProvider 变量不存在时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     * @param stack 操作数栈，长度不小于 {@link #getMaxStackDepth()}
+     */
+    public double calcUnboxed(double[] row, long[] presentMask,
+                              ToDoubleFunction<String> nonVarValueProvider,
+                              DoubleBinaryOperator dividendZeroCalc,
+                              double[] stack) {
+        return interpreter.calc(0, codes.length, row, presentMask, nonVarValueProvider, dividendZeroCalc, stack);
+    }
+
+    /**
+     * 按变量 Map 计算表达式，同 {@link ExpressionCalc#calcExp(Exp, Map, Function, BiFunction)}，无层数限制
+     * @param nonVarValueProvider 表达式变量不在variableMap时的值provider
+     * @param dividendZeroCalc 被除数等于0时算法
+     */
+    public double calc(Map<String, Double> variableMap,
+                       Function<String, Double> nonVarValueProvider,
+                       BiFunction<Double, Double, Double> dividendZeroCalc) {
+        double[] row = slots.newRow();
+        long[] presentMask = slots.newPresentMask();
+        slots.fill(variableMap, row, presentMask);
+        return calc(row, presentMask, nonVarValueProvider, dividendZeroCalc, null);
+    }
+
+    public double calc(Map<String, Double> variableMap) {
+        return calc(variableMap, NON_VAR, DIVIDEND_ZERO);
+    }
+
+    /**
+     * 由指令还原表达式树，每次返回新对象
+     * 嵌套在 coalesce 最后一个参数中的 coalesce 还原为同一个 coalesce(结果相同)
+     */
+    Exp toExp() {
+        Deque<Exp> stack = new ArrayDeque<>(maxStackDepth);
+        // 未结束的 if、coalesce: {函数类别, 结束位置, 参数个数}，内层在前
+        Deque<int[]> open = new ArrayDeque<>();
+        for (int pc = 0; pc <= codes.length; pc++) {
+            // 结束于此的 if、coalesce，内层先结束
+            while (!open.isEmpty() && open.peek()[1] == pc) {
+                int[] call = open.pop();
+                Exp node = new Exp();
+                node.type = 5;
+                node.function = ExpressionFunctions.lookup(call[0] == ExpressionFunctions.IF ? "if" : "coalesce");
+                node.values = new Exp[call[2]];
+                for (int i = call[2] - 1; i >= 0; i--) {
+                    node.values[i] = stack.pop();
+                }
+                stack.push(node);
+            }
+            if (pc == codes.length) {
+                break;
+            }
+            Exp node = new Exp();
+            switch (codes[pc]) {
+                case CONST:
+                    node.type = 1;
+                    node.value = constants[operands[pc]];
+                    break;
+                case VAR:
+                case OPTIONAL_VAR:
+                    node.type = 3;
+                    node.varName = varNames[pc];
+                    break;
+                case JUMP_IF_ZERO:
+                    // 结束位置在 then 分支后的 JUMP 中
+                    open.push(new int[]{ExpressionFunctions.IF, -1, 3});
+                    continue;
+                case JUMP:
+                    for (int[] call : open) {
+                        if (call[0] == ExpressionFunctions.IF && call[1] < 0) {
+                            call[1] = operands[pc];
+                            break;
+                        }
+                    }
+                    continue;
+                case JUMP_IF_NUMBER:
+                    int[] top = open.peek();
+                    if (top != null && top[0] == ExpressionFunctions.COALESCE && top[1] == operands[pc]) {
+                        top[2]++;
+                    } else {
+                        open.push(new int[]{ExpressionFunctions.COALESCE, operands[pc], 2});
+                    }
+                    continue;
+                case CALL:
+                    int argc = operands[pc] & 0xFF;
+                    node.type = 5;
+                    node.function = functions[operands[pc] >>> 8];
+                    node.values = new Exp[argc];
+                    for (int i = argc - 1; i >= 0; i--) {
+                        node.values[i] = stack.pop();
+                    }
+                    break;
+                default:
+                    node.type = 2;
+                    node.opt = OPTS[codes[pc]];
+                    Exp right = stack.pop();
+                    node.values = new Exp[]{stack.pop(), right};
+            }
+            stack.push(node);
+        }
+        return stack.pop();
+    }
+
+    /**
+     * 指令数
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /** 第 pc 条指令 */
+    byte code(int pc) {
+        return codes[pc];
+    }
+
+    /** 第 pc 条指令的操作数 */
+    int operand(int pc) {
+        return operands[pc];
+    }
+
+    double constant(int idx) {
+        return constants[idx];
+    }
+
+    /** 第 pc 条变量指令的变量名 */
+    String varName(int pc) {
+        return varNames[pc];
+    }
+
+    ExpressionFunctions.Definition function(int idx) {
+        return functions[idx];
+    }
+
+    /**
+     * 表达式树展开为指令，显式栈遍历无递归
+     */
+    private static final class Emitter {
+
+        private final VarSlots slots;
+
+        private byte[] codes = new byte[16];
+        private int[] operands = new int[16];
+        private String[] varNames = new String[16];
+        private int size;
+
+        private final Map<Long, Integer> constantIdxs = new HashMap<>();
+        private double[] constants = new double[8];
+
+        private final Map<ExpressionFunctions.Definition, Integer> functionIdxs = new LinkedHashMap<>();
+
+        private int depth;
+        private int maxDepth;
+
+        Emitter(VarSlots slots) {
+            this.slots = slots;
+        }
+
+        void emit(Exp exp) {
+            Deque<Frame> stack = new ArrayDeque<>();
+            stack.push(new Frame(exp));
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                Exp node = frame.node;
+                if (node.type == 1) {
+                    add(CONST, constantIdx(node.value), null, 1);
+                    stack.pop();
+                } else if (node.type == 3) {
+                    add(VAR, slots.slotOf(node.varName), node.varName, 1);
+                    stack.pop();
+                } else if (node.type == 2) {
+                    if (frame.next < 2) {
+                        stack.push(new Frame(node.values[frame.next++]));
+                    } else {
+                        add(opCode(node.opt), 0, null, -1);
+                        stack.pop();
+                    }
+                } else if (node.type == 5) {
+                    Exp arg = function(frame);
+                    if (arg != null) {
+                        stack.push(new Frame(arg));
+                    } else if (frame.next > node.values.length) {
+                        stack.pop();
+                    }
+                } else {
+                    throw new IllegalArgumentException("未知的表达式类型:" + node.type);
+                }
+            }
+        }
+
+        /**
+         * 函数调用的下一步
+         * @return 下一个需展开的参数，没有返回 null
+         */
+        private Exp function(Frame frame) {
+            Exp[] args = frame.node.values;
+            ExpressionFunctions.Definition function = frame.node.function;
+            if (args.length > ExpressionFunctions.MAX_ARGS) {
+                throw new IllegalArgumentException("函数" + function.name + "参数个数超过" + ExpressionFunctions.MAX_ARGS);
+            }
+            int next = frame.next++;
+            if (function.kind == ExpressionFunctions.IF) {
+                // cond JUMP_IF_ZERO(else) a JUMP(end) else: b end:
+                if (next == 1) {
+                    frame.jumps[0] = add(JUMP_IF_ZERO, 0, null, -1);
+                } else if (next == 2) {
+                    frame.jumps[1] = add(JUMP, 0, null, -1);
+                    operands[frame.jumps[0]] = size;
+                } else if (next == 3) {
+                    operands[frame.jumps[1]] = size;
+                    return null;
+                }
+                return args[next];
+            }
+            if (function.kind == ExpressionFunctions.COALESCE) {
+                // a JUMP_IF_NUMBER(end) b JUMP_IF_NUMBER(end) ... z end:
+                if (next == args.length) {
+                    for (int i = 0; i < next - 1; i++) {
+                        operands[frame.jumps[i]] = size;
+                    }
+                    return null;
+                }
+                if (next > 0) {
+                    frame.jumps[next - 1] = add(JUMP_IF_NUMBER, 0, null, -1);
+                }
+                Exp arg = args[next];
+                if (arg.type == 3 && next < args.length - 1) {
+                    add(OPTIONAL_VAR, slots.slotOf(arg.varName), arg.varName, 1);
+                    return null;
+                }
+                return arg;
+            }
+            if (next < args.length) {
+                return args[next];
+            }
+            Integer idx = functionIdxs.putIfAbsent(function, functionIdxs.size());
+            add(CALL, (idx == null ? functionIdxs.size() - 1 : idx) << 8 | args.length, null, 1 - args.length);
+            return null;
+        }
+
+        /**
+         * @param stackDelta 指令执行后栈深度变化
+         * @return 指令下标
+         */
+        private int add(byte code, int operand, String varName, int stackDelta) {
+            if (size == codes.length) {
+                int capacity = size * 2;
+                codes = Arrays.copyOf(codes, capacity);
+                operands = Arrays.copyOf(operands, capacity);
+                varNames = Arrays.copyOf(varNames, capacity);
+            }
+            codes[size] = code;
+            operands[size] = operand;
+            varNames[size] = varName;
+            depth += stackDelta;
+            maxDepth = Math.max(maxDepth, depth);
+            return size++;
+        }
+
+        private int constantIdx(double value) {
+            Integer idx = constantIdxs.putIfAbsent(Double.doubleToRawLongBits(value), constantIdxs.size());
+            if (idx == null) {
+                idx = constantIdxs.size() - 1;
+                if (idx == constants.length) {
+                    constants = Arrays.copyOf(constants, idx * 2);
+                }
+                constants[idx] = value;
+            }
+            return idx;
+        }
+
+        StackExpression build() {
+            return new StackExpression(slots, Arrays.copyOf(codes, size), Arrays.copyOf(operands, size),
+                    Arrays.copyOf(constants, constantIdxs.size()), Arrays.copyOf(varNames, size),
+                    functionIdxs.keySet().toArray(new ExpressionFunctions.Definition[0]), maxDepth);
+        }
+    }
+
+    /**
+     * 线程复用的操作数栈，同时将装箱回调适配为原始类型回调，非线程安全，每个线程一份
+     * 计算期间标记为使用中，嵌套的计算不复用
+     */
+    private static final class ThreadStack implements ToDoubleFunction<String>, DoubleBinaryOperator {
+
+        private double[] stack = new double[0];
+
+        boolean inUse;
+
+        private Function<String, Double> nonVarValueProvider;
+
+        private BiFunction<Double, Double, Double> dividendZeroCalc;
+
+        void acquire(Function<String, Double> nonVarValueProvider, BiFunction<Double, Double, Double> dividendZeroCalc) {
+            this.inUse = true;
+            this.nonVarValueProvider = nonVarValueProvider;
+            this.dividendZeroCalc = dividendZeroCalc;
+        }
+
+        /**
+         * 释放时清除回调，不持有调用方对象
+         */
+        void release() {
+            this.inUse = false;
+            this.nonVarValueProvider = null;
+            this.dividendZeroCalc = null;
+        }
+
+        double[] stack(int depth) {
+            if (stack.length < depth) {
+                stack = new double[depth];
+            }
+            return stack;
+        }
+
+        @Override
+        public double applyAsDouble(String varName) {
+            return Objs.ifNull(nonVarValueProvider.apply(varName), 0d);
+        }
+
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return Objs.ifNull(dividendZeroCalc.apply(left, right), 0d);
+        }
+    }
+
+    /**
+     * 展开中的节点
+     */
+    private static final class Frame {
+
+        final Exp node;
+
+        /** 下一个子节点(参数)下标 */
+        int next;
+
+        /** if、coalesce 待回填的跳转指令下标 */
+        final int[] jumps;
+
+        Frame(Exp node) {
+            this.node = node;
+            this.jumps = node.type == 5 && node.function.isLazy() ? new int[node.values.length] : null;
+        }
+    }
+
+
+}
@@ -0,0 +1,266 @@
+package com.tang.tj.toolkit.expression;
+
+import java.util.Arrays;
+
+/**
+ * 前 K 名
+ * 按分数保留最好的 K 条(分数 double + 编号 long)，堆存放在原始类型数组中，堆顶为当前保留的最差一条
+ * 每条 O(log K)，内存与已处理条数无关；分数为 NaN 的不参与排名
+ * 分数相同时按 {@link TieBreak} 比较编号，排名与处理顺序无关，多个分区各自取前 K 名后合并结果与整体取前 K 名一致
+ * 非线程安全，并行时每个分区一个实例，最后 {@link #merge(TopK)}
+ */
+public final class TopK {
+
+    /**
+     * 分数相同时的排名规则
+     */
+    public enum TieBreak {
+        /** 编号小的在前 */
+        SMALLER_ID,
+        /** 编号大的在前 */
+        LARGER_ID
+    }
+
+    private final int k;
+
+    /** 是否分数高的在前 */
+    private final boolean highest;
+
+    private final TieBreak tieBreak;
+
+    /** 堆: 父节点不比子节点好 */
+    private final double[] scores;
+    private final long[] ids;
+
+    private int size;
+
+    private TopK(int k, boolean highest, TieBreak tieBreak) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k需大于0");
+        }
+        this.k = k;
+        this.highest = highest;
+        this.tieBreak = tieBreak;
+        this.scores = new double[k];
+        this.ids = new long[k];
+    }
+
+    /**
+     * 分数最高的 K 条，分数相同时编号小的在前
+     */
+    public static TopK highest(int k) {
+        return new TopK(k, true, TieBreak.SMALLER_ID);
+    }
+
+    /**
+     * 分数最低的 K 条，分数相同时编号小的在前
+     */
+    public static TopK lowest(int k) {
+        return new TopK(k, false, TieBreak.SMALLER_ID);
+    }
+
+    /**
+     * @param highest 是否分数高的在前
+     * @param tieBreak 分数相同时的排名规则
+     */
+    public static TopK of(int k, boolean highest, TieBreak tieBreak) {
+        return new TopK(k, highest, tieBreak);
+    }
+
+    /**
+     * 同规则的空实例，如并行分区
+     */
+    public TopK newEmpty() {
+        return new TopK(k, highest, tieBreak);
+    }
+
+    /**
+     * 加入一条
+     * @return 是否进入前 K 名
+     */
+    public boolean offer(double score, long id) {
+        if (score != score) {
+            return false;
+        }
+        if (size < k) {
+            siftUp(size++, score, id);
+            return true;
+        }
+        if (!better(score, id, scores[0], ids[0])) {
+            return false;
+        }
+        siftDown(0, score, id);
+        return true;
+    }
+
+    /**
+     * 合并另一实例保留的条目，两者规则需相同
+     */
+    public void merge(TopK other) {
+        if (other.k != k || other.highest != highest || other.tieBreak != tieBreak) {
+            throw new IllegalArgumentException("前K名规则不同不能合并");
+        }
+        for (int i = 0; i < other.size; i++) {
+            offer(other.scores[i], other.ids[i]);
+        }
+    }
+
+    /**
+     * a 是否排在 b 前面
+     */
+    private boolean better(double scoreA, long idA, double scoreB, long idB) {
+        if (scoreA != scoreB) {
+            return highest ? scoreA > scoreB : scoreA < scoreB;
+        }
+        return tieBreak == TieBreak.SMALLER_ID ? idA < idB : idA > idB;
+    }
+
+    private void siftUp(int i, double score, long id) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(scores[parent], ids[parent], score, id)) {
+                break;
+            }
+            scores[i] = scores[parent];
+            ids[i] = ids[parent];
+            i = parent;
+        }
+        scores[i] = score;
+        ids[i] = id;
+    }
+
+    private void siftDown(int i, double score, long id) {
+        siftDown(scores, ids, size, i, score, id);
+    }
+
+    /**
+     * 堆 [0, size) 中从 i 下沉
+     */
+    private void siftDown(double[] scores, long[] ids, int size, int i, double score, long id) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && better(scores[child], ids[child], scores[right], ids[right])) {
+                child = right;
+            }
+            if (!better(score, id, scores[child], ids[child])) {
+                break;
+            }
+            scores[i] = scores[child];
+            ids[i] = ids[child];
+            i = child;
+        }
+        scores[i] = score;
+        ids[i] = id;
+    }
+
+    /**
+     * 当前保留条数
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * 进入前 K 名需超过的分数(当前第 K 名的分数)，未满 K 条时为 NaN
+     */
+    public double threshold() {
+        return size < k ? Double.NaN : scores[0];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 当前排名，之后的加入不影响结果
+     */
+    public Ranking toRanking() {
+        // 复制堆后堆排序: 依次取出堆顶(最差)放到末尾
+        double[] sortedScores = Arrays.copyOf(scores, size);
+        long[] sortedIds = Arrays.copyOf(ids, size);
+        for (int end = size - 1; end > 0; end--) {
+            double score = sortedScores[end];
+            long id = sortedIds[end];
+            sortedScores[end] = sortedScores[0];
+            sortedIds[end] = sortedIds[0];
+            siftDown(sortedScores, sortedIds, end, 0, score, id);
+        }
+        return new Ranking(sortedScores, sortedIds);
+    }
+
+    @Override
+    public String toString() {
+        return "TopK{" +
+                "k=" + k +
+                ", highest=" + highest +
+                ", tieBreak=" + tieBreak +
+                ", size=" + size +
+                '}';
+    }
+
+    /**
+     * 排名结果，按名次排序，不可变
+     */
+    public static final class Ranking {
+
+        private final double[] scores;
+
+        private final long[] ids;
+
+        private Ranking(double[] scores, long[] ids) {
+            this.scores = scores;
+            this.ids = ids;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        /**
+         * 第 rank 名(从0开始)的分数
+         */
+        public double getScore(int rank) {
+            return scores[rank];
+        }
+
+        /**
+         * 第 rank 名(从0开始)的编号
+         */
+        public long getId(int rank) {
+            return ids[rank];
+        }
+
+        /**
+         * 按名次排序的编号，返回副本
+         */
+        public long[] getIds() {
+            return ids.clone();
+        }
+
+        /**
+         * 按名次排序的分数，返回副本
+         */
+        public double[] getScores() {
+            return scores.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Ranking[");
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(ids[i]).append('=').append(scores[i]);
+            }
+            return sb.append(']').toString();
+        }
+    }
+
+}
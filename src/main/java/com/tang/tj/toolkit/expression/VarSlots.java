@@ -0,0 +1,123 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.util.Collects;
+import com.tang.tj.toolkit.util.Objs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 表达式变量槽位布局
+ * 变量名对应连续的 int 槽位，一行变量值为 double[]，下标即槽位
+ * 变量是否存在使用 long[] 位图表示，第 slot 位为1表示存在，见 {@link #newPresentMask()}
+ */
+public final class VarSlots {
+
+    /** 变量名，下标为槽位 */
+    private final String[] names;
+
+    private final Map<String, Integer> slots;
+
+    private VarSlots(String[] names) {
+        this.names = names;
+        this.slots = new HashMap<>(Collects.mapCapacity(names.length));
+        for (int i = 0; i < names.length; i++) {
+            if (slots.putIfAbsent(names[i], i) != null) {
+                throw new IllegalArgumentException("变量名[" + names[i] + "]重复");
+            }
+        }
+    }
+
+    /**
+     * 按传入顺序分配槽位
+     */
+    public static VarSlots of(String... names) {
+        return new VarSlots(names.clone());
+    }
+
+    /**
+     * 多个表达式的全部变量，按首次出现顺序分配槽位
+     */
+    public static VarSlots of(ExpressionCalc.Exp... exps) {
+        Map<String, Boolean> names = new LinkedHashMap<>();
+        for (ExpressionCalc.Exp exp : exps) {
+            for (ExpressionCalc.Exp node : ExpressionCompiler.postOrder(exp)) {
+                if (node.type == 3) {
+                    names.putIfAbsent(node.varName, Boolean.TRUE);
+                }
+            }
+        }
+        return new VarSlots(names.keySet().toArray(new String[0]));
+    }
+
+    /**
+     * 变量个数
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * 变量槽位，不存在返回 -1
+     */
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    public String nameOf(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * 新建一行变量值
+     */
+    public double[] newRow() {
+        return new double[names.length];
+    }
+
+    /**
+     * 新建变量存在位图，初始全部不存在
+     */
+    public long[] newPresentMask() {
+        return new long[(names.length + 63) >>> 6];
+    }
+
+    public static boolean isPresent(long[] presentMask, int slot) {
+        return (presentMask[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    public static void markPresent(long[] presentMask, int slot) {
+        presentMask[slot >>> 6] |= 1L << slot;
+    }
+
+    /**
+     * 从变量 Map 填充一行变量值，变量值为 null 时取0
+     * @param row 变量值
+     * @param presentMask 变量存在位图，为 null 时不记录
+     */
+    public void fill(Map<String, Double> variableMap, double[] row, long[] presentMask) {
+        if (presentMask != null) {
+            Arrays.fill(presentMask, 0L);
+        }
+        for (int i = 0; i < names.length; i++) {
+            Double value = variableMap.get(names[i]);
+            if (value == null && !variableMap.containsKey(names[i])) {
+                row[i] = 0d;
+                continue;
+            }
+            row[i] = Objs.ifNull(value, 0d);
+            if (presentMask != null) {
+                markPresent(presentMask, i);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VarSlots" + Arrays.toString(names);
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import com.tang.tj.toolkit.util.Nums;
+import com.tang.tj.toolkit.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 表达式变量名字典
+ * 变量名可包含运算符、括号等特殊字符，忽略大小写
+ * 预先将全部变量名构建为 Aho-Corasick 自动机，解析时单次扫描表达式，按最左最长匹配识别变量名，匹配到的区间整体作为一个变量
+ * 构建后不可变，可多线程共用并解析任意多个表达式，解析不修改任何调用方数据
+ */
+public final class VariableDictionary {
+
+    /** 根节点 */
+    private static final int ROOT = 0;
+
+    /** 变量名(匹配到时表达式节点的变量名)，下标为模式编号 */
+    private final String[] names;
+
+    /** 节点失败指针 */
+    private final int[] fail;
+
+    /** 节点深度，即节点对应字符串长度 */
+    private final int[] depth;
+
+    /** 节点结束的模式编号，-1 无 */
+    private final int[] output;
+
+    /** 沿失败指针最近的有模式结束的节点，-1 无 */
+    private final int[] outputLink;
+
+    /** 转移表 (节点 << 16 | 字符) -> 子节点，开放寻址 */
+    private final long[] edgeKeys;
+    private final int[] edgeValues;
+
+    /** 节点首个子节点、下一个兄弟节点及字符，仅构建时使用 */
+    private int[] firstChild;
+    private int[] nextSibling;
+    private char[] nodeChar;
+
+    private int nodeCount;
+
+    private VariableDictionary(List<String> patterns, List<String> names) {
+        this.names = names.toArray(new String[0]);
+        int capacity = 16;
+        for (String pattern : patterns) {
+            capacity += pattern.length();
+        }
+        fail = new int[capacity];
+        depth = new int[capacity];
+        output = new int[capacity];
+        outputLink = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        nodeChar = new char[capacity];
+        int edgeCapacity = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        edgeKeys = new long[edgeCapacity];
+        edgeValues = new int[edgeCapacity];
+        Arrays.fill(edgeKeys, -1L);
+        newNode('\0', 0);
+        for (int i = 0; i < patterns.size(); i++) {
+            addPattern(patterns.get(i), i);
+        }
+        buildFailLinks();
+    }
+
+    /**
+     * 构建变量名字典，忽略大小写后重复的变量名取第一个，空字符串及数值忽略
+     * @param names 变量名
+     */
+    public static VariableDictionary of(Collection<String> names) {
+        List<String> patterns = new ArrayList<>(names.size());
+        List<String> labels = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (Strings.isEmpty(name) || Nums.isParsable(name)) {
+                continue;
+            }
+            patterns.add(name);
+            labels.add(name);
+        }
+        return new VariableDictionary(patterns, labels);
+    }
+
+    /**
+     * @param patterns 匹配的字符串
+     * @param names 匹配到时表达式节点的变量名
+     */
+    static VariableDictionary of(List<String> patterns, List<String> names) {
+        return new VariableDictionary(patterns, names);
+    }
+
+    /**
+     * 解析表达式，字典中的变量名整体作为一个变量，表达式节点变量名为字典中的变量名
+     * 字典外的部分同 {@link ExpressionCalc#parseExp(String)} 解析
+     */
+    public Exp parseExp(String exp) {
+        ExpressionMetrics metrics = ExpressionMetrics.current();
+        long start = metrics == null ? 0 : System.nanoTime();
+        ExpressionParser.Matches matches = match(exp);
+        // 中文括号替换不改变下标
+        Exp expression = ExpressionParser.parse(exp.replace('（', '(').replace('）', ')'), matches);
+        if (metrics != null) {
+            metrics.parsed(exp, ExpressionMetrics.nodeCount(expression), System.nanoTime() - start);
+        }
+        return expression;
+    }
+
+    /**
+     * 单次扫描，最左最长匹配且互不重叠的变量名区间
+     * 拆分 and、or、not 及函数名(后跟左括号)的区间不匹配，如变量 a 不匹配 and、max( 中的 a
+     */
+    ExpressionParser.Matches match(String text) {
+        int len = text.length();
+        ExpressionParser.Reserved reserved = ExpressionParser.Reserved.of(text);
+        // 每个起始下标匹配到的最长模式
+        int[] longest = null;
+        int[] pattern = null;
+        int state = ROOT;
+        for (int i = 0; i < len; i++) {
+            char c = fold(text.charAt(i));
+            int next = edge(state, c);
+            while (next < 0 && state != ROOT) {
+                state = fail[state];
+                next = edge(state, c);
+            }
+            state = next < 0 ? ROOT : next;
+            for (int node = output[state] >= 0 ? state : outputLink[state]; node >= 0; node = outputLink[node]) {
+                if (longest == null) {
+                    longest = new int[len];
+                    pattern = new int[len];
+                }
+                int start = i - depth[node] + 1;
+                if (reserved != null && reserved.splits(start, i + 1)) {
+                    continue;
+                }
+                if (depth[node] > longest[start]) {
+                    longest[start] = depth[node];
+                    pattern[start] = output[node];
+                }
+            }
+        }
+        ExpressionParser.Matches matches = new ExpressionParser.Matches(0);
+        if (longest == null) {
+            return matches;
+        }
+        for (int i = 0; i < len; ) {
+            if (longest[i] > 0) {
+                matches.add(i, i + longest[i], names[pattern[i]]);
+                i += longest[i];
+            } else {
+                i++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 字典变量个数
+     */
+    public int size() {
+        return names.length;
+    }
+
+    private void addPattern(String pattern, int idx) {
+        int node = ROOT;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = fold(pattern.charAt(i));
+            int child = edge(node, c);
+            if (child < 0) {
+                child = newNode(c, depth[node] + 1);
+                putEdge(node, c, child);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+            }
+            node = child;
+        }
+        // 重复的变量名取第一个
+        if (output[node] < 0) {
+            output[node] = idx;
+        }
+    }
+
+    /**
+     * 按层遍历构建失败指针
+     */
+    private void buildFailLinks() {
+        outputLink[ROOT] = -1;
+        int[] queue = new int[nodeCount];
+        int head = 0, tail = 0;
+        for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+            fail[child] = ROOT;
+            outputLink[child] = -1;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                char c = nodeChar[child];
+                int f = fail[node];
+                int next = edge(f, c);
+                while (next < 0 && f != ROOT) {
+                    f = fail[f];
+                    next = edge(f, c);
+                }
+                fail[child] = next < 0 ? ROOT : next;
+                outputLink[child] = output[fail[child]] >= 0 ? fail[child] : outputLink[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+        // 构建完成后不再需要
+        firstChild = null;
+        nextSibling = null;
+        nodeChar = null;
+    }
+
+    private int newNode(char c, int nodeDepth) {
+        int node = nodeCount++;
+        depth[node] = nodeDepth;
+        output[node] = -1;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        nodeChar[node] = c;
+        return node;
+    }
+
+    private int edge(int node, char c) {
+        long key = ((long) node << 16) | c;
+        int mask = edgeKeys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (edgeKeys[i] == key) {
+                return edgeValues[i];
+            }
+            if (edgeKeys[i] == -1L) {
+                return -1;
+            }
+        }
+    }
+
+    private void putEdge(int node, char c, int child) {
+        long key = ((long) node << 16) | c;
+        int mask = edgeKeys.length - 1;
+        int i = hash(key) & mask;
+        while (edgeKeys[i] != -1L) {
+            i = (i + 1) & mask;
+        }
+        edgeKeys[i] = key;
+        edgeValues[i] = child;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 忽略大小写，逐字符转大写
+     */
+    private static char fold(char c) {
+        return Character.toUpperCase(c);
+    }
+
+}
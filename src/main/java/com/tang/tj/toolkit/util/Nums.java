@@ -1,12 +1,44 @@
 package com.tang.tj.toolkit.util;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.RoundingMode;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class Nums {
 
+    /** 十进制指数上限，超过后按上限计算(结果必为0或无穷) */
+    private static final int MAX_EXPONENT = 100_000;
+
+    /** 最多累加的有效数字位数，19位十进制数不超过无符号64位 */
+    private static final int MAX_DIGITS = 19;
+
+    /** 2^53，不超过该值的整数可精确表示为 double */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** 128位 10 的幂表的指数范围 */
+    private static final int MIN_POW10 = -348;
+    private static final int MAX_POW10 = 347;
+
+    /**
+     * 10^q 的128位尾数(向下取整，最高位为1)，下标 (q - MIN_POW10) * 2 为高64位，+1 为低64位
+     */
+    private static final long[] POW10_128 = pow10Table();
+
+    /** 文本形式的解析方式 */
+    private static final int DECIMAL = 0;
+    private static final int PLAIN = 1;
+
     /**
      * 可能为数值的数据转换成 double，不能转换返回 defaultV
+     * 字符串按 {@link Double#parseDouble(String)} 的格式解析，十进制文本不抛出异常
      */
     public static double number2Double(Object number, double defaultV) {
         if (number == null) {
@@ -15,15 +47,54 @@ public class Nums {
         if (number instanceof Number) {
             return ((Number) number).doubleValue();
         }
+        String text = String.valueOf(number);
+        int from = 0;
+        int to = text.length();
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return defaultV;
+        }
+        int end = to;
+        char last = text.charAt(to - 1);
+        if (last == 'd' || last == 'D' || last == 'f' || last == 'F') {
+            to--;
+        }
+        double value = parseDouble(text, from, to, Double.NaN);
+        if (value == value) {
+            return value;
+        }
+        // NaN、Infinity 及十六进制浮点数
+        char sign = text.charAt(from);
+        int start = sign == '-' || sign == '+' ? from + 1 : from;
+        if (isWord(text, start, end, "NaN")) {
+            return Double.NaN;
+        }
+        if (isWord(text, start, end, "Infinity")) {
+            return sign == '-' ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        if (end - start < 3 || text.charAt(start) != '0'
+                || (text.charAt(start + 1) != 'x' && text.charAt(start + 1) != 'X')) {
+            return defaultV;
+        }
         try {
-            return Double.parseDouble(String.valueOf(number));
+            return Double.parseDouble(text);
         } catch (Exception ignored) {
             return defaultV;
         }
     }
 
+    private static boolean isWord(String text, int from, int to, String word) {
+        return to - from == word.length() && text.startsWith(word, from);
+    }
+
     /**
      * 可能为数值的数据转换成 int，不能转换返回 defaultV
+     * 字符串按 {@link Integer#parseInt(String)} 的格式解析，ASCII 文本不抛出异常
      * @param defaultV 转换失败的默认值
      */
     public static int number2Int(Object number, int defaultV) {
@@ -33,19 +104,575 @@ public class Nums {
         if (number instanceof Number) {
             return ((Number)number).intValue();
         }
-        try {
-            return Integer.parseInt(String.valueOf(number));
-        } catch (Exception ignored) {
+        String text = String.valueOf(number);
+        int length = text.length();
+        if (length == 0) {
+            return defaultV;
+        }
+        char first = text.charAt(0);
+        boolean negative = first == '-';
+        int i = negative || first == '+' ? 1 : 0;
+        if (i == length) {
             return defaultV;
         }
+        // 按负数累加，可表示 Integer.MIN_VALUE
+        long value = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                if (c < 128) {
+                    return defaultV;
+                }
+                // 非 ASCII 数字
+                try {
+                    return Integer.parseInt(text);
+                } catch (Exception ignored) {
+                    return defaultV;
+                }
+            }
+            value = value * 10 - (c - '0');
+            if (value < Integer.MIN_VALUE) {
+                return defaultV;
+            }
+        }
+        if (!negative && value == Integer.MIN_VALUE) {
+            return defaultV;
+        }
+        return (int) (negative ? value : -value);
     }
-    
+
+    /**
+     * 解析十进制数 [+-]?(\d+(\.\d*)?|\.\d+)([eE][+-]?\d+)?，不允许空白，不抛出异常
+     * 一次遍历同时校验和转换，结果与 {@link Double#parseDouble(String)} 一致(正确舍入)
+     * @param from 起始下标(含)
+     * @param to 结束下标(不含)
+     * @param failValue 不是十进制数时的返回值，通常传 {@link Double#NaN} 并以 {@code v != v} 判断失败
+     */
+    public static double parseDouble(CharSequence text, int from, int to, double failValue) {
+        return parse(text, from, to, DECIMAL, failValue);
+    }
+
+    /**
+     * 同 {@link #parseDouble(CharSequence, int, int, double)}，字节按 ASCII 解析
+     */
+    public static double parseDouble(byte[] bytes, int from, int to, double failValue) {
+        return parse(bytes, from, to, DECIMAL, failValue);
+    }
+
+    /**
+     * 解析 {@link #isParsable(String)} 格式的数: 可选负号、数字及至多一个小数点，小数点后需有数字，不含指数
+     * 一次遍历同时校验和转换，结果与 {@link Double#valueOf(String)} 一致
+     * @param failValue 格式不符时的返回值
+     */
+    public static double parsePlainDouble(CharSequence text, int from, int to, double failValue) {
+        return parse(text, from, to, PLAIN, failValue);
+    }
+
+    private static double parse(CharSequence text, int from, int to, int format, double failValue) {
+        int i = from;
+        if (i == to) {
+            return failValue;
+        }
+        char c = text.charAt(i);
+        boolean negative = c == '-';
+        if (negative || (c == '+' && format == DECIMAL)) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        boolean anyDigit = false;
+        boolean point = false;
+        for (; i < to; i++) {
+            c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (point) {
+                        exponent--;
+                    }
+                } else {
+                    truncated |= c != '0';
+                    if (!point) {
+                        exponent++;
+                    }
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit || (format == PLAIN && point && text.charAt(i - 1) == '.')) {
+            return failValue;
+        }
+        if (i < to) {
+            if (format == PLAIN || (c != 'e' && c != 'E') || ++i == to) {
+                return failValue;
+            }
+            c = text.charAt(i);
+            boolean negativeExp = c == '-';
+            if ((negativeExp || c == '+') && ++i == to) {
+                return failValue;
+            }
+            int exp = 0;
+            for (; i < to; i++) {
+                c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return failValue;
+                }
+                if (exp < MAX_EXPONENT) {
+                    exp = exp * 10 + (c - '0');
+                }
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+        double value = toDouble(negative, mantissa, exponent, truncated);
+        return value == value ? value : Double.parseDouble(text.subSequence(from, to).toString());
+    }
+
+    private static double parse(byte[] text, int from, int to, int format, double failValue) {
+        int i = from;
+        if (i == to) {
+            return failValue;
+        }
+        byte c = text[i];
+        boolean negative = c == '-';
+        if (negative || (c == '+' && format == DECIMAL)) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        boolean anyDigit = false;
+        boolean point = false;
+        for (; i < to; i++) {
+            c = text[i];
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (point) {
+                        exponent--;
+                    }
+                } else {
+                    truncated |= c != '0';
+                    if (!point) {
+                        exponent++;
+                    }
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit || (format == PLAIN && point && text[i - 1] == '.')) {
+            return failValue;
+        }
+        if (i < to) {
+            if (format == PLAIN || (c != 'e' && c != 'E') || ++i == to) {
+                return failValue;
+            }
+            c = text[i];
+            boolean negativeExp = c == '-';
+            if ((negativeExp || c == '+') && ++i == to) {
+                return failValue;
+            }
+            int exp = 0;
+            for (; i < to; i++) {
+                c = text[i];
+                if (c < '0' || c > '9') {
+                    return failValue;
+                }
+                if (exp < MAX_EXPONENT) {
+                    exp = exp * 10 + (c - '0');
+                }
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+        double value = toDouble(negative, mantissa, exponent, truncated);
+        return value == value ? value : Double.parseDouble(new String(text, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * mantissa * 10^exponent 转为最接近的 double，无法确定时返回 NaN(由调用方按文本精确解析)
+     * @param mantissa 无符号的前19位有效数字
+     * @param truncated 19位之后是否还有非0数字
+     */
+    private static double toDouble(boolean negative, long mantissa, int exponent, boolean truncated) {
+        if (mantissa == 0) {
+            return negative ? -0d : 0d;
+        }
+        if (exponent > 308) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        if (exponent < -324 - MAX_DIGITS) {
+            return negative ? -0d : 0d;
+        }
+        // 尾数和10的幂都可精确表示时一次乘除即正确舍入
+        if (!truncated && mantissa >= 0 && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent < 0 ? value / POW10[-exponent] : value * POW10[exponent];
+            return negative ? -value : value;
+        }
+        long bits = eiselLemire(mantissa, exponent);
+        if (truncated && bits >= 0 && bits != eiselLemire(mantissa + 1, exponent)) {
+            // 被截断的数字位于 mantissa 与 mantissa + 1 之间，两者结果不同时无法确定
+            bits = -1;
+        }
+        if (bits < 0) {
+            return Double.NaN;
+        }
+        return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+    }
+
+    /**
+     * Eisel-Lemire 算法: 以128位 10 的幂近似值计算 mantissa * 10^exponent 的正确舍入结果
+     * @return double 的位(不含符号)，无法确定(临近中点、非正规数或溢出)时返回 -1
+     */
+    private static long eiselLemire(long mantissa, int exponent) {
+        if (exponent < MIN_POW10 || exponent > MAX_POW10) {
+            return -1;
+        }
+        int index = (exponent - MIN_POW10) * 2;
+        int clz = Long.numberOfLeadingZeros(mantissa);
+        long man = mantissa << clz;
+        long exp2 = ((217706L * exponent) >> 16) + 64 + 1023 - clz;
+
+        long powHi = POW10_128[index];
+        long xHi = unsignedMultiplyHigh(man, powHi);
+        long xLo = man * powHi;
+        if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+            // 需要低64位进一步确定
+            long powLo = POW10_128[index + 1];
+            long yHi = unsignedMultiplyHigh(man, powLo);
+            long yLo = man * powLo;
+            long mergedHi = xHi;
+            long mergedLo = xLo + yHi;
+            if (Long.compareUnsigned(mergedLo, xLo) < 0) {
+                mergedHi++;
+            }
+            if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + man, man) < 0) {
+                return -1;
+            }
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+        long msb = xHi >>> 63;
+        long result = xHi >>> (msb + 9);
+        exp2 -= 1 ^ msb;
+        if (xLo == 0 && (xHi & 0x1FF) == 0 && (result & 3) == 1) {
+            // 恰在两个 double 中点附近
+            return -1;
+        }
+        result += result & 1;
+        result >>>= 1;
+        if ((result >>> 53) > 0) {
+            result >>>= 1;
+            exp2++;
+        }
+        if (exp2 <= 0 || exp2 >= 0x7FF) {
+            return -1;
+        }
+        return exp2 << 52 | (result & 0x000FFFFFFFFFFFFFL);
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    private static long[] pow10Table() {
+        long[] table = new long[(MAX_POW10 - MIN_POW10 + 1) * 2];
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int q = MIN_POW10; q <= MAX_POW10; q++) {
+            BigInteger pow = BigInteger.TEN.pow(Math.abs(q));
+            BigInteger mantissa;
+            if (q >= 0) {
+                int shift = pow.bitLength() - 128;
+                mantissa = shift > 0 ? pow.shiftRight(shift) : pow.shiftLeft(-shift);
+            } else {
+                mantissa = BigInteger.ONE.shiftLeft(127 + pow.bitLength()).divide(pow);
+                if (mantissa.bitLength() > 128) {
+                    mantissa = mantissa.shiftRight(mantissa.bitLength() - 128);
+                }
+            }
+            int index = (q - MIN_POW10) * 2;
+            table[index] = mantissa.shiftRight(64).longValue();
+            table[index + 1] = mantissa.and(mask).longValue();
+        }
+        return table;
+    }
+
+    /** 直接按整数计算的最大小数位数 */
+    private static final int MAX_FAST_SCALE = 18;
+
+    /** 直接按整数计算时截断后整数上限，不超过15位有效数字的十进制数与 double 一一对应 */
+    private static final double MAX_FAST_SCALED = 1e15;
+
+    /** double2Str 结果除小数位外的最大长度: 负号、309位整数、小数点 */
+    private static final int MAX_STR_LENGTH = 311;
+
     /**
      * double 转成字符串，最多n位小数，不含小数位时不带小数点
      * 11.00d -> "11"
      * 11.1d -> "11.1"
      */
     public static String double2Str(double num, int scale) {
+        long scaled = truncate(num, scale);
+        if (scaled < 0) {
+            return plainStr(num, scale);
+        }
+        char[] chars = new char[fixedLength(num < 0, scaled, scale)];
+        writeFixed(num < 0, scaled, scale, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * 同 {@link #double2Str(double, int)}，结果追加到 sb
+     * @return sb
+     */
+    public static StringBuilder double2Str(double num, int scale, StringBuilder sb) {
+        long scaled = truncate(num, scale);
+        if (scaled < 0) {
+            return sb.append(plainStr(num, scale));
+        }
+        if (num < 0 && scaled != 0) {
+            sb.append('-');
+        }
+        long unit = (long) POW10[scale];
+        sb.append(scaled / unit);
+        long fraction = scaled % unit;
+        if (fraction != 0) {
+            int fractionDigits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+            sb.append('.');
+            for (int i = stringSize(fraction); i < fractionDigits; i++) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+
+    /**
+     * 同 {@link #double2Str(double, int)}，结果写入 chars 的 offset 处，chars 需有足够空间(见 {@link #maxDoubleStrLength(int)})
+     * @return 写入后的下标
+     */
+    public static int double2Str(double num, int scale, char[] chars, int offset) {
+        long scaled = truncate(num, scale);
+        if (scaled < 0) {
+            String text = plainStr(num, scale);
+            text.getChars(0, text.length(), chars, offset);
+            return offset + text.length();
+        }
+        return writeFixed(num < 0, scaled, scale, chars, offset);
+    }
+
+    /**
+     * 同 {@link #double2Str(double, int)}，以 ASCII 写入 buffer 当前位置
+     * @throws BufferOverflowException buffer 剩余空间不足，此时 buffer 不变
+     */
+    public static ByteBuffer double2Str(double num, int scale, ByteBuffer buffer) {
+        if (!tryWrite(num, scale, buffer)) {
+            throw new BufferOverflowException();
+        }
+        return buffer;
+    }
+
+    /**
+     * 同 {@link #double2Str(double, int)}，批量将 values[from, to) 写入 buffer，每个值后写入 delimiter
+     * buffer 空间不足时停止，返回下一个未写入值的下标，调用方写出 buffer 后从该下标继续
+     * @return 下一个未写入值的下标，全部写入时为 to
+     */
+    public static int double2Str(double[] values, int from, int to, int scale, byte delimiter, ByteBuffer buffer) {
+        int i = from;
+        for (; i < to; i++) {
+            int position = buffer.position();
+            if (!tryWrite(values[i], scale, buffer)) {
+                break;
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.position(position);
+                break;
+            }
+            buffer.put(delimiter);
+        }
+        return i;
+    }
+
+    /**
+     * {@link #double2Str(double, int)} 结果的最大长度
+     */
+    public static int maxDoubleStrLength(int scale) {
+        return MAX_STR_LENGTH + Math.max(scale, 0);
+    }
+
+    /**
+     * 空间足够时写入 buffer 并返回 true，否则 buffer 不变并返回 false
+     */
+    private static boolean tryWrite(double num, int scale, ByteBuffer buffer) {
+        long scaled = truncate(num, scale);
+        int position = buffer.position();
+        if (scaled < 0) {
+            String text = plainStr(num, scale);
+            if (buffer.remaining() < text.length()) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                buffer.put(position + i, (byte) text.charAt(i));
+            }
+            buffer.position(position + text.length());
+            return true;
+        }
+        boolean negative = num < 0;
+        int length = fixedLength(negative, scaled, scale);
+        if (buffer.remaining() < length) {
+            return false;
+        }
+        // 从后往前写
+        long unit = (long) POW10[scale];
+        long integer = scaled / unit;
+        long fraction = scaled % unit;
+        int end = position + length;
+        if (fraction != 0) {
+            int fractionDigits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+            for (int i = 0; i < fractionDigits; i++) {
+                buffer.put(--end, (byte) ('0' + fraction % 10));
+                fraction /= 10;
+            }
+            buffer.put(--end, (byte) '.');
+        }
+        do {
+            buffer.put(--end, (byte) ('0' + integer % 10));
+            integer /= 10;
+        } while (integer != 0);
+        if (end > position) {
+            buffer.put(position, (byte) '-');
+        }
+        buffer.position(position + length);
+        return true;
+    }
+
+    private static int writeFixed(boolean negative, long scaled, int scale, char[] chars, int offset) {
+        int length = fixedLength(negative, scaled, scale);
+        long unit = (long) POW10[scale];
+        long integer = scaled / unit;
+        long fraction = scaled % unit;
+        int end = offset + length;
+        if (fraction != 0) {
+            int fractionDigits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+            for (int i = 0; i < fractionDigits; i++) {
+                chars[--end] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            chars[--end] = '.';
+        }
+        do {
+            chars[--end] = (char) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer != 0);
+        if (end > offset) {
+            chars[offset] = '-';
+        }
+        return offset + length;
+    }
+
+    /**
+     * truncate 结果的字符串长度
+     */
+    private static int fixedLength(boolean negative, long scaled, int scale) {
+        long unit = (long) POW10[scale];
+        int length = stringSize(scaled / unit);
+        long fraction = scaled % unit;
+        if (fraction != 0) {
+            int fractionDigits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+            length += 1 + fractionDigits;
+        }
+        return negative && scaled != 0 ? length + 1 : length;
+    }
+
+    private static int stringSize(long value) {
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * |num| 的十进制表示(同 {@link BigDecimal#valueOf(double)}，即 {@link Double#toString(double)} 的数字)
+     * 保留 scale 位小数向0截断后乘以 10^scale 的整数，无法直接计算时返回 -1
+     * 截断后不超过15位有效数字时，若 scaled / 10^scale 转为 double 等于 num，则 Double.toString 的数字即为该值；
+     * 否则 num 的舍入区间内没有 scale 位小数，截断结果等于 num 精确值的截断
+     */
+    private static long truncate(double num, int scale) {
+        if (scale < 0 || scale > MAX_FAST_SCALE) {
+            return -1;
+        }
+        double abs = Math.abs(num);
+        double unit = POW10[scale];
+        double scaled = abs * unit;
+        if (!(scaled < MAX_FAST_SCALED)) {
+            // 含 NaN、无穷大
+            return abs < MAX_FAST_SCALED ? shortDecimal(abs, scale) : -1;
+        }
+        long nearest = Math.round(scaled);
+        if (nearest / unit == abs) {
+            return nearest;
+        }
+        if (Math.abs(scaled - nearest) <= 2 * Math.ulp(scaled)) {
+            return -1;
+        }
+        return (long) scaled;
+    }
+
+    /**
+     * abs 乘以 10^scale 超过15位时，若 abs 等于不足 scale 位小数、不超过15位有效数字的十进制数，
+     * 该数即 Double.toString 的数字，截断不改变它，返回其乘以 10^scale 的整数，否则返回 -1
+     */
+    private static long shortDecimal(double abs, int scale) {
+        int digits = scale - 1;
+        while (digits >= 0 && abs * POW10[digits] >= MAX_FAST_SCALED) {
+            digits--;
+        }
+        if (digits < 0) {
+            return -1;
+        }
+        long nearest = Math.round(abs * POW10[digits]);
+        long unit = (long) POW10[scale - digits];
+        if (nearest / POW10[digits] != abs || nearest > Long.MAX_VALUE / unit) {
+            return -1;
+        }
+        return nearest * unit;
+    }
+
+    private static String plainStr(double num, int scale) {
         if (num == 0d) {
             return "0";
         }
@@ -0,0 +1,48 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchFilterTest {
+
+    @Test
+    void select01() {
+        int rows = 3000;
+        double[] margin = new double[rows];
+        double[] revenue = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            margin[i] = (i % 10) / 20d;
+            revenue[i] = i * 1000d;
+        }
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("margin", margin);
+        columns.put("revenue", revenue);
+
+        BatchFilter filter = BatchFilter.of(ExpressionCalc.parseExp("margin > 0.2 and 1000000 <= revenue"));
+        long[] selection = filter.select(columns, rows);
+        assertEquals((rows + 63) / 64, selection.length);
+        int expected = 0;
+        for (int i = 0; i < rows; i++) {
+            boolean selected = margin[i] > 0.2 && revenue[i] >= 1e6;
+            assertEquals(selected, BatchFilter.isSelected(selection, i), "row " + i);
+            expected += selected ? 1 : 0;
+        }
+        assertEquals(expected, BatchFilter.count(selection));
+
+        // 只计算选中行，未选中行保持原值
+        BatchExpression formula = BatchExpression.of(ExpressionCalc.parseExp("revenue * margin / (margin - 0.25)"));
+        double[] result = new double[rows];
+        Arrays.fill(result, -1d);
+        formula.calc(columns, selection, result);
+        for (int i = 0; i < rows; i++) {
+            double value = margin[i] == 0.25 ? 0d : revenue[i] * margin[i] / (margin[i] - 0.25);
+            assertEquals(BatchFilter.isSelected(selection, i) ? value : -1d, result[i], 0d, "row " + i);
+        }
+    }
+
+}
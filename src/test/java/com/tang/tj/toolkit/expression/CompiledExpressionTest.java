@@ -0,0 +1,81 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledExpressionTest {
+
+    @Test
+    void eval01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("(a+b)-1.0 - (-50%) - b + (a+b)/b");
+        CompiledExpression compiled = CompiledExpression.compile(exp);
+        assertArrayEquals(new String[]{"a", "b"}, compiled.getVarNames());
+
+        assertEquals(2d, compiled.calc(new double[]{1d, 2d}), 0d);
+
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 2d);
+        vars.put("b", 10.5d);
+        assertEquals(ExpressionCalc.calcExp(exp, vars), compiled.calc(vars), 0d);
+
+        // 被除数为0
+        vars.put("b", 0d);
+        assertEquals(ExpressionCalc.calcExp(exp, vars, name -> 0d, (left, right) -> -1d),
+                compiled.calc(vars, name -> 0d, (left, right) -> -1d), 0d);
+
+        // 变量不存在
+        vars.remove("b");
+        assertThrows(IllegalArgumentException.class, () -> compiled.calc(vars));
+        assertEquals(ExpressionCalc.calcExp(exp, vars, name -> 3d), compiled.calc(vars, name -> 3d), 0d);
+    }
+
+    @Test
+    void eval02() {
+        // 超过递归深度限制的长公式
+        StringBuilder formula = new StringBuilder("m0");
+        double[] values = new double[1500];
+        for (int i = 1; i < values.length; i++) {
+            formula.append(i % 3 == 0 ? '*' : '+').append('m').append(i);
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 7;
+        }
+        CompiledExpression compiled = CompiledExpression.compile(ExpressionCalc.parseExp(formula.toString()));
+        double expected = 0d;
+        double term = values[0];
+        for (int i = 1; i < values.length; i++) {
+            if (i % 3 == 0) {
+                term *= values[i];
+            } else {
+                expected += term;
+                term = values[i];
+            }
+        }
+        expected += term;
+        assertEquals(expected, compiled.calc(values), 0d);
+    }
+
+    @Test
+    void eval03() {
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", -2.5d);
+        vars.put("b", 4d);
+        // min、max、abs 生成字节码
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("max(a, b, 1) + min(a, b) * abs(a) - min(b)");
+        CompiledExpression compiled = CompiledExpression.compile(exp);
+        assertTrue(compiled.getClass().getName().contains("$Gen"));
+        assertEquals(ExpressionCalc.calcExp(exp, vars), compiled.calc(vars), 0d);
+        assertTrue(Double.isNaN(compiled.calc(new double[]{Double.NaN, 1d})));
+
+        // if 按后缀指令执行，只计算选中的分支
+        ExpressionCalc.Exp branch = ExpressionCalc.parseExp("if(a > 0, c, abs(a) + b)");
+        CompiledExpression interpreted = CompiledExpression.compile(branch);
+        assertFalse(interpreted.getClass().getName().contains("$Gen"));
+        assertEquals(6.5d, interpreted.calc(vars), 0d);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.util.Nums;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvStreamEvaluatorTest {
+
+    @Test
+    void evaluate01(@TempDir Path dir) throws Exception {
+        StringBuilder csv = new StringBuilder("id, revenue ,cost,unused\r\n");
+        int rows = 1000;
+        for (int i = 0; i < rows; i++) {
+            // 含空字段、科学计数法、超过15位有效数字
+            String cost = i % 10 == 0 ? "" : i % 7 == 0 ? (i * 1.25) + "e-1" : String.valueOf(i * 0.3);
+            csv.append(i).append(',').append(i % 3 == 0 ? "12345678901234567.5" : " " + (i + 0.5) + " ")
+                    .append(',').append(cost).append(",x\r\n");
+        }
+        Path input = dir.resolve("input.csv");
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        Map<String, ExpressionCalc.Exp> formulas = new LinkedHashMap<>();
+        formulas.put("margin", ExpressionCalc.parseExp("(revenue - cost) / revenue"));
+        formulas.put("cost_rate", ExpressionCalc.parseExp("cost / revenue * fx"));
+        // 小窗口、小块，验证跨窗口的行及多次分块计算
+        CsvStreamEvaluator evaluator = CsvStreamEvaluator.of(formulas, ',', 4, 100, 256);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(rows, evaluator.evaluate(input, Channels.newChannel(output), name -> 2d, (l, r) -> 0d));
+
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(rows + 1, lines.length);
+        assertEquals("margin,cost_rate", lines[0]);
+        String[] inputLines = csv.toString().split("\r\n");
+        Map<String, Double> vars = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            String[] fields = inputLines[i + 1].split(",", -1);
+            vars.put("revenue", Double.parseDouble(fields[1].trim()));
+            vars.put("cost", fields[2].isEmpty() ? 0d : Double.parseDouble(fields[2]));
+            vars.put("fx", 2d);
+            String expected = Nums.double2Str(ExpressionCalc.calcExp(formulas.get("margin"), vars), 4)
+                    + "," + Nums.double2Str(ExpressionCalc.calcExp(formulas.get("cost_rate"), vars), 4);
+            assertEquals(expected, lines[i + 1], "line " + (i + 2));
+        }
+    }
+
+    @Test
+    void evaluate02(@TempDir Path dir) throws Exception {
+        // 结果为 NaN、无穷大
+        Path input = dir.resolve("input.csv");
+        Files.write(input, "a,b\nNaN,3\n1e308,2\n-1e308,2\n".getBytes(StandardCharsets.UTF_8));
+        Map<String, ExpressionCalc.Exp> formulas = new LinkedHashMap<>();
+        formulas.put("x", ExpressionCalc.parseExp("a * b"));
+        formulas.put("y", ExpressionCalc.parseExp("a * a + b"));
+        CsvStreamEvaluator evaluator = CsvStreamEvaluator.of(formulas, ',', 2, CsvStreamEvaluator.DEFAULT_CHUNK_ROWS);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(3, evaluator.evaluate(input, Channels.newChannel(output)));
+        assertEquals("x,y\nNaN,NaN\nInfinity,Infinity\n-Infinity,Infinity\n",
+                new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecimalExpressionTest {
+
+    @Test
+    void calc01() {
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 0.1d);
+        vars.put("b", 0.2d);
+        vars.put("c", 3d);
+        assertEquals(new BigDecimal("0.3000"), ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("a + b"), vars, 4, RoundingMode.HALF_UP));
+        assertEquals(new BigDecimal("-0.15"), ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("(-50%) * (a + b)"), vars, 2, RoundingMode.HALF_UP));
+        assertEquals(new BigDecimal("0.0333"), ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("a / c"), vars, 4, RoundingMode.DOWN));
+        assertEquals(new BigDecimal("0.0334"), ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("a / c"), vars, 4, RoundingMode.UP));
+        assertEquals(new BigDecimal("0.02"), ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("0.125 * 0.2"), vars, 2, RoundingMode.HALF_EVEN));
+        assertEquals(new BigDecimal("0"), ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("a / (b - 0.2)"), vars, 0, RoundingMode.HALF_UP));
+        assertThrows(ArithmeticException.class,
+                () -> ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("a / c"), vars, 4, RoundingMode.UNNECESSARY));
+
+        // 溢出 long 后按 BigDecimal 计算
+        vars.put("x", 123456789012d);
+        assertEquals(new BigDecimal("15241578753153483936144.000000"),
+                ExpressionCalc.calcDecimal(ExpressionCalc.parseExp("x * x"), vars, 6, RoundingMode.HALF_UP));
+
+        // 与逐步 BigDecimal 计算一致
+        Random random = new Random(20);
+        Exp exp = ExpressionCalc.parseExp("(a * b - c / d) * 1.5% + a / (b + c) - d * d * d");
+        for (RoundingMode mode : new RoundingMode[]{RoundingMode.HALF_UP, RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN,
+                RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING, RoundingMode.FLOOR}) {
+            DecimalExpression decimal = DecimalExpression.compile(exp, 6, mode);
+            for (int i = 0; i < 2000; i++) {
+                Map<String, Double> row = new HashMap<>();
+                for (String name : new String[]{"a", "b", "c", "d"}) {
+                    row.put(name, (random.nextInt(2_000_000) - 1_000_000) / Math.pow(10, random.nextInt(8)));
+                }
+                assertEquals(reference(row, 6, mode), decimal.calc(row), row + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void calc02() {
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", -0.1d);
+        vars.put("b", 0.2d);
+        assertEquals(new BigDecimal("0.50"), ExpressionCalc.calcDecimal(
+                ExpressionCalc.parseExp("max(a, b, 0.15) + abs(a) + min(b)"), vars, 2, RoundingMode.HALF_UP));
+        assertEquals(new BigDecimal("-0.10"), ExpressionCalc.calcDecimal(
+                ExpressionCalc.parseExp("min(a, b) * if(b > 0.2, 2, 1)"), vars, 2, RoundingMode.HALF_UP));
+
+        // if 只计算选中的分支，变量 c 不存在
+        DecimalExpression branch = DecimalExpression.compile(ExpressionCalc.parseExp("if(a < 0, abs(a) / b, c)"), 4, RoundingMode.HALF_UP);
+        assertEquals(new BigDecimal("0.5000"), branch.calc(vars));
+        vars.put("a", 1d);
+        assertThrows(IllegalArgumentException.class, () -> branch.calc(vars));
+
+        // 溢出 long 后按 BigDecimal 计算
+        vars.put("x", -123456789012d);
+        assertEquals(new BigDecimal("15241578753153483936144.000000"), ExpressionCalc.calcDecimal(
+                ExpressionCalc.parseExp("if(x < 0, abs(0 - max(x * x, 1)), 0)"), vars, 6, RoundingMode.HALF_UP));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> DecimalExpression.compile(ExpressionCalc.parseExp("round(a, 1)"), 2, RoundingMode.HALF_UP));
+    }
+
+    private static BigDecimal reference(Map<String, Double> row, int scale, RoundingMode mode) {
+        BigDecimal a = BigDecimal.valueOf(row.get("a")).setScale(scale, mode);
+        BigDecimal b = BigDecimal.valueOf(row.get("b")).setScale(scale, mode);
+        BigDecimal c = BigDecimal.valueOf(row.get("c")).setScale(scale, mode);
+        BigDecimal d = BigDecimal.valueOf(row.get("d")).setScale(scale, mode);
+        BigDecimal cd = d.signum() == 0 ? BigDecimal.ZERO.setScale(scale) : c.divide(d, scale, mode);
+        BigDecimal left = a.multiply(b).setScale(scale, mode).subtract(cd)
+                .multiply(new BigDecimal("0.015")).setScale(scale, mode);
+        BigDecimal bc = b.add(c);
+        BigDecimal right = bc.signum() == 0 ? BigDecimal.ZERO.setScale(scale) : a.divide(bc, scale, mode);
+        BigDecimal cube = d.multiply(d).setScale(scale, mode).multiply(d).setScale(scale, mode);
+        return left.add(right).subtract(cube);
+    }
+
+}
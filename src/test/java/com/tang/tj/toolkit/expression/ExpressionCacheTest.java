@@ -0,0 +1,132 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCacheTest {
+
+    @Test
+    void get01() throws Exception {
+        ExpressionCache cache = new ExpressionCache(2);
+        ExpressionCalc.Exp exp = cache.get("(a+b)/b");
+        // 规范化后命中，返回副本
+        ExpressionCalc.Exp hit = cache.get(" （a+b）/b ");
+        assertNotSame(exp, hit);
+        assertEquals(exp.toString(), hit.toString());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.get("a*2");
+        cache.get("a*3");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        // 有访问标记的条目保留
+        cache.get("(a+b)/b");
+        assertEquals(2, cache.getHitCount());
+
+        // 并发未命中只解析一次
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ExpressionCalc.Exp>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cache.get("x + y * z");
+            }));
+        }
+        start.countDown();
+        for (Future<ExpressionCalc.Exp> future : futures) {
+            assertEquals(futures.get(0).get().toString(), future.get().toString());
+        }
+        executor.shutdown();
+        assertEquals(4, cache.getMissCount());
+
+        // 解析失败不缓存
+        assertThrows(IllegalStateException.class, () -> cache.get("a+"));
+        assertThrows(IllegalStateException.class, () -> cache.get("a+"));
+        assertEquals(6, cache.getMissCount());
+    }
+
+    @Test
+    void get02() {
+        ExpressionCache cache = new ExpressionCache(10);
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("净利润(元)", 5d);
+        vars.put("收入-调整", 10d);
+        ExpressionCalc.Exp exp = cache.get("净利润(元)/收入-调整", vars);
+
+        Map<String, Double> other = new HashMap<>();
+        other.put("净利润(元)", 1d);
+        other.put("收入-调整", 4d);
+        // 去掉首尾空白后命中
+        assertNotNull(cache.get(" 净利润(元)/收入-调整 ", other));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0.25d, ExpressionCalc.calcExp(exp, other), 0d);
+        assertEquals(0.5d, ExpressionCalc.calcExp(exp, vars), 0d);
+    }
+
+    @Test
+    void get03() {
+        // 缓存 key 为全部变量名，调用方变量名为 v1、v2 时不覆盖后再读取
+        ExpressionCache cache = new ExpressionCache(10);
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("v1", 10d);
+        vars.put("v2", 20d);
+        vars.put("a", 1d);
+        vars.put("b", 2d);
+        Map<String, Double> other = new HashMap<>(vars);
+        ExpressionCalc.Exp exp = cache.get("v1 + a", vars);
+        assertEquals(11d, ExpressionCalc.calcExp(exp, vars), 0d);
+        assertNotNull(cache.get("v1 + a", other));
+        assertEquals(11d, ExpressionCalc.calcExp(exp, other), 0d);
+        assertEquals(1, cache.getHitCount());
+
+        // 重复使用同一 variableMap，已写入的 v1 ~ vN 计入变量名，结果不变
+        Map<String, Double> reused = new HashMap<>();
+        reused.put("净利润(元)", 5d);
+        reused.put("收入-调整", 10d);
+        for (int i = 0; i < 3; i++) {
+            reused.put("收入-调整", 20d + i);
+            ExpressionCalc.Exp mapped = cache.get("净利润(元)/收入-调整", reused);
+            assertEquals(5d / (20d + i), ExpressionCalc.calcExp(mapped, reused), 0d);
+        }
+    }
+
+    @Test
+    void get04() {
+        // 修改返回的表达式不影响缓存
+        ExpressionCache cache = new ExpressionCache(10);
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 2d);
+        vars.put("b", 3d);
+        ExpressionCalc.Exp exp = cache.get("a + b");
+        exp.getValues()[0].setVarName("b");
+        exp.setOpt('*');
+        assertEquals(5d, ExpressionCalc.calcExp(cache.get("a + b"), vars), 0d);
+
+        // 变量名不含括号时中文括号与英文括号为同一表达式
+        cache.get("（a + b） * a", new HashMap<>(vars));
+        cache.get("(A + B) * a", new HashMap<>(vars));
+        assertEquals(2, cache.getHitCount());
+
+        // 权重有误时不缓存，之后可正常加入
+        ExpressionCache weighted = new ExpressionCache(10, formula -> formula.length() > 5 ? -1 : 1);
+        assertThrows(IllegalStateException.class, () -> weighted.get("a + b * 2"));
+        assertThrows(IllegalStateException.class, () -> weighted.get("a + b * 2"));
+        assertEquals(0, weighted.size());
+        weighted.get("a+b");
+        assertEquals(1, weighted.size());
+        assertEquals(1, weighted.getTotalWeight());
+    }
+
+}
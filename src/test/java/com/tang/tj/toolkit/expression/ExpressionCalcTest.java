@@ -3,8 +3,12 @@ package com.tang.tj.toolkit.expression;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -36,5 +40,335 @@ class ExpressionCalcTest {
         double result2 = ExpressionCalc.calcExp(exp, vars);
         assertEquals(2.69047d, result2, 0.00001d);
     }
-    
-}
\ No newline at end of file
+
+    @Test
+    void predicate01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("margin > 0.2 and revenue >= 1000000 or not (flag != 0)");
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("margin", 0.25d);
+        vars.put("revenue", 1000000d);
+        vars.put("flag", 1d);
+        assertEquals(1d, ExpressionCalc.calcExp(exp, vars), 0d);
+        vars.put("margin", 0.2d);
+        assertEquals(0d, ExpressionCalc.calcExp(exp, vars), 0d);
+        vars.put("flag", 0d);
+        assertEquals(1d, ExpressionCalc.calcExp(exp, vars), 0d);
+
+        // 比较结果参与四则运算，各计算方式结果一致
+        ExpressionCalc.Exp mixed = ExpressionCalc.parseExp("(a + 1 > b * 2) * 10 + (a == b) - (NOT a <= 0)");
+        Map<String, Double> row = new HashMap<>();
+        row.put("a", 3d);
+        row.put("b", 1.5d);
+        double expected = 10d + 0d - 1d;
+        assertEquals(expected, ExpressionCalc.calcExp(mixed, row), 0d);
+        assertEquals(expected, StackExpression.compile(mixed).calc(row), 0d);
+        assertEquals(expected, CompiledExpression.compile(mixed).calc(row), 0d);
+        assertEquals(expected, OptimizedExpression.optimize(mixed).calc(row), 0d);
+        assertEquals(0, DecimalExpression.compile(mixed, 2, RoundingMode.HALF_UP).calc(row)
+                .compareTo(BigDecimal.valueOf(expected)));
+
+        // 变量名中包含关键字不拆分
+        ExpressionCalc.Exp names = ExpressionCalc.parseExp("brand + order_no");
+        assertEquals('+', names.getOpt());
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a = b"));
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a and"));
+    }
+
+    @Test
+    void function01() {
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", -2.345d);
+        vars.put("b", 4d);
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("max(a, b, 1) + MIN(a, b) * abs(a) + round(a, 2) - round(b / 3)");
+        double expected = 4d + -2.345d * 2.345d + -2.35d - 1d;
+        assertEquals("max", exp.getValues()[0].getValues()[0].getValues()[0].getFunctionName());
+        assertEquals(expected, ExpressionCalc.calcExp(exp, vars), 0d);
+        assertEquals(expected, StackExpression.compile(exp).calc(vars), 0d);
+        assertEquals(expected, CompiledExpression.compile(exp).calc(vars), 0d);
+        assertEquals(expected, OptimizedExpression.optimize(exp).calc(vars), 0d);
+
+        // if 只计算选中的分支，coalesce 取第一个不是 NaN 的参数，变量不存在时视为 NaN
+        ExpressionCalc.Exp lazy = ExpressionCalc.parseExp("if(b > 0, a / b, missing) + coalesce(x, y, 0 / 0, b)");
+        Map<String, Double> row = new HashMap<>(vars);
+        row.put("y", Double.NaN);
+        Function<String, Double> reject = name -> {
+            throw new IllegalStateException("不应取变量" + name);
+        };
+        double lazyExpected = -2.345d / 4d + 4d;
+        assertEquals(lazyExpected, ExpressionCalc.calcExp(lazy, row, reject, (l, r) -> Double.NaN), 0d);
+        assertEquals(lazyExpected, StackExpression.compile(lazy).calc(row, reject, (l, r) -> Double.NaN), 0d);
+        assertEquals(lazyExpected, CompiledExpression.compile(lazy).calc(row, reject, (l, r) -> Double.NaN), 0d);
+        assertEquals(lazyExpected, OptimizedExpression.optimize(lazy).calc(row, reject, (l, r) -> Double.NaN), 0d);
+        row.put("x", 1d);
+        assertEquals(-2.345d / 4d + 1d, ExpressionCalc.calcExp(lazy, row, reject, (l, r) -> Double.NaN), 0d);
+        // 被除数为0时结果为0，coalesce 取0
+        assertEquals(-2.345d / 4d, ExpressionCalc.calcExp(lazy, vars), 0d);
+        row.put("b", -1d);
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.calcExp(lazy, row, reject, (l, r) -> 0d));
+        row.put("b", 4d);
+
+        // 指令还原的表达式计算结果一致
+        ExpressionCalc.Exp restored = StackExpression.compile(lazy).toExp();
+        assertEquals(ExpressionCalc.calcExp(lazy, row, reject, (l, r) -> Double.NaN),
+                ExpressionCalc.calcExp(restored, row, reject, (l, r) -> Double.NaN), 0d);
+
+        // 列式计算
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("a", new double[]{1d, -3d, 5d});
+        columns.put("b", new double[]{2d, 0d, -1d});
+        double[] result = new double[3];
+        BatchExpression.of(ExpressionCalc.parseExp("max(a, b) * 10 + coalesce(x, if(b, a, 7))")).calc(columns, result);
+        assertArrayEquals(new double[]{21d, 7d, 55d}, result, 0d);
+        // 列式计算 if、coalesce 未选中的行不取变量、不调用 dividendZeroCalc
+        BatchExpression lazyBatch = BatchExpression.of(ExpressionCalc.parseExp("if(b, a / b, missing) + coalesce(a, 1 / 0)"));
+        columns.put("b", new double[]{2d, 4d, -1d});
+        lazyBatch.calc(columns, result, reject, (l, r) -> {
+            throw new IllegalStateException("不应计算" + l + "/" + r);
+        });
+        assertArrayEquals(new double[]{1.5d, -3.75d, 0d}, result, 0d);
+        columns.get("b")[1] = 0d;
+        assertThrows(IllegalStateException.class, () -> lazyBatch.calc(columns, result, reject, (l, r) -> 0d));
+        // 选中行的结果与逐行计算一致
+        columns.get("a")[1] = Double.NaN;
+        lazyBatch.calc(columns, result, name -> 7d, (l, r) -> -1d);
+        Map<String, Double> lazyRow = new HashMap<>();
+        for (int i = 0; i < result.length; i++) {
+            lazyRow.put("a", columns.get("a")[i]);
+            lazyRow.put("b", columns.get("b")[i]);
+            assertEquals(ExpressionCalc.calcExp(ExpressionCalc.parseExp("if(b, a / b, missing) + coalesce(a, 1 / 0)"),
+                    lazyRow, name -> 7d, (l, r) -> -1d), result[i], 0d);
+        }
+
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("unknown(a)"));
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("abs(a, b)"));
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a, b"));
+        assertThrows(IllegalArgumentException.class,
+                () -> DecimalExpression.compile(exp, 2, RoundingMode.HALF_UP));
+    }
+
+    @Test
+    void primitive01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("a / b + c * 2 + coalesce(d, 10)");
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 6d);
+        vars.put("b", 0d);
+        vars.put("c", null);
+        // 原始类型回调与 Map、Function、BiFunction 重载结果一致
+        assertEquals(ExpressionCalc.calcExp(exp, vars, name -> 3d, (l, r) -> l),
+                ExpressionCalc.calcExp(exp, vars, name -> 3d, (l, r) -> l, 0d), 0d);
+        // 6 + 1.5 * 2 + 10，变量值为 null 时取 nullValue，coalesce 的变量不存在时不取 provider
+        assertEquals(19d, ExpressionCalc.calcExp(exp, vars, name -> {
+            throw new IllegalStateException(name);
+        }, (l, r) -> l, 1.5d), 0d);
+
+        // 全部变量由 resolver 提供，resolver 返回 NaN 时 coalesce 取下一个参数
+        assertEquals(2d / 3d + 4d * 2 + 10d, ExpressionCalc.calcExp(exp,
+                name -> "d".equals(name) ? Double.NaN : name.charAt(0) - 'a' + 2, (l, r) -> -1d), 0d);
+        assertEquals(-1d + 2d + 10d, ExpressionCalc.calcExp(exp,
+                name -> "b".equals(name) ? 0d : "c".equals(name) ? 1d : Double.NaN, (l, r) -> -1d), 0d);
+
+        BoundExpression bound = BoundExpression.bind(exp);
+        double[] row = {6d, 0d, 1.5d, 0d};
+        long[] present = bound.getSlots().newPresentMask();
+        for (int slot = 0; slot < 3; slot++) {
+            VarSlots.markPresent(present, slot);
+        }
+        assertEquals(19d, bound.calcUnboxed(row, present, name -> {
+            throw new IllegalStateException(name);
+        }, (l, r) -> l), 0d);
+    }
+
+    @Test
+    void specialize01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("amount * (1 + tax) / fx - fee / (rate - 1)");
+        Map<String, Double> known = new HashMap<>();
+        known.put("tax", 0.13d);
+        known.put("fx", 1d);
+        known.put("rate", 1d);
+        ExpressionCalc.Exp residual = ExpressionCalc.specialize(exp, known);
+        // amount * 1.13 - fee / 0
+        assertEquals('-', residual.getOpt());
+        assertEquals(1.13d, residual.getValues()[0].getValues()[1].getValue(), 0d);
+
+        Map<String, Double> vars = new HashMap<>(known);
+        vars.put("amount", 100d);
+        vars.put("fee", 5d);
+        Map<String, Double> rowVars = new HashMap<>();
+        rowVars.put("amount", 100d);
+        rowVars.put("fee", 5d);
+        assertEquals(ExpressionCalc.calcExp(exp, vars, name -> 0d, (l, r) -> l),
+                ExpressionCalc.calcExp(residual, rowVars, name -> 0d, (l, r) -> l), 0d);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCalc.calcExp(residual, known));
+    }
+
+    @Test
+    void parseExp01() {
+        // 乘除优先，同级从左往右
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp(" a - b * c / 2 + (-50%) ");
+        assertEquals("a - b * c / 2 + (-50%)", exp.getSegment());
+        assertEquals('+', exp.getOpt());
+        assertEquals('-', exp.getValues()[0].getOpt());
+        assertEquals(-0.5d, exp.getValues()[1].getValue(), 0d);
+
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 10d);
+        vars.put("b", 3d);
+        vars.put("c", 4d);
+        assertEquals(3.5d, ExpressionCalc.calcExp(exp, vars), 0d);
+
+        // 括号嵌套层级不受限制
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            nested.append('(');
+        }
+        nested.append("a+1");
+        for (int i = 0; i < 5000; i++) {
+            nested.append(')');
+        }
+        assertEquals("a+1", ExpressionCalc.parseExp(nested.toString()).getSegment());
+
+        // 错误信息
+        assertEquals("无右括号对应第2个字符的左括号",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a+(b")).getMessage());
+        assertEquals("无左括号对应第3个字符的右括号",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a+b)")).getMessage());
+        assertEquals("表达式丢失运算符",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a+")).getMessage());
+        assertEquals("表达式有误请检查",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a+()")).getMessage());
+        // 逐段解析不报错的片段先报其他错误
+        assertEquals("无右括号对应第1个字符的左括号",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a(b")).getMessage());
+        assertEquals("表达式丢失运算符",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("(-50%-) a")).getMessage());
+        assertEquals("(/)b//b 无运算符",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("(/)b//b")).getMessage());
+        assertEquals("未知的函数:a",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("a(b)")).getMessage());
+        assertEquals("-50%- 无运算符",
+                assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("(-50%-)")).getMessage());
+    }
+
+    @Test
+    void bindExp01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("(a+b)-1.0 - (-50%) - b + (a+b)/b");
+        BoundExpression bound = BoundExpression.bind(exp);
+        VarSlots slots = bound.getSlots();
+        assertEquals(2, slots.size());
+
+        double[] row = slots.newRow();
+        row[slots.slotOf("a")] = 2d;
+        row[slots.slotOf("b")] = 10.5d;
+        assertEquals(2.69047d, bound.calc(row), 0.00001d);
+
+        // 变量 b 不存在
+        long[] present = slots.newPresentMask();
+        VarSlots.markPresent(present, slots.slotOf("a"));
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 2d);
+        assertEquals(ExpressionCalc.calcExp(exp, vars, name -> 0d, (left, right) -> -1d),
+                bound.calc(row, present, name -> 0d, (left, right) -> -1d), 0d);
+    }
+
+    @Test
+    void calcBatch01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("(a+b)-1.0 - (-50%) - b + (a+b)/b");
+        BatchExpression batch = BatchExpression.of(exp);
+
+        int rows = 3000;
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("a", new double[rows]);
+        columns.put("b", new double[rows]);
+        for (int i = 0; i < rows; i++) {
+            columns.get("a")[i] = i;
+            columns.get("b")[i] = i % 5;
+        }
+        double[] result = new double[rows];
+        batch.calc(columns, result, name -> 0d, (left, right) -> -1d);
+
+        Map<String, Double> vars = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            vars.put("a", columns.get("a")[i]);
+            vars.put("b", columns.get("b")[i]);
+            assertEquals(ExpressionCalc.calcExp(exp, vars, name -> 0d, (left, right) -> -1d), result[i], 0d);
+        }
+
+        // 变量列不存在
+        columns.remove("b");
+        assertThrows(IllegalArgumentException.class, () -> batch.calc(columns, result));
+    }
+
+    @Test
+    void parseExp02() {
+        // 变量名包含运算符、括号，忽略大小写
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("净利润(元)", 30d);
+        vars.put("收入-调整", 120d);
+        vars.put("收入", 100d);
+        vars.put("Rate", 0.5d);
+        VariableDictionary dictionary = VariableDictionary.of(vars.keySet());
+
+        ExpressionCalc.Exp exp = dictionary.parseExp("净利润(元) / （收入-调整 - 收入） * rate");
+        assertEquals(4, vars.size());
+        assertEquals(0.75d, ExpressionCalc.calcExp(exp, vars), 0d);
+
+        // 忽略大小写解析写入映射后的变量
+        ExpressionCalc.Exp mapped = ExpressionCalc.parseExp("净利润(元) / （收入-调整 - 收入） * rate", vars);
+        assertEquals(0.75d, ExpressionCalc.calcExp(mapped, vars), 0d);
+        assertEquals(8, vars.size());
+    }
+
+    @Test
+    void parseExp03() {
+        // 字典变量名不匹配 and、or、not 中的字符
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 0d);
+        vars.put("b", 1d);
+        vars.put("n", 5d);
+        VariableDictionary dictionary = VariableDictionary.of(vars.keySet());
+        String formula = "a > 1 and b < 2 or NOT n";
+        assertEquals(0d, ExpressionCalc.calcExp(dictionary.parseExp(formula), vars), 0d);
+        assertEquals(1d, ExpressionCalc.calcExp(dictionary.parseExp("not a and b"), vars), 0d);
+        assertEquals(0d, ExpressionCalc.calcExp(ExpressionCalc.parseExp(formula), vars), 0d);
+        assertEquals(1d, Expression.parse("a < 1 and b < 2", Arrays.asList("a", "b")).calc(vars), 0d);
+
+        ExpressionCalc.Exp mapped = ExpressionCalc.parseExp(formula, new HashMap<>(vars));
+        Map<String, Double> mappedVars = new HashMap<>(vars);
+        ExpressionCalc.parseExp(formula, mappedVars);
+        assertEquals(0d, ExpressionCalc.calcExp(mapped, mappedVars), 0d);
+
+        // 变量名可完整包含关键字
+        Map<String, Double> spaced = new HashMap<>();
+        spaced.put("x or y", 2d);
+        spaced.put("z", 3d);
+        assertEquals(6d, ExpressionCalc.calcExp(VariableDictionary.of(spaced.keySet()).parseExp("x or y * z"), spaced), 0d);
+    }
+
+    @Test
+    void parseExp04() {
+        // 调用方变量名为 v1、v2 时按写入前的值映射，不覆盖后再读取
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("v1", 10d);
+        vars.put("v2", 20d);
+        vars.put("a", 1d);
+        vars.put("b", 2d);
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("v1 + a", vars);
+        assertEquals(11d, ExpressionCalc.calcExp(exp, vars), 0d);
+        Map<String, Double> other = new HashMap<>();
+        other.put("v1", 10d);
+        other.put("v2", 20d);
+        other.put("b", 2d);
+        assertEquals(30d, ExpressionCalc.calcExp(ExpressionCalc.parseExp("v2 * b - v1", other), other), 0d);
+
+        // 重复使用同一 variableMap，已写入的 v1 ~ vN 作为变量名，结果不变
+        Map<String, Double> reused = new HashMap<>();
+        reused.put("净利润(元)", 6d);
+        reused.put("收入-调整", 3d);
+        for (int i = 1; i <= 3; i++) {
+            reused.put("收入-调整", (double) i);
+            ExpressionCalc.Exp mapped = ExpressionCalc.parseExp("净利润(元)/收入-调整 + 1", reused);
+            assertEquals(6d / i + 1, ExpressionCalc.calcExp(mapped, reused), 0d);
+        }
+    }
+
+}
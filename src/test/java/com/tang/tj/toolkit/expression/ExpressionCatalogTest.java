@@ -0,0 +1,81 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCatalogTest {
+
+    @Test
+    void calc01() {
+        ExpressionCatalog catalog = new ExpressionCatalog();
+        String[] formulas = {"(a+b)-1.0 - (-50%) - b + (a+b)/b", "a * 100 / c", "100 - b"};
+        for (int i = 0; i < formulas.length; i++) {
+            assertEquals(i, catalog.add(formulas[i]));
+        }
+        catalog.trimToSize();
+        assertEquals(3, catalog.size());
+        assertEquals(3, catalog.getSymbolCount());
+        assertEquals(formulas[1], catalog.getSource(1));
+
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("a", 3d);
+        variableMap.put("b", 2d);
+        double[] row = catalog.newRow();
+        row[catalog.symbolOf("a")] = 3d;
+        row[catalog.symbolOf("b")] = 2d;
+        long[] presentMask = new long[1];
+        VarSlots.markPresent(presentMask, catalog.symbolOf("a"));
+        VarSlots.markPresent(presentMask, catalog.symbolOf("b"));
+        double[] stack = catalog.newStack();
+        for (int i = 0; i < formulas.length; i++) {
+            double expected = ExpressionCalc.calcExp(ExpressionCalc.parseExp(formulas[i]), variableMap,
+                    name -> 0d, (l, r) -> -1d);
+            assertEquals(expected, catalog.calc(i, variableMap, name -> 0d, (l, r) -> -1d), 0d);
+            assertEquals(expected, catalog.calc(i, row, presentMask, name -> 0d, (l, r) -> -1d, stack), 0d);
+        }
+        assertThrows(IllegalArgumentException.class, () -> catalog.calc(1, variableMap));
+
+        // 缩减后可继续添加
+        assertEquals(3, catalog.add("c * 2"));
+        assertTrue(catalog.memoryFootprint() > 0);
+    }
+
+    @Test
+    void calc02() throws Exception {
+        // 与 StackExpression 共用解释器: 被除数为0算法返回 null 时为0，记录被除数为0、变量不存在
+        ExpressionCatalog catalog = new ExpressionCatalog();
+        int formula = catalog.add("a / b + if(a > 1, c, 2)");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        catalog.writeTo(bytes);
+        MappedExpressionCatalog mapped = MappedExpressionCatalog.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("a", 3d);
+        variableMap.put("b", 0d);
+        double[] row = catalog.newRow();
+        row[catalog.symbolOf("a")] = 3d;
+        long[] presentMask = new long[1];
+        VarSlots.markPresent(presentMask, catalog.symbolOf("a"));
+        VarSlots.markPresent(presentMask, catalog.symbolOf("b"));
+        MetricsRecorder recorder = MetricsRecorder.install();
+        try {
+            assertEquals(5d, catalog.calc(formula, variableMap, name -> 5d, (l, r) -> null), 0d);
+            assertEquals(5d, catalog.calc(formula, row, presentMask, name -> 5d, (l, r) -> null, catalog.newStack()), 0d);
+            assertEquals(5d, mapped.calc(formula, variableMap, name -> 5d, (l, r) -> null), 0d);
+            assertEquals(5d, mapped.calc(formula, row, presentMask, name -> 5d, (l, r) -> null, mapped.newStack()), 0d);
+        } finally {
+            ExpressionMetrics.uninstall();
+        }
+        MetricsRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(4, snapshot.getDividedByZero());
+        assertEquals(4L, snapshot.getMissingVariables().get("c"));
+        assertEquals(4, snapshot.getFormula("a / b + if(a > 1, c, 2)").getEvalCount());
+    }
+
+}
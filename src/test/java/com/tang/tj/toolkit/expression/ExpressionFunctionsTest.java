@@ -0,0 +1,87 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionFunctionsTest {
+
+    @Test
+    void register01() {
+        ExpressionFunctions.register("Clamp01", (DoubleUnaryOperator) x -> Math.max(0d, Math.min(1d, x)));
+        ExpressionFunctions.register("hypot", (DoubleBinaryOperator) Math::hypot);
+        try {
+            assertTrue(ExpressionFunctions.isFunction("clamp01"));
+            ExpressionCalc.Exp exp = ExpressionCalc.parseExp("clamp01(a / 10) + HYPOT(a, b)");
+            Map<String, Double> vars = new HashMap<>();
+            vars.put("a", 3d);
+            vars.put("b", 4d);
+            assertEquals(5.3d, ExpressionCalc.calcExp(exp, vars), 1e-12);
+            assertEquals(5.3d, StackExpression.compile(exp).calc(vars), 1e-12);
+            assertEquals(5.3d, OptimizedExpression.optimize(exp).calc(vars), 1e-12);
+
+            ExpressionCatalog catalog = new ExpressionCatalog();
+            int formula = catalog.add("clamp01(a / 10) + HYPOT(a, b)");
+            int lazy = catalog.add("if(a > b, hypot(a, b), coalesce(c, b))");
+            assertEquals(5.3d, catalog.calc(formula, vars), 1e-12);
+            assertEquals(4d, catalog.calc(lazy, vars), 0d);
+
+            // 已解析的表达式不受注销影响
+            assertTrue(ExpressionFunctions.unregister("clamp01"));
+            assertEquals(5.3d, ExpressionCalc.calcExp(exp, vars), 1e-12);
+            assertThrows(IllegalStateException.class, () -> ExpressionCalc.parseExp("clamp01(a)"));
+        } finally {
+            ExpressionFunctions.unregister("clamp01");
+            ExpressionFunctions.unregister("hypot");
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionFunctions.register("max", (DoubleUnaryOperator) x -> x));
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionFunctions.register("and", (DoubleUnaryOperator) x -> x));
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionFunctions.register("1f", (DoubleUnaryOperator) x -> x));
+    }
+
+    @Test
+    void optimize01() {
+        ExpressionCalc.Exp exp = ExpressionCalc.parseExp("if(1, a, b) + round(2.345, 2) + coalesce(x * 1, 5, y)");
+        OptimizedExpression optimized = OptimizedExpression.optimize(exp);
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 1d);
+        vars.put("x", 2d);
+        // 化简为 a + 2.35 + coalesce(x * 1, 5)，未选中的 b、y 不取值
+        assertEquals(5.35d, optimized.calc(vars), 1e-12);
+        assertEquals(5.35d, ExpressionCalc.calcExp(optimized.getExp(), vars), 1e-12);
+        // x * 1 不视为单个变量，变量不存在时仍取 nonVarValueProvider
+        vars.remove("x");
+        assertThrows(IllegalArgumentException.class, () -> optimized.calc(vars));
+        assertEquals(3.35d + 3d, optimized.calc(vars, name -> 3d), 1e-12);
+    }
+
+    @Test
+    void dictionary01() {
+        // 后跟左括号的函数名优先于字典变量匹配
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 3d);
+        vars.put("b", 4d);
+        assertEquals(4d, ExpressionCalc.calcExp(ExpressionCalc.parseExp("MAX(a, b)"), vars), 0d);
+        assertEquals(4d, ExpressionCalc.calcExp(VariableDictionary.of(vars.keySet()).parseExp("max(a, b)"), vars), 0d);
+        assertEquals(4d, Expression.parse("max(a, b)", vars.keySet()).calc(vars), 0d);
+        Map<String, Double> mappedVars = new HashMap<>(vars);
+        assertEquals(4d, ExpressionCalc.calcExp(ExpressionCalc.parseExp("max(a, b)", mappedVars), mappedVars), 0d);
+
+        Map<String, Double> roundVars = new HashMap<>();
+        roundVars.put("o", 2d);
+        roundVars.put("x", 1.234d);
+        VariableDictionary dictionary = VariableDictionary.of(roundVars.keySet());
+        assertEquals(3.23d, ExpressionCalc.calcExp(dictionary.parseExp("round(x, 2) + o"), roundVars), 1e-12);
+        assertEquals(-1d, ExpressionCalc.calcExp(dictionary.parseExp("ABS (o) - if(x > o, x, 3)"), roundVars), 0d);
+    }
+
+}
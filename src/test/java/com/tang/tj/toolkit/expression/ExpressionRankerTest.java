@@ -0,0 +1,96 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionRankerTest {
+
+    @Test
+    void rank01() throws Exception {
+        int rows = 100_000;
+        Random random = new Random(21);
+        double[] sales = new double[rows];
+        double[] cost = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            // 取整制造大量相同分数
+            sales[i] = random.nextInt(1000);
+            cost[i] = random.nextInt(10);
+        }
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("sales", sales);
+        columns.put("cost", cost);
+        Exp exp = ExpressionCalc.parseExp("sales - cost * 10");
+
+        // 全量排序作为期望
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingDouble(i -> -(sales[i] - cost[i] * 10)).thenComparing(i -> i));
+        long[] expected = new long[100];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = order.get(i);
+        }
+
+        ExpressionRanker ranker = ExpressionRanker.of(exp, 100);
+        TopK.Ranking ranking = ranker.rank(columns, rows);
+        assertArrayEquals(expected, ranking.getIds());
+        assertEquals(sales[(int) expected[0]] - cost[(int) expected[0]] * 10, ranking.getScore(0), 0d);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TopK.Ranking parallel = ranker.rank(columns, rows, 7, name -> 0d, (l, r) -> 0d, executor);
+            assertArrayEquals(expected, parallel.getIds());
+        } finally {
+            executor.shutdown();
+        }
+
+        // 逐行加入，按间隔回调，flush 后最后一次回调即最终排名
+        TopK.Ranking[] last = new TopK.Ranking[1];
+        int[] changes = new int[2];
+        ExpressionRanker.Streaming streaming = ranker.stream(r -> {
+            last[0] = r;
+            changes[0]++;
+        });
+        ExpressionRanker.Streaming everyChange = ranker.stream(r -> changes[1]++, 1,
+                name -> 0d, (l, r) -> 0d);
+        int entered = 0;
+        for (int i = 0; i < rows; i++) {
+            Map<String, Double> vars = new HashMap<>();
+            vars.put("sales", sales[i]);
+            vars.put("cost", cost[i]);
+            streaming.accept(i, vars);
+            if (everyChange.accept(i, vars)) {
+                entered++;
+            }
+        }
+        assertTrue(changes[0] <= rows / ExpressionRanker.DEFAULT_EMIT_INTERVAL + 1);
+        streaming.flush();
+        assertArrayEquals(expected, last[0].getIds());
+        assertEquals(entered, changes[1]);
+        assertArrayEquals(expected, streaming.getRanking().getIds());
+        assertTrue(changes[0] < rows / 10);
+
+        // 最低、编号大的在前
+        TopK lowest = TopK.of(3, false, TopK.TieBreak.LARGER_ID);
+        for (long id = 0; id < 10; id++) {
+            lowest.offer(id % 2, id);
+        }
+        lowest.offer(Double.NaN, 99);
+        assertEquals("[8, 6, 4]", Arrays.toString(lowest.toRanking().getIds()));
+        assertEquals(0d, lowest.threshold(), 0d);
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionTest {
+
+    @Test
+    void parse01() throws Exception {
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("Revenue(CNY)", 200d);
+        vars.put("cost-total", 50d);
+        Map<String, Double> snapshot = new HashMap<>(vars);
+        Expression expression = Expression.parse("(revenue(cny) - COST-TOTAL) / revenue(cny)", vars.keySet());
+        // 不修改调用方变量
+        assertEquals(snapshot, vars);
+        assertEquals(Arrays.asList("Revenue(CNY)", "cost-total"), new ArrayList<>(expression.getVarNames()));
+        assertEquals(0.75d, expression.calc(vars), 0d);
+        assertThrows(UnsupportedOperationException.class, () -> expression.getVarNames().add("x"));
+
+        // 修改 toExp 结果不影响表达式
+        expression.toExp().getValues()[1].setVarName("x");
+        assertEquals(0.75d, expression.calc(vars), 0d);
+
+        // 多线程共用
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Double>> futures = new ArrayList<>();
+            for (int i = 1; i <= 100; i++) {
+                double revenue = i;
+                futures.add(executor.submit(() -> {
+                    Map<String, Double> row = new HashMap<>();
+                    row.put("Revenue(CNY)", revenue);
+                    row.put("cost-total", 1d);
+                    return expression.calc(row);
+                }));
+            }
+            for (int i = 1; i <= 100; i++) {
+                assertEquals((i - 1d) / i, futures.get(i - 1).get(), 0d);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormulaGraphTest {
+
+    @Test
+    void calc01() {
+        FormulaGraph graph = new FormulaGraph()
+                .register("gross_margin", "(revenue - cost) / revenue")
+                .register("revenue", "price * qty")
+                .register("cost", "unit_cost * qty")
+                .register("profit", "revenue - cost");
+
+        Map<String, Double> inputs = new HashMap<>();
+        inputs.put("price", 10d);
+        inputs.put("qty", 5d);
+        inputs.put("unit_cost", 6d);
+        Map<String, Double> values = graph.calc(inputs);
+        assertEquals(50d, values.get("revenue"), 0d);
+        assertEquals(0.4d, values.get("gross_margin"), 1e-12);
+        assertEquals(20d, values.get("profit"), 0d);
+
+        // 增量计算: unit_cost 只影响 cost、gross_margin、profit
+        FormulaGraph.Evaluation evaluation = graph.newEvaluation(inputs);
+        assertEquals(0.4d, evaluation.get("gross_margin"), 1e-12);
+        assertEquals(4, evaluation.getCalcCount());
+        evaluation.set("unit_cost", 8d);
+        assertEquals(10d, evaluation.get("profit"), 0d);
+        assertEquals(7, evaluation.getCalcCount());
+    }
+
+    @Test
+    void register01() {
+        FormulaGraph graph = new FormulaGraph()
+                .register("a", "b + 1")
+                .register("b", "c * 2");
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> graph.register("c", "a - 1"));
+        assertEquals("公式循环引用: c -> a -> b -> c", e.getMessage());
+        assertThrows(IllegalStateException.class, () -> graph.register("d", "d + 1"));
+        assertFalse(graph.contains("c"));
+    }
+
+    @Test
+    void calc02() {
+        // 超过递归层数限制的公式
+        StringBuilder formula = new StringBuilder("m1");
+        Map<String, Double> inputs = new HashMap<>();
+        inputs.put("m1", 1d);
+        for (int i = 2; i <= 1500; i++) {
+            formula.append("+m").append(i);
+            inputs.put("m" + i, (double) i);
+        }
+        FormulaGraph graph = new FormulaGraph()
+                .register("total", formula.toString())
+                .register("average", "total / 1500");
+        Map<String, Double> values = graph.calc(inputs);
+        assertEquals(1500 * 1501 / 2d, values.get("total"), 0d);
+        assertEquals(1501 / 2d, values.get("average"), 0d);
+
+        BoundExpression bound = BoundExpression.bind(ExpressionCalc.parseExp(formula.toString()));
+        double[] row = new double[1500];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i + 1;
+        }
+        assertEquals(1500 * 1501 / 2d, bound.calc(row), 0d);
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FreeVariablesTest {
+
+    @Test
+    void resolve01() {
+        Exp exp = ExpressionCalc.parseExp("a * x + b * x - y / x");
+        FreeVariables freeVariables = FreeVariables.of(exp);
+        assertEquals(Arrays.asList("a", "x", "b", "y"), new ArrayList<>(freeVariables.names()));
+
+        List<Set<String>> calls = new ArrayList<>();
+        Function<Set<String>, Map<String, Double>> store = names -> {
+            calls.add(names);
+            Map<String, Double> values = new HashMap<>();
+            values.put("x", 2d);
+            values.put("y", 4d);
+            return values;
+        };
+        Map<String, Double> vars = new HashMap<>();
+        vars.put("a", 1d);
+        vars.put("b", 3d);
+        assertEquals(6d, ExpressionCalc.calcExp(exp, vars, freeVariables.resolve(vars, store)), 0d);
+        assertEquals(1, calls.size());
+        assertEquals(Arrays.asList("x", "y"), new ArrayList<>(calls.get(0)));
+
+        // 一批变量只调用一次
+        Map<String, Double> other = new HashMap<>(vars);
+        other.put("x", 1d);
+        Function<String, Double> provider = freeVariables.resolve(Arrays.asList(vars, other), store);
+        assertEquals(2, calls.size());
+        assertEquals(6d, ExpressionCalc.calcExp(exp, vars, provider), 0d);
+        assertEquals(0d, ExpressionCalc.calcExp(exp, other, provider), 0d);
+        assertEquals(2, calls.size());
+
+        // 全部变量都存在时不调用
+        other.put("y", 1d);
+        freeVariables.resolve(other, store);
+        assertEquals(2, calls.size());
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.tang.tj.toolkit.expression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedExpressionCatalogTest {
+
+    @Test
+    void open01(@TempDir Path dir) throws Exception {
+        ExpressionCatalog catalog = new ExpressionCatalog();
+        String[] formulas = {"(a+b)-1.0 - (-50%) - b + (a+b)/b", "a * 100 / c", "if(a > b, max(a, 2), coalesce(c, 7))",
+                "销量 * 单价", "a >= 3 and not b"};
+        for (String formula : formulas) {
+            catalog.add(formula);
+        }
+        catalog.add(OptimizedExpression.optimize(ExpressionCalc.parseExp("a * 1 + 0")).getExp(), null);
+        Path file = dir.resolve("formulas.bin");
+        catalog.writeTo(file);
+
+        MappedExpressionCatalog mapped = MappedExpressionCatalog.open(file);
+        assertEquals(6, mapped.size());
+        assertEquals(0, mapped.getDecodedCount());
+        assertEquals(catalog.getSymbolCount(), mapped.getSymbolCount());
+        assertEquals(catalog.symbolOf("单价"), mapped.symbolOf("单价"));
+        assertEquals(-1, mapped.symbolOf("x"));
+
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("a", 3d);
+        variableMap.put("b", 2d);
+        variableMap.put("销量", 4d);
+        variableMap.put("单价", 2.5d);
+        // 只解码计算过的公式
+        assertEquals(catalog.calc(2, variableMap), mapped.calc(2, variableMap), 0d);
+        assertEquals(1, mapped.getDecodedCount());
+        assertEquals(formulas[2], mapped.getSource(2));
+        assertNull(mapped.getSource(5));
+
+        double[] row = mapped.newRow();
+        long[] presentMask = new long[1];
+        for (Map.Entry<String, Double> entry : variableMap.entrySet()) {
+            row[mapped.symbolOf(entry.getKey())] = entry.getValue();
+            VarSlots.markPresent(presentMask, mapped.symbolOf(entry.getKey()));
+        }
+        double[] stack = mapped.newStack();
+        for (int i = 0; i < mapped.size(); i++) {
+            double expected = catalog.calc(i, variableMap, name -> 0d, (l, r) -> -1d);
+            assertEquals(expected, mapped.calc(i, variableMap, name -> 0d, (l, r) -> -1d), 0d);
+            assertEquals(expected, mapped.calc(i, row, presentMask, name -> 0d, (l, r) -> -1d, stack), 0d);
+        }
+        assertThrows(IllegalArgumentException.class, () -> mapped.calc(1, variableMap));
+        assertThrows(IndexOutOfBoundsException.class, () -> mapped.calc(6, variableMap));
+    }
+
+    @Test
+    void wrap01() throws Exception {
+        ExpressionCatalog catalog = new ExpressionCatalog();
+        catalog.add("a + 1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        catalog.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(3d, MappedExpressionCatalog.wrap(ByteBuffer.wrap(bytes)).calc(0, Map.of("a", 2d)), 0d);
+
+        // 文件头、版本校验
+        byte[] version = bytes.clone();
+        version[5] = 2;
+        assertThrows(IllegalArgumentException.class, () -> MappedExpressionCatalog.wrap(ByteBuffer.wrap(version)));
+        assertThrows(IllegalArgumentException.class, () -> MappedExpressionCatalog.wrap(ByteBuffer.wrap(new byte[8])));
+    }
+
+}
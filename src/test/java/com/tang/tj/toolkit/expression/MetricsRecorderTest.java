@@ -0,0 +1,131 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRecorderTest {
+
+    @Test
+    void record01() {
+        MetricsRecorder recorder = MetricsRecorder.install();
+        try {
+            Exp exp = ExpressionCalc.parseExp("a / b + c");
+            Map<String, Double> vars = new HashMap<>();
+            vars.put("a", 1d);
+            vars.put("b", 0d);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(5d, ExpressionCalc.calcExp(exp, vars, varName -> 5d), 0d);
+            }
+            Expression expression = Expression.parse("a * 2");
+            assertEquals(2d, expression.calc(vars), 0d);
+
+            ExpressionCache cache = new ExpressionCache(10);
+            cache.get("x + 1");
+            cache.get("x + 1");
+            cache.get("x + 1");
+        } finally {
+            ExpressionMetrics.uninstall();
+        }
+        // 关闭后不再记录
+        ExpressionCalc.calcExp(ExpressionCalc.parseExp("a / b + c"), new HashMap<>(), varName -> 0d);
+
+        MetricsRecorder.Snapshot snapshot = recorder.snapshot();
+        MetricsRecorder.FormulaSnapshot formula = snapshot.getFormula("a / b + c");
+        assertEquals(1, formula.getParseCount());
+        assertEquals(5, formula.getNodeCount());
+        assertEquals(10, formula.getEvalCount());
+        assertTrue(formula.percentile(50) <= formula.percentile(99));
+        assertTrue(formula.percentile(99) <= formula.getMaxNanos());
+        assertEquals(1, snapshot.getFormula("a * 2").getEvalCount());
+        assertEquals(1, snapshot.getFormula("x + 1").getParseCount());
+        assertEquals(10, snapshot.getDividedByZero());
+        assertEquals(10, snapshot.getMissingVariable());
+        assertEquals(10L, snapshot.getMissingVariables().get("c"));
+        assertEquals(2, snapshot.getCacheHits());
+        assertEquals(1, snapshot.getCacheMisses());
+        assertEquals(2d / 3, snapshot.cacheHitRate(), 1e-12);
+        assertFalse(snapshot.toString().isEmpty());
+
+        // 直方图区间连续
+        for (long nanos = 0; nanos < 1 << 16; nanos++) {
+            int bucket = MetricsRecorder.bucket(nanos);
+            assertTrue(nanos <= MetricsRecorder.bucketUpperBound(bucket));
+            assertTrue(bucket == 0 || nanos > MetricsRecorder.bucketUpperBound(bucket - 1));
+        }
+        assertTrue(MetricsRecorder.bucket(Long.MAX_VALUE) < 256);
+    }
+
+    @Test
+    void record02() {
+        MetricsRecorder recorder = MetricsRecorder.install();
+        try {
+            // 无表达式片段的 Exp 计入 UNNAMED
+            Exp constant = new Exp();
+            constant.setType(1);
+            constant.setValue(2d);
+            assertEquals(2d, ExpressionCalc.calcExp(constant, new HashMap<>()), 0d);
+            assertEquals(1, recorder.snapshot().getFormula(ExpressionMetrics.UNNAMED).getEvalCount());
+
+            Exp exp = ExpressionCalc.parseExp("a * 2 + b");
+            Map<String, Double> vars = new HashMap<>();
+            vars.put("a", 1d);
+            vars.put("b", 3d);
+            BoundExpression bound = BoundExpression.bind(exp);
+            assertEquals(5d, bound.calc(new double[]{1d, 3d}), 0d);
+            CompiledExpression compiled = CompiledExpression.compile(exp);
+            assertEquals(5d, compiled.calc(vars), 0d);
+            assertEquals(5d, OptimizedExpression.optimize(exp).calc(vars), 0d);
+            double[] result = new double[2];
+            BatchExpression.of(exp).calc(new double[][]{{1d, 2d}, {3d, 3d}}, result);
+            ExpressionCatalog catalog = new ExpressionCatalog();
+            assertEquals(5d, catalog.calc(catalog.add("a * 2 + b"), vars), 0d);
+            assertEquals(5, recorder.snapshot().getFormula("a * 2 + b").getEvalCount());
+
+            // 清空后缓存的计时失效，重新取得
+            recorder.reset();
+            assertEquals(5d, bound.calc(new double[]{1d, 3d}), 0d);
+            assertEquals(5d, compiled.calc(vars), 0d);
+            assertEquals(2, recorder.snapshot().getFormula("a * 2 + b").getEvalCount());
+
+            // 替换监听后记录到新的监听
+            MetricsRecorder other = MetricsRecorder.install();
+            assertEquals(5d, bound.calc(new double[]{1d, 3d}), 0d);
+            assertEquals(1, other.snapshot().getFormula("a * 2 + b").getEvalCount());
+            assertEquals(2, recorder.snapshot().getFormula("a * 2 + b").getEvalCount());
+        } finally {
+            ExpressionMetrics.uninstall();
+        }
+    }
+
+    @Test
+    void record03() {
+        // 编译、批量计算中的被除数为0、变量不存在
+        MetricsRecorder recorder = MetricsRecorder.install();
+        try {
+            Exp exp = ExpressionCalc.parseExp("a / b + c");
+            Map<String, Double> vars = new HashMap<>();
+            vars.put("a", 1d);
+            vars.put("b", 0d);
+            CompiledExpression compiled = CompiledExpression.compile(exp);
+            assertEquals(5d, compiled.calc(vars, varName -> 5d), 0d);
+
+            Map<String, double[]> columns = new HashMap<>();
+            columns.put("a", new double[]{1d, 2d, 3d});
+            columns.put("b", new double[]{0d, 1d, 0d});
+            double[] result = new double[3];
+            BatchExpression.of(exp).calc(columns, result, varName -> 1d, (left, right) -> 0d);
+            assertArrayEquals(new double[]{1d, 3d, 1d}, result, 0d);
+        } finally {
+            ExpressionMetrics.uninstall();
+        }
+        MetricsRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(3, snapshot.getDividedByZero());
+        assertEquals(2L, snapshot.getMissingVariables().get("c"));
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimizedExpressionTest {
+
+    @Test
+    void optimize01() {
+        Exp exp = ExpressionCalc.parseExp("(a+b)*(2*3-5) + (a+b)/(c-0) + 4/(1-1)");
+        OptimizedExpression optimized = OptimizedExpression.optimize(exp);
+        assertEquals(23, optimized.getNodeCountBefore());
+        // a、b、a+b、c、(a+b)/c、加号、0、4、4/0、根节点
+        assertEquals(10, optimized.getNodeCountAfter());
+
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("a", 1d);
+        variableMap.put("b", 2d);
+        variableMap.put("c", 0d);
+        AtomicInteger dividendZeroCount = new AtomicInteger();
+        double expected = ExpressionCalc.calcExp(exp, variableMap, name -> 0d, (l, r) -> 7d);
+        double actual = optimized.calc(variableMap, name -> 0d, (l, r) -> {
+            dividendZeroCount.incrementAndGet();
+            return 7d;
+        });
+        assertEquals(expected, actual, 0d);
+        // 4/(1-1) 不折叠，(a+b)/c 只计算一次
+        assertEquals(2, dividendZeroCount.get());
+        assertEquals(expected, ExpressionCalc.calcExp(optimized.getExp(), variableMap, name -> 0d, (l, r) -> 7d), 0d);
+    }
+
+    @Test
+    void optimize02() {
+        // 不化简 x*0、x-x，保留 NaN
+        Exp exp = ExpressionCalc.parseExp("a*0 + (a-a) + 0*1");
+        OptimizedExpression optimized = OptimizedExpression.optimize(exp);
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("a", Double.NaN);
+        assertTrue(Double.isNaN(optimized.calc(variableMap)));
+        variableMap.put("a", Double.POSITIVE_INFINITY);
+        assertTrue(Double.isNaN(optimized.calc(variableMap)));
+        assertEquals(11, optimized.getNodeCountBefore());
+        assertEquals(5, optimized.getNodeCountAfter());
+    }
+
+}
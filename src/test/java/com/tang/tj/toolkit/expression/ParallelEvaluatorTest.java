@@ -0,0 +1,59 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelEvaluatorTest {
+
+    @Test
+    void calc01() {
+        List<Exp> exps = new ArrayList<>();
+        exps.add(ExpressionCalc.parseExp("(a+b)-1.0 - (-50%) - b + (a+b)/b"));
+        exps.add(ExpressionCalc.parseExp("a * c / (b - 3)"));
+        exps.add(ExpressionCalc.parseExp("100 - c"));
+        int rows = 5000;
+        Map<String, double[]> columns = new HashMap<>();
+        double[] a = new double[rows], b = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            a[i] = i * 0.5;
+            b[i] = i % 7;
+        }
+        columns.put("a", a);
+        columns.put("b", b);
+
+        ParallelEvaluator evaluator = ParallelEvaluator.of(exps, 1000, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        ParallelEvaluator.Result result;
+        try {
+            result = evaluator.calc(columns, rows, name -> 2d, (l, r) -> -1d, executor);
+        } finally {
+            executor.shutdown();
+        }
+        // 2 组表达式 * 5 段行
+        assertEquals(10, result.getTimings().size());
+        for (ParallelEvaluator.TaskTiming timing : result.getTimings()) {
+            assertNotNull(timing.getThreadName());
+        }
+        Map<String, Double> vars = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            vars.put("a", a[i]);
+            vars.put("b", b[i]);
+            for (int f = 0; f < exps.size(); f++) {
+                assertEquals(ExpressionCalc.calcExp(exps.get(f), vars, name -> 2d, (l, r) -> -1d),
+                        result.get(f)[i], 0d);
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> evaluator.calc(columns, rows));
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.tang.tj.toolkit.expression;
+
+import com.tang.tj.toolkit.expression.ExpressionCalc.Exp;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StackExpressionTest {
+
+    @Test
+    void calc01() {
+        Exp exp = ExpressionCalc.parseExp("(a+b)-1.0 - (-50%) - b + (a+b)/c + d");
+        StackExpression program = StackExpression.compile(exp);
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("a", 3d);
+        variableMap.put("b", 2d);
+        variableMap.put("c", 0d);
+        variableMap.put("d", null);
+        assertEquals(ExpressionCalc.calcExp(exp, variableMap, name -> 0d, (l, r) -> 9d),
+                program.calc(variableMap, name -> 0d, (l, r) -> 9d), 0d);
+
+        // 操作数栈重复使用
+        double[] stack = program.newStack();
+        double[] row = program.getSlots().newRow();
+        for (int i = 1; i <= 3; i++) {
+            row[program.getSlots().slotOf("a")] = i;
+            row[program.getSlots().slotOf("c")] = i;
+            assertEquals(i - 1 + 0.5 + (i + 0d) / i, program.calc(row, null, null, (l, r) -> 0d, stack), 1e-12);
+        }
+    }
+
+    @Test
+    void calc02() {
+        // 超过递归层数限制
+        StringBuilder formula = new StringBuilder("m1");
+        Map<String, Double> variableMap = new HashMap<>();
+        variableMap.put("m1", 1d);
+        for (int i = 2; i <= 1500; i++) {
+            formula.append("+m").append(i);
+            variableMap.put("m" + i, (double) i);
+        }
+        Exp exp = ExpressionCalc.parseExp(formula.toString());
+        assertThrows(IllegalStateException.class, () -> ExpressionCalc.calcExp(exp, variableMap));
+        StackExpression program = StackExpression.compile(exp);
+        assertEquals(2, program.getMaxStackDepth());
+        assertEquals(1500 * 1501 / 2d, program.calc(variableMap), 0d);
+    }
+
+    @Test
+    void calc03() {
+        // 线程复用的操作数栈，自定义函数中嵌套计算其他表达式时不复用
+        BoundExpression inner = BoundExpression.bind(ExpressionCalc.parseExp("x * 10 + y"));
+        ExpressionFunctions.register("nested", (DoubleUnaryOperator) x -> inner.calc(new double[]{x, 1d}));
+        try {
+            BoundExpression outer = BoundExpression.bind(ExpressionCalc.parseExp("a + nested(b) * (c - a)"));
+            assertEquals(2d + 31d * 2d, outer.calc(new double[]{2d, 3d, 4d}), 0d);
+            assertEquals(2d + 31d * 2d, outer.calc(new double[]{2d, 3d, 4d}, null, name -> 0d, (l, r) -> 0d), 0d);
+            assertEquals(21d, inner.calc(new double[]{2d, 1d}), 0d);
+
+            // 装箱回调在计算后不再持有
+            StackExpression program = StackExpression.compile(ExpressionCalc.parseExp("a / b + c"));
+            long[] mask = new long[]{0b011L};
+            assertEquals(5d, program.calc(new double[]{1d, 0d, 0d}, mask, name -> 5d, (l, r) -> 0d), 0d);
+            assertEquals(-1d, program.calc(new double[]{1d, 0d, 0d}, mask, name -> 0d, (l, r) -> -1d), 0d);
+            assertEquals(7d, program.calcUnboxed(new double[]{1d, 0d, 0d}, mask, name -> 7d, (l, r) -> 0d), 0d);
+        } finally {
+            ExpressionFunctions.unregister("nested");
+        }
+    }
+
+}
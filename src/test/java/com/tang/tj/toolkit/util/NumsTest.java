@@ -0,0 +1,131 @@
+package com.tang.tj.toolkit.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NumsTest {
+
+    @Test
+    void parseDouble01() {
+        Random random = new Random(17);
+        String[] fixed = {"0", "-0", "+1", ".5", "5.", "0.1", "1e23", "9007199254740993", "2.2250738585072011e-308",
+                "4.9e-324", "2.4703282292062328e-324", "1.7976931348623157e308", "1.7976931348623159e308", "1e-400",
+                "123456789012345678901234567890", "0.000000000000000000000000000001234567890123456789012345",
+                "7.3177701707893310e+15", "1E+0", "1e-0"};
+        for (String text : fixed) {
+            assertParse(text);
+        }
+        for (int i = 0; i < 200_000; i++) {
+            String text;
+            switch (i % 4) {
+                case 0:
+                    text = Double.toString(Double.longBitsToDouble(random.nextLong() & Long.MAX_VALUE));
+                    break;
+                case 1:
+                    text = (random.nextLong() % 100_000_000_000L) / 1000d + "";
+                    break;
+                case 2:
+                    text = Long.toUnsignedString(random.nextLong()) + random.nextInt(1000) + "e" + (random.nextInt(700) - 350);
+                    break;
+                default:
+                    text = random.nextInt(10_000) + "." + random.nextInt(1_000_000);
+            }
+            if ("NaN".equals(text) || "Infinity".equals(text)) {
+                continue;
+            }
+            assertParse(text);
+        }
+
+        for (String text : new String[]{"", "-", "+", ".", "-.", "1e", "1e+", "e1", "1.2.3", "1-", " 1", "1 ", "NaN", "0x10"}) {
+            assertTrue(Double.isNaN(Nums.parseDouble(text, 0, text.length(), Double.NaN)), text);
+        }
+        // 同 isParsable 规则
+        for (String text : new String[]{"12", "-12.5", ".5", "-.5", "1.", "+1", "1e5", "-", "1.2.3", "0012.300"}) {
+            double value = Nums.parsePlainDouble(text, 0, text.length(), Double.NaN);
+            assertEquals(Nums.isParsable(text), !Double.isNaN(value), text);
+            if (Nums.isParsable(text)) {
+                assertEquals(Double.valueOf(text), value, 0d);
+            }
+        }
+    }
+
+    private static void assertParse(String text) {
+        double expected = Double.parseDouble(text);
+        assertEquals(Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(Nums.parseDouble(text, 0, text.length(), Double.NaN)), text);
+        byte[] bytes = ("[" + text + "]").getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(Nums.parseDouble(bytes, 1, bytes.length - 1, Double.NaN)), text);
+    }
+
+    @Test
+    void number2Double01() {
+        assertEquals(1.5d, Nums.number2Double(" 1.5d ", -1d), 0d);
+        assertEquals(-3d, Nums.number2Double(-3, -1d), 0d);
+        assertEquals(16d, Nums.number2Double("0x10p0", -1d), 0d);
+        assertEquals(Double.NEGATIVE_INFINITY, Nums.number2Double("-Infinity", -1d), 0d);
+        assertTrue(Double.isNaN(Nums.number2Double("NaN", -1d)));
+        assertEquals(-1d, Nums.number2Double("N/A", -1d), 0d);
+        assertEquals(-1d, Nums.number2Double("", -1d), 0d);
+        assertEquals(-1d, Nums.number2Double(null, -1d), 0d);
+
+        assertEquals(Integer.MIN_VALUE, Nums.number2Int("-2147483648", 0));
+        assertEquals(Integer.MAX_VALUE, Nums.number2Int("+2147483647", 0));
+        assertEquals(-1, Nums.number2Int("2147483648", -1));
+        assertEquals(-1, Nums.number2Int("1.5", -1));
+        assertEquals(-1, Nums.number2Int("-", -1));
+        assertEquals(12, Nums.number2Int("١٢", -1));
+    }
+
+    @Test
+    void double2Str01() {
+        Random random = new Random(18);
+        double[] fixed = {0d, -0d, 11d, 11.1d, -11.19d, 0.1d, 0.3d, 1e-7d, -1e-7d, 123456.789d, 1e15d, 1e22d,
+                9.999999999d, 0.000001d, 2.675d, 1.005d, 4.35d, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+        StringBuilder sb = new StringBuilder();
+        char[] chars = new char[Nums.maxDoubleStrLength(20)];
+        ByteBuffer buffer = ByteBuffer.allocate(Nums.maxDoubleStrLength(20));
+        for (int i = 0; i < 300_000; i++) {
+            double num;
+            if (i < fixed.length) {
+                num = fixed[i];
+            } else if (i % 3 == 0) {
+                num = Double.longBitsToDouble(random.nextLong());
+            } else if (i % 3 == 1) {
+                num = (random.nextLong() % 10_000_000_000L) / Math.pow(10, random.nextInt(12));
+            } else {
+                num = random.nextDouble() * Math.pow(10, random.nextInt(20) - 8);
+            }
+            if (Double.isNaN(num) || Double.isInfinite(num)) {
+                continue;
+            }
+            int scale = i % 21;
+            String expected = num == 0d ? "0"
+                    : BigDecimal.valueOf(num).setScale(scale, RoundingMode.DOWN).stripTrailingZeros().toPlainString();
+            assertEquals(expected, Nums.double2Str(num, scale), num + " " + scale);
+            sb.setLength(0);
+            assertEquals(expected, Nums.double2Str(num, scale, sb).toString());
+            assertEquals(expected, new String(chars, 0, Nums.double2Str(num, scale, chars, 0)));
+            buffer.clear();
+            Nums.double2Str(num, scale, buffer);
+            assertEquals(expected, new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+        }
+
+        // 批量写入，空间不足时返回下一个下标
+        double[] column = {1.5d, -2d, 0.125d, 3d};
+        ByteBuffer small = ByteBuffer.allocate(9);
+        assertEquals(2, Nums.double2Str(column, 0, column.length, 2, (byte) '\n', small));
+        assertEquals("1.5\n-2\n", new String(small.array(), 0, small.position(), StandardCharsets.US_ASCII));
+        small.clear();
+        assertEquals(4, Nums.double2Str(column, 2, column.length, 2, (byte) '\n', small));
+        assertEquals("0.12\n3\n", new String(small.array(), 0, small.position(), StandardCharsets.US_ASCII));
+    }
+
+}